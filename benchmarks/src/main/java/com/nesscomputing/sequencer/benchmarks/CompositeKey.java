@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A two part key, standing in for the tuple keys used by feature encoders.
+ */
+public final class CompositeKey implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String field;
+    private final String term;
+
+    @JsonCreator
+    public CompositeKey(@JsonProperty("field") String field, @JsonProperty("term") String term)
+    {
+        this.field = field;
+        this.term = term;
+    }
+
+    @JsonProperty
+    public String getField()
+    {
+        return field;
+    }
+
+    @JsonProperty
+    public String getTerm()
+    {
+        return term;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompositeKey)) {
+            return false;
+        }
+        final CompositeKey other = (CompositeKey) obj;
+        return field.equals(other.field) && term.equals(other.term);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * field.hashCode() + term.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return field + ":" + term;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.sequencer.ConcurrentHashSequencer;
+import com.nesscomputing.sequencer.HashSequencer;
+import com.nesscomputing.sequencer.Sequencer;
+import com.nesscomputing.sequencer.ShardedSequencer;
+
+/**
+ * Compares {@link ConcurrentHashSequencer} and {@link ShardedSequencer} against a
+ * {@link HashSequencer} guarded by a single external lock, with every benchmark thread
+ * hammering the same instance.
+ * Run with {@code -t} to vary the number of contending threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ContendedSequencerBenchmark
+{
+    @Param({"concurrent", "sharded", "synchronized"})
+    public String impl;
+
+    /** Number of distinct keys; lookups beyond the current size turn into adds. */
+    @Param({"1000000"})
+    public int keySpace;
+
+    private String[] keys;
+    private Sequencer<String> sequencer;
+    private ShardedSequencer<String> sharded;
+
+    @Setup(Level.Trial)
+    public void setUpKeys()
+    {
+        keys = KeyGenerators.strings(keySpace);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpSequencer()
+    {
+        sequencer = null;
+        sharded = null;
+        switch (impl) {
+        case "concurrent":
+            sequencer = ConcurrentHashSequencer.create();
+            break;
+        case "sharded":
+            sharded = ShardedSequencer.create();
+            break;
+        case "synchronized":
+            sequencer = HashSequencer.create();
+            break;
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+        // Half of the key space exists up front, so the benchmark sees both hits and adds.
+        for (int i = 0; i < keySpace / 2; i++) {
+            if (sharded != null) {
+                sharded.sequenceOrAdd(keys[i]);
+            } else {
+                sequencer.sequenceOrAdd(keys[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public int sequenceOrAdd()
+    {
+        final String key = keys[ThreadLocalRandom.current().nextInt(keySpace)];
+        if (sharded != null) {
+            return sharded.sequenceOrAdd(key);
+        }
+        if (sequencer instanceof HashSequencer) {
+            synchronized (sequencer) {
+                return sequencer.sequenceOrAdd(key);
+            }
+        }
+        return sequencer.sequenceOrAdd(key);
+    }
+
+    @Benchmark
+    public int sequenceIfExists()
+    {
+        final String key = keys[ThreadLocalRandom.current().nextInt(keySpace)];
+        if (sharded != null) {
+            return sharded.sequenceIfExists(key);
+        }
+        if (sequencer instanceof HashSequencer) {
+            synchronized (sequencer) {
+                return sequencer.sequenceIfExists(key);
+            }
+        }
+        return sequencer.sequenceIfExists(key);
+    }
+}
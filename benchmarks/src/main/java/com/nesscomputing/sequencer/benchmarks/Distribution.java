@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How benchmark lookups pick among the keys.
+ */
+enum Distribution
+{
+    /** Every key is equally likely. */
+    UNIFORM {
+        @Override
+        int[] sample(int keyCount, int count, Random random)
+        {
+            final int[] result = new int[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = random.nextInt(keyCount);
+            }
+            return result;
+        }
+    },
+
+    /** Key {@code i} is drawn with probability proportional to {@code 1 / (i + 1)^0.99}, like word frequencies. */
+    ZIPFIAN {
+        @Override
+        int[] sample(int keyCount, int count, Random random)
+        {
+            final double[] cumulative = new double[keyCount];
+            double sum = 0;
+            for (int i = 0; i < keyCount; i++) {
+                sum += 1 / Math.pow(i + 1, EXPONENT);
+                cumulative[i] = sum;
+            }
+            final int[] result = new int[count];
+            for (int i = 0; i < count; i++) {
+                final int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                result[i] = Math.min(keyCount - 1, index < 0 ? -index - 1 : index);
+            }
+            return result;
+        }
+    };
+
+    private static final double EXPONENT = 0.99;
+
+    /**
+     * @return {@code count} indexes into {@code [0, keyCount)}, drawn from this distribution
+     */
+    abstract int[] sample(int keyCount, int count, Random random);
+}
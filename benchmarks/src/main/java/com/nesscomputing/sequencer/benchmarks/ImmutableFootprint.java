@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.nesscomputing.sequencer.ImmutableSequencer;
+import com.nesscomputing.sequencer.ImmutableSequencer.IndexType;
+
+/**
+ * Reports the retained heap of each immutable sequencer index, excluding the keys themselves.
+ * Heap use can not be measured by JMH, so this is a plain program:
+ * {@code java -cp benchmarks.jar com.nesscomputing.sequencer.benchmarks.ImmutableFootprint [size]}.
+ * Run it with a fixed heap ({@code -Xms} equal to {@code -Xmx}) for stable numbers.
+ */
+public final class ImmutableFootprint
+{
+    private ImmutableFootprint() { }
+
+    public static void main(String[] args)
+    {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final List<String> keys = Arrays.asList(KeyGenerators.strings(size));
+
+        for (IndexType indexType : IndexType.values()) {
+            final long before = usedHeap();
+            final ImmutableSequencer<String> sequencer = ImmutableSequencer.of(indexType, keys);
+            final long after = usedHeap();
+
+            System.out.printf("%-14s %,12d keys %,14d bytes %8.2f bytes/key%n",
+                    indexType, sequencer.size(), after - before, (after - before) / (double) size);
+        }
+    }
+
+    private static long usedHeap()
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.sequencer.ImmutableSequencer;
+import com.nesscomputing.sequencer.ImmutableSequencer.IndexType;
+
+/**
+ * Lookup latency of the immutable sequencer indexes.  See {@link ImmutableFootprint}
+ * for their heap use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImmutableLookupBenchmark
+{
+    @Param({"HASH_TABLE", "PERFECT_HASH"})
+    public IndexType indexType;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private String[] keys;
+    private String[] missing;
+    private ImmutableSequencer<String> sequencer;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final String[] all = KeyGenerators.strings(size * 2);
+        keys = Arrays.copyOfRange(all, 0, size);
+        missing = Arrays.copyOfRange(all, size, size * 2);
+        sequencer = ImmutableSequencer.of(indexType, Arrays.asList(keys));
+    }
+
+    @Benchmark
+    public int hit()
+    {
+        return sequencer.sequenceIfExists(keys[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public int miss()
+    {
+        return sequencer.sequenceIfExists(missing[ThreadLocalRandom.current().nextInt(size)]);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic key sets shared by the benchmarks.
+ */
+final class KeyGenerators
+{
+    static final long SEED = 0x5EC0E4CE5L;
+
+    private KeyGenerators() { }
+
+    /**
+     * @return {@code count} distinct strings that look like typical dictionary terms.
+     */
+    static String[] strings(int count)
+    {
+        final Random random = new Random(SEED);
+        final String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = "term-" + Long.toString(random.nextInt(Integer.MAX_VALUE), 36) + "-" + i;
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code count} distinct longs spread over the whole range, like user ids.
+     */
+    static Long[] longs(int count)
+    {
+        final Random random = new Random(SEED);
+        final Long[] result = new Long[count];
+        for (int i = 0; i < count; i++) {
+            // The low bits make the keys distinct, the high bits spread them.
+            result[i] = (random.nextLong() & ~0xffffffffL) | i;
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code count} distinct composite keys, like (field, term) pairs.
+     */
+    static CompositeKey[] composites(int count)
+    {
+        final String[] strings = strings(count);
+        final CompositeKey[] result = new CompositeKey[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new CompositeKey("field" + (i % 16), strings[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code count} keys of the given type, which must be one of {@code string}, {@code long} or {@code composite}
+     */
+    static Object[] keys(String keyType, int count)
+    {
+        switch (keyType) {
+        case "string":
+            return strings(count);
+        case "long":
+            return longs(count);
+        case "composite":
+            return composites(count);
+        default:
+            throw new IllegalArgumentException(keyType);
+        }
+    }
+
+    static Class<?> keyClass(String keyType)
+    {
+        return keys(keyType, 0).getClass().getComponentType();
+    }
+}
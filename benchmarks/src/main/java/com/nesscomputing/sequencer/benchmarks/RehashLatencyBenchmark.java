@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.sequencer.HashSequencer;
+import com.nesscomputing.sequencer.IncrementalHashSequencer;
+import com.nesscomputing.sequencer.Sequencer;
+
+/**
+ * The latency distribution of adding new keys, one {@code sequenceOrAdd} per sample, as a
+ * sequencer grows from empty to {@code size} keys.  {@link HashSequencer} rehashes its whole
+ * table whenever it grows, which shows up in the highest percentiles; {@link IncrementalHashSequencer}
+ * spreads that work over the following adds.  Compare the p0.999 and p0.9999 columns.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class RehashLatencyBenchmark
+{
+    @Param({"hash", "incremental"})
+    public String impl;
+
+    @Param({"string", "long"})
+    public String keyType;
+
+    /** Number of keys to grow to before starting over with an empty sequencer. */
+    @Param({"4000000"})
+    public int size;
+
+    private Object[] keys;
+    private Sequencer<Object> sequencer;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUpKeys()
+    {
+        keys = KeyGenerators.keys(keyType, size);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpSequencer()
+    {
+        reset();
+    }
+
+    private void reset()
+    {
+        switch (impl) {
+        case "hash":
+            sequencer = HashSequencer.create();
+            break;
+        case "incremental":
+            sequencer = IncrementalHashSequencer.create();
+            break;
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public int sequenceOrAdd()
+    {
+        if (next == size) {
+            // Starting over is one cheap sample, and keeps every growth step in the distribution.
+            reset();
+        }
+        return sequencer.sequenceOrAdd(keys[next++]);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nesscomputing.sequencer.ImmutableShadowingSequencerBuilder;
+import com.nesscomputing.sequencer.Sequencer;
+import com.nesscomputing.sequencer.SequencerCursor;
+import com.nesscomputing.sequencer.SequencerModule;
+
+/**
+ * Operations on whole sequencers: iteration, equality, hashing and serialization, for every
+ * implementation and key type (see {@link SequencerState}).  Results are per sequencer.
+ * <p>
+ * Shadowing builders can not be serialized with Java serialization, so for {@code builder}
+ * the Java serialization benchmarks use the sequencer it builds.
+ * <p>
+ * Run with {@code -prof gc} to report the allocation rate alongside the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SequencerBulkBenchmark
+{
+    @State(Scope.Thread)
+    public static class Encoded
+    {
+        Sequencer<Object> copy;
+        Sequencer<Object> serializable;
+        ObjectMapper mapper;
+        JavaType type;
+        byte[] java;
+        byte[] json;
+
+        @Setup(Level.Trial)
+        public void setUp(SequencerState state) throws IOException
+        {
+            copy = SequencerState.create(state.impl, state.keys);
+            mapper = new ObjectMapper().registerModule(new SequencerModule());
+            type = mapper.getTypeFactory().constructParametricType(Sequencer.class, KeyGenerators.keyClass(state.keyType));
+            serializable = state.sequencer instanceof ImmutableShadowingSequencerBuilder ? ((ImmutableShadowingSequencerBuilder<Object>) state.sequencer).build() : state.sequencer;
+            java = serialize(serializable);
+            json = mapper.writeValueAsBytes(state.sequencer);
+        }
+    }
+
+    @Benchmark
+    public long iterateEntries(SequencerState state)
+    {
+        long sum = 0;
+        for (Map.Entry<Object, Integer> entry : state.sequencer.entrySet()) {
+            sum += entry.getKey().hashCode() + entry.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long iterateCursor(SequencerState state)
+    {
+        long sum = 0;
+        final SequencerCursor<Object> cursor = state.sequencer.cursor();
+        while (cursor.next()) {
+            sum += cursor.key().hashCode() + cursor.id();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public boolean equalsCopy(SequencerState state, Encoded encoded)
+    {
+        return state.sequencer.equals(encoded.copy);
+    }
+
+    @Benchmark
+    public int hashCode(SequencerState state)
+    {
+        return state.sequencer.hashCode();
+    }
+
+    @Benchmark
+    public byte[] javaWrite(Encoded encoded) throws IOException
+    {
+        return serialize(encoded.serializable);
+    }
+
+    @Benchmark
+    public Object javaRead(Encoded encoded) throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded.java))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] jacksonWrite(SequencerState state, Encoded encoded) throws IOException
+    {
+        return encoded.mapper.writeValueAsBytes(state.sequencer);
+    }
+
+    @Benchmark
+    public Object jacksonRead(Encoded encoded) throws IOException
+    {
+        return encoded.mapper.readValue(encoded.json, encoded.type);
+    }
+
+    private static byte[] serialize(Object value) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+}
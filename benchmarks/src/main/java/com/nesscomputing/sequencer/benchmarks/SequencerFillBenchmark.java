@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.sequencer.ConcurrentHashSequencer;
+import com.nesscomputing.sequencer.HashSequencer;
+import com.nesscomputing.sequencer.ImmutableSequencer;
+import com.nesscomputing.sequencer.IncrementalHashSequencer;
+import com.nesscomputing.sequencer.Sequencer;
+
+/**
+ * Filling the mutable sequencers with {@code size} new keys, one {@code sequenceOrAdd} at a time.
+ * Run with {@code -prof gc} to see the allocation from growing the tables.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SequencerFillBenchmark
+{
+    @Param({"hash", "incremental", "concurrent", "builder"})
+    public String impl;
+
+    @Param({"string", "long", "composite"})
+    public String keyType;
+
+    @Param({"100000"})
+    public int size;
+
+    private Object[] keys;
+    private ImmutableSequencer<Object> base;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        keys = KeyGenerators.keys(keyType, size * 2);
+        base = ImmutableSequencer.of(Arrays.asList(keys).subList(size, size * 2));
+    }
+
+    @Benchmark
+    public Sequencer<Object> fill()
+    {
+        final Sequencer<Object> sequencer;
+        switch (impl) {
+        case "hash":
+            sequencer = HashSequencer.create();
+            break;
+        case "incremental":
+            sequencer = IncrementalHashSequencer.create();
+            break;
+        case "concurrent":
+            sequencer = ConcurrentHashSequencer.create();
+            break;
+        case "builder":
+            sequencer = base.extendImmutableSequence();
+            break;
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+        for (int i = 0; i < size; i++) {
+            sequencer.sequenceOrAdd(keys[i]);
+        }
+        return sequencer;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Per key operations against every sequencer implementation, key type and access
+ * distribution (see {@link SequencerState}).  Keys are taken in turn from a precomputed
+ * sample, so the measurement excludes the cost of drawing them.
+ * <p>
+ * Run with {@code -prof gc} to report the allocation rate alongside the throughput;
+ * {@code gc.alloc.rate.norm} gives the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SequencerOperationsBenchmark
+{
+    private static final int BATCH = 64;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int position;
+        Object[] batch;
+        List<Object> batchList;
+        int[] ids;
+        int[] batchIds;
+        TObjectIntMap<Object> resultMap;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            batch = new Object[BATCH];
+            batchList = Arrays.asList(batch);
+            ids = new int[BATCH];
+            batchIds = new int[BATCH];
+            resultMap = new TObjectIntHashMap<>(BATCH * 2, 0.5f, -1);
+        }
+
+        int next(SequencerState state)
+        {
+            final int query = state.queries[position];
+            position = (position + 1) & (SequencerState.QUERIES - 1);
+            return query;
+        }
+
+        void fillBatch(SequencerState state)
+        {
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = state.keys[next(state)];
+            }
+        }
+    }
+
+    @Benchmark
+    public int sequenceIfExistsHit(SequencerState state, Cursor cursor)
+    {
+        return state.sequencer.sequenceIfExists(state.keys[cursor.next(state)]);
+    }
+
+    @Benchmark
+    public int sequenceIfExistsMiss(SequencerState state, Cursor cursor)
+    {
+        return state.sequencer.sequenceIfExists(state.missing[cursor.next(state)]);
+    }
+
+    /**
+     * {@code sequenceOrAdd} of keys which are already present, so every implementation,
+     * including the immutable ones, can run it without growing.
+     */
+    @Benchmark
+    public int sequenceOrAddHit(SequencerState state, Cursor cursor)
+    {
+        return state.sequencer.sequenceOrAdd(state.keys[cursor.next(state)]);
+    }
+
+    @Benchmark
+    public Object unsequence(SequencerState state, Cursor cursor)
+    {
+        return state.sequencer.unsequence(cursor.next(state));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] sequenceExistingIntoArray(SequencerState state, Cursor cursor)
+    {
+        cursor.fillBatch(state);
+        state.sequencer.sequenceExisting(cursor.batch, cursor.batchIds);
+        return cursor.batchIds;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public TObjectIntMap<Object> sequenceExistingIntoMap(SequencerState state, Cursor cursor)
+    {
+        cursor.fillBatch(state);
+        cursor.resultMap.clear();
+        state.sequencer.sequenceExisting(cursor.batchList, cursor.resultMap);
+        return cursor.resultMap;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object[] unsequenceBatch(SequencerState state, Cursor cursor)
+    {
+        for (int i = 0; i < cursor.ids.length; i++) {
+            cursor.ids[i] = cursor.next(state);
+        }
+        state.sequencer.unsequence(cursor.ids, cursor.batch);
+        return cursor.batch;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.nesscomputing.sequencer.ConcurrentHashSequencer;
+import com.nesscomputing.sequencer.HashSequencer;
+import com.nesscomputing.sequencer.ImmutableSequencer;
+import com.nesscomputing.sequencer.ImmutableSequencer.IndexType;
+import com.nesscomputing.sequencer.ImmutableShadowingSequencerBuilder;
+import com.nesscomputing.sequencer.Sequencer;
+import com.nesscomputing.sequencer.ShadowingCompactionPolicy;
+import com.nesscomputing.sequencer.SingleWriterSequencer;
+
+/**
+ * A populated sequencer and the keys and ids to query it with, shared by the benchmarks.
+ * <p>
+ * {@code impl} selects the implementation:
+ * <ul>
+ * <li>{@code hash}, {@code concurrent}, {@code singleWriter}: {@link HashSequencer}, {@link ConcurrentHashSequencer},
+ *     {@link SingleWriterSequencer}</li>
+ * <li>{@code immutable}, {@code perfectHash}, {@code partitioned}: the immutable indexes</li>
+ * <li>{@code subSequence}: a view of the first {@code size} keys of a larger hash sequencer</li>
+ * <li>{@code shadowing2}, {@code shadowing4}, {@code shadowing8}: immutable stacks of that many layers,
+ *     each at most half the size of the one below</li>
+ * <li>{@code builder}: a shadowing builder holding the last quarter of the keys</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class SequencerState
+{
+    /** Number of precomputed queries; a power of two. */
+    static final int QUERIES = 1 << 16;
+
+    @Param({"hash", "concurrent", "singleWriter", "immutable", "perfectHash", "partitioned", "subSequence", "shadowing2", "shadowing4", "shadowing8", "builder"})
+    public String impl;
+
+    @Param({"string", "long", "composite"})
+    public String keyType;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public Distribution distribution;
+
+    @Param({"100000"})
+    public int size;
+
+    Object[] keys;
+    Object[] missing;
+    Sequencer<Object> sequencer;
+
+    /** Indexes into {@link #keys} and {@link #missing}, drawn from the distribution. */
+    int[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final Object[] all = KeyGenerators.keys(keyType, size * 2);
+        keys = Arrays.copyOfRange(all, 0, size);
+        missing = Arrays.copyOfRange(all, size, size * 2);
+        sequencer = create(impl, keys);
+
+        // Decouple popularity from id order, so hot keys are spread over all layers.
+        final Random random = new Random(KeyGenerators.SEED);
+        final int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int j = random.nextInt(i + 1);
+            permutation[i] = permutation[j];
+            permutation[j] = i;
+        }
+        queries = distribution.sample(size, QUERIES, random);
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = permutation[queries[i]];
+        }
+    }
+
+    static Sequencer<Object> create(String impl, Object[] keys)
+    {
+        final List<Object> keyList = Arrays.asList(keys);
+        switch (impl) {
+        case "hash":
+            return HashSequencer.copyOf(keyList);
+        case "concurrent":
+            return ConcurrentHashSequencer.copyOf(keyList);
+        case "singleWriter":
+            return SingleWriterSequencer.copyOf(keyList);
+        case "immutable":
+            return ImmutableSequencer.of(keyList);
+        case "perfectHash":
+            return ImmutableSequencer.of(IndexType.PERFECT_HASH, keyList);
+        case "partitioned":
+            return ImmutableSequencer.parallelOf(keyList);
+        case "subSequence":
+            final HashSequencer<Object> outer = HashSequencer.copyOf(keyList);
+            // A key past the end of the view, which is never generated for any key type.
+            outer.sequenceOrAdd("hidden");
+            return outer.subSequence(keys.length);
+        case "shadowing2":
+            return layered(keys, 2);
+        case "shadowing4":
+            return layered(keys, 4);
+        case "shadowing8":
+            return layered(keys, 8);
+        case "builder":
+            final ImmutableShadowingSequencerBuilder<Object> builder = ImmutableSequencer.of(keyList.subList(0, keys.length * 3 / 4)).extendImmutableSequence();
+            for (int i = keys.length * 3 / 4; i < keys.length; i++) {
+                builder.sequenceOrAdd(keys[i]);
+            }
+            return builder;
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+    }
+
+    private static ImmutableSequencer<Object> layered(Object[] keys, int depth)
+    {
+        // Each layer is at most half the size of the one below, so the policy never merges them.
+        final ShadowingCompactionPolicy policy = ShadowingCompactionPolicy.tiered(2, depth);
+        final int top = keys.length >> depth;
+        int from = keys.length - top * ((1 << (depth - 1)) - 1);
+        ImmutableSequencer<Object> result = ImmutableSequencer.of(Arrays.asList(keys).subList(0, from));
+        for (int layer = depth - 2; layer >= 0; layer--) {
+            final int to = from + (top << layer);
+            final ImmutableShadowingSequencerBuilder<Object> builder = result.extendImmutableSequence(policy);
+            for (int i = from; i < to; i++) {
+                builder.sequenceOrAdd(keys[i]);
+            }
+            result = builder.build();
+            from = to;
+        }
+        return result;
+    }
+}
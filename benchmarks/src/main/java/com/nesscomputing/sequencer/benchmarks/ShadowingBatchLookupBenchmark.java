@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import com.nesscomputing.sequencer.ImmutableSequencer;
+import com.nesscomputing.sequencer.ImmutableShadowingSequencerBuilder;
+
+/**
+ * Small batch lookups against a two layer shadowing sequencer.  This is a regression
+ * benchmark for allocation: run it with {@code -prof gc} and check that
+ * {@code gc.alloc.rate.norm} stays at zero bytes per operation, regardless of the size
+ * of the top layer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ShadowingBatchLookupBenchmark
+{
+    @Param({"100000"})
+    public int baseSize;
+
+    @Param({"4000"})
+    public int topSize;
+
+    @Param({"10"})
+    public int batchSize;
+
+    private ImmutableSequencer<String> sequencer;
+    private List<String> batch;
+    private String[] batchArray;
+    private TObjectIntMap<String> resultMap;
+    private int[] resultArray;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final String[] keys = KeyGenerators.strings(baseSize + topSize + batchSize);
+        final ImmutableShadowingSequencerBuilder<String> builder = ImmutableSequencer.of(Arrays.asList(keys).subList(0, baseSize)).extendImmutableSequence();
+        for (int i = baseSize; i < baseSize + topSize; i++) {
+            builder.sequenceOrAdd(keys[i]);
+        }
+        sequencer = builder.build();
+
+        // A third of the batch hits the base, a third the top layer, and the rest misses.
+        batchArray = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            switch (i % 3) {
+            case 0:
+                batchArray[i] = keys[i];
+                break;
+            case 1:
+                batchArray[i] = keys[baseSize + i];
+                break;
+            default:
+                batchArray[i] = keys[baseSize + topSize + i];
+                break;
+            }
+        }
+        batch = Arrays.asList(batchArray);
+        resultMap = new TObjectIntHashMap<>(batchSize * 2, 0.5f, -1);
+        resultArray = new int[batchSize];
+    }
+
+    @Benchmark
+    public TObjectIntMap<String> intoMap()
+    {
+        resultMap.clear();
+        sequencer.sequenceExisting(batch, resultMap);
+        return resultMap;
+    }
+
+    @Benchmark
+    public int[] intoArray()
+    {
+        sequencer.sequenceExisting(batchArray, resultArray);
+        return resultArray;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.sequencer.ConcurrentHashSequencer;
+import com.nesscomputing.sequencer.HashSequencer;
+import com.nesscomputing.sequencer.Sequencer;
+import com.nesscomputing.sequencer.SingleWriterSequencer;
+
+/**
+ * One thread adding keys while several threads look keys up in the same sequencer:
+ * {@link SingleWriterSequencer} and {@link ConcurrentHashSequencer} against a
+ * {@link HashSequencer} behind a read-write lock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Group)
+public class SingleWriterBenchmark
+{
+    @Param({"singleWriter", "concurrent", "readWriteLock"})
+    public String impl;
+
+    /** Number of distinct keys; the writer starts over with a fresh sequencer once all are added. */
+    @Param({"1000000"})
+    public int keySpace;
+
+    private String[] keys;
+    private volatile Sequencer<String> sequencer;
+    private ReadWriteLock lock;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUpKeys()
+    {
+        keys = KeyGenerators.strings(keySpace);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpSequencer()
+    {
+        lock = impl.equals("readWriteLock") ? new ReentrantReadWriteLock() : null;
+        sequencer = newSequencer();
+        // Readers look up the first half, which exists up front.
+        for (next = 0; next < keySpace / 2; next++) {
+            sequencer.sequenceOrAdd(keys[next]);
+        }
+    }
+
+    private Sequencer<String> newSequencer()
+    {
+        switch (impl) {
+        case "singleWriter":
+            return SingleWriterSequencer.create();
+        case "concurrent":
+            return ConcurrentHashSequencer.create();
+        case "readWriteLock":
+            return HashSequencer.create();
+        default:
+            throw new IllegalArgumentException(impl);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int write()
+    {
+        if (next == keySpace) {
+            // Keep the readers' half of the keys, so they never miss.
+            final Sequencer<String> fresh = newSequencer();
+            for (next = 0; next < keySpace / 2; next++) {
+                fresh.sequenceOrAdd(keys[next]);
+            }
+            sequencer = fresh;
+        }
+        final String key = keys[next++];
+        if (lock != null) {
+            lock.writeLock().lock();
+            try {
+                return sequencer.sequenceOrAdd(key);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return sequencer.sequenceOrAdd(key);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public int read()
+    {
+        final String key = keys[ThreadLocalRandom.current().nextInt(keySpace / 2)];
+        if (lock != null) {
+            lock.readLock().lock();
+            try {
+                return sequencer.sequenceIfExists(key);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return sequencer.sequenceIfExists(key);
+    }
+}
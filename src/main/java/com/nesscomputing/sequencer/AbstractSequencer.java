@@ -15,6 +15,8 @@
  */
 package com.nesscomputing.sequencer;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.util.Collection;
 import java.util.List;
 import java.util.Map.Entry;
@@ -24,6 +26,7 @@ import javax.annotation.Nonnull;
 
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.procedure.TObjectIntProcedure;
 
 /**
  * Base class for Sequencer implementations.  Takes care of a bit of the drudgery.
@@ -34,6 +37,7 @@ abstract class AbstractSequencer<K> implements Sequencer<K>
 
     private transient volatile Set<Entry<K, Integer>> entrySet;
     private transient volatile List<K> keyList;
+    private transient volatile SequencerFingerprint fingerprint;
 
     @Override
     public TObjectIntMap<K> sequenceExisting(Iterable<K> keys)
@@ -49,6 +53,81 @@ abstract class AbstractSequencer<K> implements Sequencer<K>
         return result;
     }
 
+    @Override
+    public void sequenceOrAdd(K[] keys, int[] result)
+    {
+        checkResult(keys.length, result.length);
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceOrAdd(List<K> keys, int[] result)
+    {
+        final int size = keys.size();
+        checkResult(size, result.length);
+        for (int i = 0; i < size; i++) {
+            result[i] = sequenceOrAdd(keys.get(i));
+        }
+    }
+
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        checkResult(keys.length, result.length);
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceIfExists(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        final int size = keys.size();
+        checkResult(size, result.length);
+        for (int i = 0; i < size; i++) {
+            result[i] = sequenceIfExists(keys.get(i));
+        }
+    }
+
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        checkResult(indexes.length, result.length);
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = unsequence(indexes[i]);
+        }
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, size(), result.length, offset);
+        for (int i = fromIndex; i < toIndex; i++) {
+            result[offset + i - fromIndex] = unsequence(i);
+        }
+    }
+
+    static void checkResult(int inputLength, int resultLength)
+    {
+        checkArgument(resultLength >= inputLength, "result holds %s elements, needs %s", resultLength, inputLength);
+    }
+
+    static void checkRange(int fromIndex, int toIndex, int size, int resultLength, int offset)
+    {
+        checkRange(fromIndex, toIndex, size);
+        checkArgument(offset >= 0, "negative offset %s", offset);
+        checkResult(toIndex - fromIndex, resultLength - offset);
+    }
+
+    static void checkRange(int fromIndex, int toIndex, int size)
+    {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("range [" + fromIndex + "," + toIndex + ") out of range [0," + size + ")");
+        }
+    }
+
     @Override
     public int sequence(K key) throws SequencerKeyException
     {
@@ -90,19 +169,83 @@ abstract class AbstractSequencer<K> implements Sequencer<K>
         return new SubSequenceView<K>(this, numElements);
     }
 
+    @Override
+    public boolean forEachEntry(TObjectIntProcedure<? super K> procedure)
+    {
+        final SequencerCursor<K> cursor = cursor();
+        while (cursor.next()) {
+            if (!procedure.execute(cursor.key(), cursor.id())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SequencerCursor<K> cursor()
+    {
+        return new SequencerCursor<>(this, 0, size());
+    }
+
+    @Override
+    public SequencerCursor<K> cursor(int fromIndex, int toIndex)
+    {
+        return new SequencerCursor<>(this, fromIndex, toIndex);
+    }
+
+    /**
+     * @return the fingerprint of this sequencer, extended to all current ids
+     */
+    SequencerFingerprint fingerprint()
+    {
+        SequencerFingerprint result = fingerprint;
+        if (result == null) {
+            // Racing threads may each create one; either is correct.
+            result = fingerprint = createFingerprint();
+        }
+        return result.catchUp(this);
+    }
+
+    /**
+     * Layered sequencers override this to share the fingerprint of their lower layers.
+     */
+    SequencerFingerprint createFingerprint()
+    {
+        return new SequencerFingerprint(null);
+    }
+
+    /**
+     * Equal to any sequencer with an equal {@link #entrySet()}, that is with the same keys in the same order.
+     * Sequencers with different {@link SequencerFingerprint fingerprints}, and sequencers sharing their
+     * layers, are answered without comparing keys.  Otherwise equal fingerprints are confirmed key by
+     * key, so this stays exact; {@link Sequencers#fingerprintsEqual(Sequencer, Sequencer)} skips that
+     * step where a fingerprint match is good enough.
+     */
     @Override
     public boolean equals(Object obj)
     {
-        if (obj instanceof Sequencer) {
-            return entrySet().equals(((Sequencer<?>) obj).entrySet());
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof Sequencer)) {
+            return false;
+        }
+        final Sequencer<?> other = (Sequencer<?>) obj;
+        final int size = size();
+        if (other.size() != size) {
+            return false;
         }
-        return false;
+        // Of equal size, a prefix is the whole sequencer.
+        return Sequencers.isPrefixOf(this, other);
     }
 
+    /**
+     * The hash code of {@link #entrySet()}, maintained incrementally as keys are added.
+     */
     @Override
     public int hashCode()
     {
-        return entrySet().hashCode();
+        return fingerprint().entryHashCode();
     }
 
     @Override
@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Serves an immutable sequencer which is extended over time, and compacts it in the background.
+ * <p>
+ * Readers call {@link #get()}, a single read of an atomic reference, and never block.
+ * Extensions go through an {@link ImmutableShadowingSequencerBuilder} and publish a new
+ * shadowing sequencer; they are serialized with each other, and only ever copy the small
+ * layers above the bottom one.  Once the stack is deeper than two layers, or the layers above
+ * the bottom hold more than {@code maxShadowedKeys} keys, it is rebuilt as a single layer on
+ * the compaction executor.  Keys added meanwhile are stacked onto the compacted layer, which
+ * is then swapped in atomically.  Ids never change.
+ */
+@ThreadSafe
+public class CompactingSequencerHolder<K> implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+
+    public static final int DEFAULT_MAX_SHADOWED_KEYS = 4096;
+
+    private final AtomicReference<ImmutableSequencer<K>> current;
+    private final Executor executor;
+    /** The executor this holder created, and shuts down on {@link #close()}; or null. */
+    private final ExecutorService ownExecutor;
+    private final int maxShadowedKeys;
+
+    private final AtomicBoolean compactionPending = new AtomicBoolean();
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicLong compactionNanos = new AtomicLong();
+    private volatile long lastCompactionNanos = 0;
+
+    private CompactingSequencerHolder(ImmutableSequencer<K> initial, Executor executor, ExecutorService ownExecutor, int maxShadowedKeys)
+    {
+        this.current = new AtomicReference<>(initial);
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.maxShadowedKeys = maxShadowedKeys;
+    }
+
+    /**
+     * Hold {@code initial}, compacting on a daemon thread of its own with the default threshold.
+     */
+    @Nonnull
+    public static <K> CompactingSequencerHolder<K> create(@Nonnull ImmutableSequencer<K> initial)
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sequencer-compaction-%d").build());
+        final CompactingSequencerHolder<K> result = new CompactingSequencerHolder<>(initial, executor, executor, DEFAULT_MAX_SHADOWED_KEYS);
+        result.maybeCompact(initial);
+        return result;
+    }
+
+    /**
+     * Hold {@code initial}, compacting on {@code executor}.
+     *
+     * @param maxShadowedKeys compact once the layers above the bottom one hold more keys than this
+     */
+    @Nonnull
+    public static <K> CompactingSequencerHolder<K> create(@Nonnull ImmutableSequencer<K> initial, @Nonnull Executor executor, int maxShadowedKeys)
+    {
+        checkArgument(maxShadowedKeys >= 0, "negative max shadowed keys %s", maxShadowedKeys);
+        final CompactingSequencerHolder<K> result = new CompactingSequencerHolder<>(initial, executor, null, maxShadowedKeys);
+        result.maybeCompact(initial);
+        return result;
+    }
+
+    /**
+     * @return the current sequencer; never blocks
+     */
+    @Nonnull
+    public ImmutableSequencer<K> get()
+    {
+        return current.get();
+    }
+
+    /**
+     * Add any of {@code keys} not yet present, and publish the result.
+     *
+     * @return the published sequencer, which holds all of {@code keys}
+     */
+    @Nonnull
+    public ImmutableSequencer<K> extend(@Nonnull Iterable<K> keys)
+    {
+        final ImmutableSequencer<K> result;
+        synchronized (this) {
+            final ImmutableShadowingSequencerBuilder<K> builder = current.get().extendImmutableSequence();
+            for (K key : keys) {
+                builder.sequenceOrAdd(key);
+            }
+            result = builder.build();
+            current.set(result);
+        }
+        maybeCompact(result);
+        return result;
+    }
+
+    /**
+     * Sequence many elements into a preallocated array, adding and publishing those not yet present.
+     * Only takes the extension lock if some key is missing.
+     */
+    public void sequenceOrAdd(@Nonnull K[] keys, @Nonnull int[] result)
+    {
+        current.get().sequenceExisting(keys, result);
+        for (int id : result) {
+            if (id == -1) {
+                extend(Arrays.asList(keys)).sequenceExisting(keys, result);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of compactions swapped in so far
+     */
+    public long getCompactionCount()
+    {
+        return compactionCount.get();
+    }
+
+    /**
+     * @return the time spent building compacted sequencers, in total
+     */
+    public long getCompactionTime(@Nonnull TimeUnit unit)
+    {
+        return unit.convert(compactionNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the time the most recent compaction took to build, or 0 if there was none
+     */
+    public long getLastCompactionTime(@Nonnull TimeUnit unit)
+    {
+        return unit.convert(lastCompactionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void maybeCompact(ImmutableSequencer<K> seq)
+    {
+        if (!needsCompaction(seq) || !compactionPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    compact();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compactionPending.set(false);
+            LOG.warn("Compaction rejected, leaving %s uncompacted", seq);
+        }
+    }
+
+    private boolean needsCompaction(ImmutableSequencer<K> seq)
+    {
+        if (seq.depth() > 2) {
+            return true;
+        }
+        ImmutableSequencer<K> bottom = seq;
+        while (bottom instanceof ImmutableShadowingSequencer) {
+            bottom = ((ImmutableShadowingSequencer<K>) bottom).getFirst();
+        }
+        return seq.size() - bottom.size() > maxShadowedKeys;
+    }
+
+    private void compact()
+    {
+        try {
+            final ImmutableSequencer<K> snapshot = current.get();
+            final long start = System.nanoTime();
+            ImmutableSequencer<K> compacted = new ImmutableSequencerImpl<>(snapshot);
+            if (snapshot.hasMembershipFilter()) {
+                compacted = compacted.withMembershipFilter();
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            synchronized (this) {
+                ImmutableSequencer<K> latest = current.get();
+                if (latest != snapshot) {
+                    latest = rebase(compacted, latest);
+                } else {
+                    latest = compacted;
+                }
+                current.set(latest);
+            }
+
+            compactionCount.incrementAndGet();
+            compactionNanos.addAndGet(elapsed);
+            lastCompactionNanos = elapsed;
+            LOG.debug("Compacted %d keys into one layer in %d ms", snapshot.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        } catch (RuntimeException e) {
+            LOG.error(e, "Could not compact sequencer");
+            return;
+        } finally {
+            compactionPending.set(false);
+        }
+        // Extensions which arrived while this compaction was pending, up to the flag being
+        // cleared, did not schedule another; read the current sequencer only now.
+        maybeCompact(current.get());
+    }
+
+    /**
+     * Stack the keys {@code latest} gained since {@code compacted} was taken onto it.  Both agree
+     * on the ids of the compacted keys, so all ids stay the same.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K> ImmutableSequencer<K> rebase(ImmutableSequencer<K> compacted, ImmutableSequencer<K> latest)
+    {
+        final K[] added = (K[]) new Object[latest.size() - compacted.size()];
+        latest.unsequence(compacted.size(), latest.size(), added, 0);
+        ImmutableSequencer<K> top = ImmutableSequencer.of(added);
+        if (compacted.hasMembershipFilter()) {
+            top = top.withMembershipFilter();
+        }
+        return new ImmutableShadowingSequencer<>(compacted, top);
+    }
+
+    /**
+     * Stop the compaction thread, if this holder created one.  The held sequencer stays usable.
+     */
+    @Override
+    public void close()
+    {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+            try {
+                ownExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
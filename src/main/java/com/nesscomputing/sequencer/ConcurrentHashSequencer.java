@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * Maps a sparse range of keys to a dense range (starting at 0), and may be
+ * shared between threads without external locking.
+ * <p>
+ * Lookups ({@link #sequenceIfExists(Object)}, {@link #unsequence(int)}) never lock.
+ * New keys are added under a lock striped by key, so adds of unrelated keys
+ * proceed in parallel.  Ids are claimed from a single counter and become visible
+ * strictly in id order, so every reader sees a dense, gap-free prefix.  A key is
+ * found by lookups exactly when its id is below {@link #size()}.
+ *
+ * @param <K> the type of sparse keys to map
+ */
+@ThreadSafe
+public class ConcurrentHashSequencer<K> extends AbstractSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** Holds a key's place in the map while its id is claimed. */
+    private static final Integer PENDING = -1;
+
+    private final ConcurrentHashMap<K, Integer> keyToInt;
+    private final Striped<Lock> addLocks;
+
+    /** Next id to hand out.  May run ahead of {@link #published}. */
+    private final AtomicInteger nextInt = new AtomicInteger();
+    /** Number of ids whose reverse mapping is visible to readers. */
+    private final AtomicInteger published = new AtomicInteger();
+
+    private final Object pageLock = new Object();
+    /** Copied on write, so a published directory is never modified. */
+    private volatile Object[][] pages = new Object[0][];
+
+    private ConcurrentHashSequencer(int startingSize, int concurrencyLevel)
+    {
+        keyToInt = new ConcurrentHashMap<>(startingSize, 0.75f, concurrencyLevel);
+        addLocks = Striped.lock(concurrencyLevel * 4);
+    }
+
+    /**
+     * Create a new ConcurrentHashSequencer with a default initial size.
+     */
+    public static <K> ConcurrentHashSequencer<K> create()
+    {
+        return createWithInitialCapacity(16);
+    }
+
+    /**
+     * Create a new ConcurrentHashSequencer with a specified initial size.
+     */
+    public static <K> ConcurrentHashSequencer<K> createWithInitialCapacity(int startingSize)
+    {
+        return new ConcurrentHashSequencer<>(startingSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new ConcurrentHashSequencer with the elements of another sequencer.
+     */
+    public static <K> ConcurrentHashSequencer<K> copyOf(Sequencer<K> other)
+    {
+        return copyOf(other.getKeys());
+    }
+
+    /**
+     * Create a new ConcurrentHashSequencer with the elements of an array.
+     */
+    @SafeVarargs
+    public static <K> ConcurrentHashSequencer<K> copyOf(K... elements)
+    {
+        return copyOf(Arrays.asList(elements));
+    }
+
+    /**
+     * Create a new ConcurrentHashSequencer with the elements of an iterable.
+     */
+    public static <K> ConcurrentHashSequencer<K> copyOf(Iterable<K> elements)
+    {
+        ConcurrentHashSequencer<K> result = create();
+        for (K key : elements) {
+            result.sequenceOrAdd(key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(K key)
+    {
+        int result = lookup(key);
+        if (result != -1) {
+            return result;
+        }
+
+        final Lock lock = addLocks.get(key);
+        lock.lock();
+        try {
+            // Whoever added the key published it before releasing the lock.
+            result = lookup(key);
+            if (result != -1) {
+                return result;
+            }
+
+            // Every later adder waits for a claimed id to be published, so all steps
+            // that allocate, and so may fail, happen before the id is claimed.
+            keyToInt.put(key, PENDING);
+            Integer id = null;
+            try {
+                id = claim();
+            } finally {
+                if (id == null) {
+                    keyToInt.remove(key);
+                }
+            }
+            pages[id >>> PAGE_SHIFT][id & PAGE_MASK] = key;
+            keyToInt.replace(key, id);
+            publish(id);
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Claim the next id, making sure its page exists first.
+     */
+    private Integer claim()
+    {
+        while (true) {
+            final int id = nextInt.get();
+            ensurePage(id >>> PAGE_SHIFT);
+            final Integer boxed = id;
+            if (nextInt.compareAndSet(id, id + 1)) {
+                return boxed;
+            }
+        }
+    }
+
+    /**
+     * Wait for all lower ids to become visible, then make {@code id} visible.
+     * Every lower id has already been claimed by a thread which only waits on
+     * even lower ids, so this always makes progress.
+     */
+    private void publish(int id)
+    {
+        while (!published.compareAndSet(id, id + 1)) {
+            Thread.yield();
+        }
+    }
+
+    private void ensurePage(int pageIndex)
+    {
+        Object[][] currentPages = pages;
+        if (pageIndex < currentPages.length && currentPages[pageIndex] != null) {
+            return;
+        }
+        synchronized (pageLock) {
+            currentPages = pages;
+            final int length = currentPages.length;
+            if (pageIndex >= length || currentPages[pageIndex] == null) {
+                final Object[][] newPages = Arrays.copyOf(currentPages, pageIndex < length ? length : Math.max(pageIndex + 1, length * 2));
+                newPages[pageIndex] = new Object[PAGE_SIZE];
+                pages = newPages;
+            }
+        }
+    }
+
+    /**
+     * Keys are put in the map before their id is published, and only count once it is.
+     */
+    private int lookup(Object key)
+    {
+        final Integer id = keyToInt.get(key);
+        return id != null && id >= 0 && id < published.get() ? id : -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return lookup(key) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        return lookup(key);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int val = lookup(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K unsequence(int index)
+    {
+        final int size = published.get();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range [0," + size + ")");
+        }
+        return (K) pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    @Override
+    public int size()
+    {
+        return published.get();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy<>(Lists.newArrayList(subSequence(size()).getKeys()));
+    }
+
+    private static class SerProxy<K> implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final List<K> intToKey;
+
+        SerProxy(List<K> intToKey)
+        {
+            this.intToKey = intToKey;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return copyOf(intToKey);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Set;
 import javax.annotation.Nonnull;
 
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.procedure.TObjectIntProcedure;
 
 /**
  * Sequencer implementation that does nothing but forward invocations
@@ -55,6 +56,18 @@ class DelegatingSequencer<T> implements Sequencer<T>
         return delegate.sequenceOrAdd(key);
     }
 
+    @Override
+    public void sequenceOrAdd(T[] keys, int[] result)
+    {
+        delegate.sequenceOrAdd(keys, result);
+    }
+
+    @Override
+    public void sequenceOrAdd(List<T> keys, int[] result)
+    {
+        delegate.sequenceOrAdd(keys, result);
+    }
+
     @Override
     public Set<Entry<T, Integer>> entrySet()
     {
@@ -91,12 +104,36 @@ class DelegatingSequencer<T> implements Sequencer<T>
         delegate.sequenceExisting(keys, result);
     }
 
+    @Override
+    public void sequenceExisting(T[] keys, int[] result)
+    {
+        delegate.sequenceExisting(keys, result);
+    }
+
+    @Override
+    public void sequenceExisting(List<T> keys, int[] result)
+    {
+        delegate.sequenceExisting(keys, result);
+    }
+
     @Override
     public T unsequence(int index)
     {
         return delegate.unsequence(index);
     }
 
+    @Override
+    public void unsequence(int[] indexes, T[] result)
+    {
+        delegate.unsequence(indexes, result);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, T[] result, int offset)
+    {
+        delegate.unsequence(fromIndex, toIndex, result, offset);
+    }
+
     @Override
     public int size()
     {
@@ -109,6 +146,24 @@ class DelegatingSequencer<T> implements Sequencer<T>
         return delegate.isEmpty();
     }
 
+    @Override
+    public boolean forEachEntry(TObjectIntProcedure<? super T> procedure)
+    {
+        return delegate.forEachEntry(procedure);
+    }
+
+    @Override
+    public SequencerCursor<T> cursor()
+    {
+        return delegate.cursor();
+    }
+
+    @Override
+    public SequencerCursor<T> cursor(int fromIndex, int toIndex)
+    {
+        return delegate.cursor(fromIndex, toIndex);
+    }
+
     @Override
     @Nonnull
     public ImmutableSequencer<T> subSequence(int numElements)
@@ -0,0 +1,533 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import gnu.trove.map.TObjectIntMap;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * A sequencer which logs every key it adds to a write-ahead log, so that the
+ * ids it hands out survive a crash.  {@link #open} replays the log and rebuilds exactly
+ * the same ids.
+ * <p>
+ * New keys are appended to an in-memory batch, which is written and forced to disk as one
+ * CRC-checked frame.  Writes use group commit: while one thread forces a batch to disk, other
+ * threads keep adding keys to the next batch, and one force then covers all of them.
+ * With {@link #open(File, SequencerKeyCodec)}, {@code sequenceOrAdd} returns only once the key
+ * is durable.  With a maximum delay, it returns at once, and a background thread commits at
+ * least that often, trading a bounded window of loss for latency.
+ * <p>
+ * Keys are held in a {@link SingleWriterSequencer} rather than a {@link HashSequencer}, so
+ * lookups never lock, and looking up keys which are already durable neither waits for
+ * writers nor does I/O.  Lookups hand out ids under the same rules as {@code sequenceOrAdd}:
+ * with synchronous commits, finding a key which is not durable yet commits it first, and
+ * {@link #size()} and {@link #unsequence(int)} only cover durable keys.
+ * <p>
+ * A frame torn by a crash is discarded on recovery; its keys were never reported durable.
+ * If the log can not be written, {@code sequenceOrAdd} throws {@link IllegalStateException},
+ * and from then on rejects every new key, so no id is handed out which can not be made durable.
+ * Keys which were added but not written are hidden from lookups from then on.
+ */
+@ThreadSafe
+public class DurableSequencer<K> extends AbstractSequencer<K> implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+    private static final long serialVersionUID = 1L;
+
+    static final int MAGIC = 0x4e535157; // "NSQW"
+    static final byte VERSION = 1;
+
+    private final transient SequencerKeyCodec<K> codec;
+    private final transient FileChannel channel;
+    private final transient boolean synchronous;
+    private final transient ScheduledExecutorService flusher;
+
+    /** Written under this sequencer's monitor; read without locking. */
+    private final SingleWriterSequencer<K> keys;
+    @GuardedBy("this")
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    @GuardedBy("this")
+    private final DataOutputStream batchOut = new DataOutputStream(batch);
+    @GuardedBy("this")
+    private int batchCount = 0;
+    @GuardedBy("this")
+    private boolean closed = false;
+
+    /** Ids below this are on disk. */
+    private volatile int durableSize;
+
+    private final transient Object commitLock = new Object();
+    /** Set under {@link #commitLock} when a write fails; never cleared. */
+    private volatile IOException commitFailure;
+
+    private DurableSequencer(SingleWriterSequencer<K> keys, SequencerKeyCodec<K> codec, FileChannel channel, long maxDelayMillis)
+    {
+        this.keys = keys;
+        this.codec = codec;
+        this.channel = channel;
+        this.durableSize = keys.size();
+        this.synchronous = maxDelayMillis == 0;
+        if (synchronous) {
+            flusher = null;
+        } else {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sequencer-log-%d").build());
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        commit(Integer.MAX_VALUE);
+                    } catch (IOException e) {
+                        LOG.error(e, "Could not commit sequencer log");
+                    }
+                }
+            }, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Open or create the log at {@code file}.  Every added key is durable before {@code sequenceOrAdd} returns.
+     */
+    @Nonnull
+    public static <K> DurableSequencer<K> open(@Nonnull File file, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        return open(file, codec, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open or create the log at {@code file}.  Added keys are committed in the background
+     * at most {@code maxDelay} after they were added, and whenever {@link #sync()} is called.
+     *
+     * @param maxDelay zero to make every added key durable before {@code sequenceOrAdd} returns
+     */
+    @Nonnull
+    public static <K> DurableSequencer<K> open(@Nonnull File file, @Nonnull SequencerKeyCodec<K> codec, long maxDelay, @Nonnull TimeUnit unit) throws IOException
+    {
+        checkArgument(maxDelay >= 0, "negative delay %s", maxDelay);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean success = false;
+        try {
+            final SingleWriterSequencer<K> keys = SingleWriterSequencer.create();
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(5).putInt(MAGIC).put(VERSION);
+                header.flip();
+                channel.write(header);
+                channel.force(true);
+            } else {
+                final long end = replay(channel, keys, codec);
+                if (end < channel.size()) {
+                    LOG.warn("Discarding %s bytes of incomplete sequencer log at the end of %s", channel.size() - end, file);
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+            }
+            channel.position(channel.size());
+            final DurableSequencer<K> result = new DurableSequencer<>(keys, codec, channel, unit.toMillis(maxDelay));
+            success = true;
+            return result;
+        } finally {
+            if (!success) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * @return the length of the valid prefix of the log
+     */
+    private static <K> long replay(FileChannel channel, SingleWriterSequencer<K> keys, SequencerKeyCodec<K> codec) throws IOException
+    {
+        channel.position(0);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a sequencer log");
+        }
+        final byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported sequencer log version " + version);
+        }
+
+        final long size = channel.size();
+        long position = 5;
+        final CRC32 crc = new CRC32();
+        byte[] frame = new byte[0];
+        while (size - position >= 12) {
+            final int count = in.readInt();
+            final int length = in.readInt();
+            if (count < 0 || length < 0 || size - position - 12 < length) {
+                break;
+            }
+            if (frame.length < length) {
+                frame = new byte[length];
+            }
+            in.readFully(frame, 0, length);
+            crc.reset();
+            crc.update(frame, 0, length);
+            if (in.readInt() != (int) crc.getValue()) {
+                break;
+            }
+
+            final DataInputStream records = new DataInputStream(new ByteArrayInputStream(frame, 0, length));
+            for (int i = 0; i < count; i++) {
+                final int keyLength = SequencerBinaryReader.readVarint(records);
+                final int offset = length - records.available();
+                final K key = codec.decode(ByteBuffer.wrap(frame, offset, keyLength));
+                records.skipBytes(keyLength);
+                final int expected = keys.size();
+                if (keys.sequenceOrAdd(key) != expected) {
+                    throw new IOException("duplicate key " + key + " in sequencer log");
+                }
+            }
+            position += 12 + length;
+        }
+        return position;
+    }
+
+    @Override
+    public int sequenceOrAdd(K key)
+    {
+        int id = keys.sequenceIfExists(key);
+        if (id == -1) {
+            synchronized (this) {
+                id = add(key);
+            }
+        }
+        awaitDurable(id + 1);
+        return id;
+    }
+
+    @Override
+    public void sequenceOrAdd(K[] keys, int[] result)
+    {
+        checkResult(keys.length, result.length);
+        int end = 0;
+        synchronized (this) {
+            for (int i = 0; i < keys.length; i++) {
+                result[i] = add(keys[i]);
+                end = Math.max(end, result[i] + 1);
+            }
+        }
+        awaitDurable(end);
+    }
+
+    @Override
+    public void sequenceOrAdd(List<K> keys, int[] result)
+    {
+        final int size = keys.size();
+        checkResult(size, result.length);
+        int end = 0;
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                result[i] = add(keys.get(i));
+                end = Math.max(end, result[i] + 1);
+            }
+        }
+        awaitDurable(end);
+    }
+
+    @GuardedBy("this")
+    private int add(K key)
+    {
+        final int existing = keys.sequenceIfExists(key);
+        if (existing != -1) {
+            return existing;
+        }
+        checkState(!closed, "sequencer is closed");
+        final IOException failure = commitFailure;
+        if (failure != null) {
+            throw new IllegalStateException("sequencer log failed earlier, not adding " + key, failure);
+        }
+        // Encode first, so a failing codec leaves no id behind which is missing from the log.
+        final byte[] bytes = codec.encode(key);
+        final int id = keys.sequenceOrAdd(key);
+        append(bytes);
+        return id;
+    }
+
+    @GuardedBy("this")
+    private void append(byte[] bytes)
+    {
+        try {
+            SequencerBinaryWriter.writeVarint(batchOut, bytes.length);
+            batchOut.write(bytes);
+        } catch (IOException e) {
+            throw new AssertionError(e); // in memory
+        }
+        batchCount++;
+    }
+
+    private void awaitDurable(int size)
+    {
+        final IOException failure = commitFailure;
+        if (failure != null && durableSize < size) {
+            throw new IllegalStateException("sequencer log failed earlier", failure);
+        }
+        if (synchronous && durableSize < size) {
+            try {
+                commit(size);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not write sequencer log", e);
+            }
+        }
+    }
+
+    /**
+     * Make every key added so far durable.
+     */
+    public void sync() throws IOException
+    {
+        commit(keys.size());
+    }
+
+    /**
+     * Group commit: the first waiting thread writes everything added so far, and the
+     * threads queued behind it usually find their keys already durable.
+     */
+    private void commit(int size) throws IOException
+    {
+        synchronized (commitLock) {
+            if (commitFailure != null) {
+                throw new IOException("sequencer log failed earlier", commitFailure);
+            }
+            if (durableSize >= size) {
+                return;
+            }
+            final byte[] records;
+            final int count;
+            final int end;
+            synchronized (this) {
+                if (batchCount == 0) {
+                    return;
+                }
+                records = batch.toByteArray();
+                count = batchCount;
+                end = keys.size();
+                batch.reset();
+                batchCount = 0;
+            }
+
+            final CRC32 crc = new CRC32();
+            crc.update(records, 0, records.length);
+            final ByteBuffer frame = ByteBuffer.allocate(records.length + 12);
+            frame.putInt(count).putInt(records.length).put(records).putInt((int) crc.getValue());
+            frame.flip();
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // The batch is lost, so no later key may be reported durable either.
+                commitFailure = e;
+                throw e;
+            }
+            durableSize = end;
+        }
+    }
+
+    /**
+     * Commit all added keys and close the log.  The sequencer remains readable.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the number of keys which are known to be on disk
+     */
+    public int getDurableSize()
+    {
+        return durableSize;
+    }
+
+    /**
+     * Ids at or above this are not handed to readers: with synchronous commits they are not
+     * durable yet, and after a failed commit they never will be.
+     */
+    private int visibleSize()
+    {
+        return synchronous || commitFailure != null ? durableSize : keys.size();
+    }
+
+    /**
+     * @return {@code id} once readers may have it, committing it first if need be, or -1 if they never may
+     */
+    private int visible(int id)
+    {
+        if (id < durableSize) {
+            return id;
+        }
+        if (synchronous && commitFailure == null) {
+            try {
+                commit(id + 1);
+            } catch (IOException e) {
+                // The thread which added the key gets the failure; here the key just stays hidden.
+                LOG.debug(e, "Could not commit sequencer log for a lookup");
+            }
+        }
+        return id < visibleSize() ? id : -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key)
+    {
+        if (!keys.containsKey(key)) {
+            return false;
+        }
+        return sequenceIfExists((K) key) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        final int id = keys.sequenceIfExists(key);
+        return id == -1 ? -1 : visible(id);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int id = sequenceIfExists(key);
+            if (id != -1) {
+                result.put(key, id);
+            }
+        }
+    }
+
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        this.keys.sequenceExisting(keys, result);
+        hideInvisible(keys.length, result);
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        this.keys.sequenceExisting(keys, result);
+        hideInvisible(keys.size(), result);
+    }
+
+    private void hideInvisible(int count, int[] result)
+    {
+        int max = -1;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, result[i]);
+        }
+        if (max == -1 || visible(max) == max) {
+            return;
+        }
+        final int size = visibleSize();
+        for (int i = 0; i < count; i++) {
+            if (result[i] >= size) {
+                result[i] = -1;
+            }
+        }
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        checkIndex(index);
+        return keys.unsequence(index);
+    }
+
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        checkResult(indexes.length, result.length);
+        for (int index : indexes) {
+            checkIndex(index);
+        }
+        keys.unsequence(indexes, result);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, visibleSize());
+        keys.unsequence(fromIndex, toIndex, result, offset);
+    }
+
+    private void checkIndex(int index)
+    {
+        final int size = visibleSize();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range [0," + size + ")");
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return visibleSize();
+    }
+
+    /**
+     * The log belongs to the running process, so a plain copy of the keys is serialized.
+     */
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return HashSequencer.copyOf(keys.subSequence(size()));
+    }
+}
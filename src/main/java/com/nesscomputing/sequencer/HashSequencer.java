@@ -32,6 +32,8 @@ import gnu.trove.map.hash.TObjectIntHashMap;
 
 /**
  * Maps a sparse range of keys to a dense range (starting at 0).
+ * <p>
+ * Keys are kept by id in fixed-size pages, so growing never copies the keys added so far.
  *
  * @param <K> the type of sparse keys to map
  */
@@ -41,12 +43,12 @@ public class HashSequencer<K> extends AbstractSequencer<K> {
     private static final float LOAD_FACTOR = 0.5f;
 
     private final TObjectIntHashMap<K> keyToInt;
-    private final List<K> intToKey;
+    private final PagedList<K> intToKey;
     private int nextInt = 0;
 
     private HashSequencer(int startingSize) {
         keyToInt = new TObjectIntHashMap<K>(startingSize, LOAD_FACTOR, -1);
-        intToKey = Lists.newArrayListWithCapacity(startingSize);
+        intToKey = new PagedList<>(startingSize);
     }
 
     private HashSequencer(Sequencer<K> other) {
@@ -55,7 +57,7 @@ public class HashSequencer<K> extends AbstractSequencer<K> {
 
     private HashSequencer(int size, Iterable<K> elements) {
         keyToInt = new TObjectIntHashMap<K>(size, LOAD_FACTOR, -1);
-        intToKey = Lists.newArrayListWithCapacity(size);
+        intToKey = new PagedList<>(size);
 
         int i = 0;
         Iterator<K> iter = elements.iterator();
@@ -128,6 +130,57 @@ public class HashSequencer<K> extends AbstractSequencer<K> {
         return result;
     }
 
+    @Override
+    public void sequenceOrAdd(K[] keys, int[] result)
+    {
+        checkResult(keys.length, result.length);
+        int missing = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if ((result[i] = keyToInt.get(keys[i])) == -1) {
+                missing++;
+            }
+        }
+        if (missing > 0) {
+            ensureCapacity(missing);
+            for (int i = 0; i < keys.length; i++) {
+                if (result[i] == -1) {
+                    result[i] = sequenceOrAdd(keys[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void sequenceOrAdd(List<K> keys, int[] result)
+    {
+        final int size = keys.size();
+        checkResult(size, result.length);
+        int missing = 0;
+        for (int i = 0; i < size; i++) {
+            if ((result[i] = keyToInt.get(keys.get(i))) == -1) {
+                missing++;
+            }
+        }
+        if (missing > 0) {
+            ensureCapacity(missing);
+            for (int i = 0; i < size; i++) {
+                if (result[i] == -1) {
+                    result[i] = sequenceOrAdd(keys.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Make room for {@code count} more keys up front, so a batch never rehashes more than once.
+     * Batches only reserve room for the keys their first pass did not find.
+     */
+    private void ensureCapacity(int count)
+    {
+        keyToInt.ensureCapacity(count);
+        intToKey.ensureCapacity(nextInt + count);
+    }
+
     @Override
     public boolean containsKey(Object key) {
         return keyToInt.containsKey(key);
@@ -151,11 +204,48 @@ public class HashSequencer<K> extends AbstractSequencer<K> {
         }
     }
 
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        assert keyToInt.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        checkResult(keys.length, result.length);
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = keyToInt.get(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        assert keyToInt.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        final int size = keys.size();
+        checkResult(size, result.length);
+        for (int i = 0; i < size; i++) {
+            result[i] = keyToInt.get(keys.get(i));
+        }
+    }
+
     @Override
     public K unsequence(int index) {
         return intToKey.get(index);
     }
 
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        checkResult(indexes.length, result.length);
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = intToKey.get(indexes[i]);
+        }
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, nextInt, result.length, offset);
+        intToKey.copyTo(fromIndex, toIndex, result, offset);
+    }
+
     @Override
     public int size() {
         return nextInt;
@@ -163,7 +253,7 @@ public class HashSequencer<K> extends AbstractSequencer<K> {
 
     private Object writeReplace() throws ObjectStreamException
     {
-        return new SerProxy<>(intToKey);
+        return new SerProxy<>(Lists.newArrayList(intToKey));
     }
 
     private static class SerProxy<K> implements Serializable
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * An {@link ImmutableSequencer} specialized for {@code int} keys.
+ */
+@Immutable
+public abstract class ImmutableIntSequencer extends ImmutableSequencer<Integer> implements IntSequencer
+{
+    private static final long serialVersionUID = 1L;
+
+    @Nonnull
+    public static ImmutableIntSequencer copyOf(int... elements)
+    {
+        return new ImmutableIntSequencerImpl(elements);
+    }
+
+    @Nonnull
+    public static ImmutableIntSequencer copyOf(@Nonnull IntSequencer seq)
+    {
+        if (seq instanceof ImmutableIntSequencer) {
+            return (ImmutableIntSequencer) seq;
+        }
+        return new ImmutableIntSequencerImpl(seq);
+    }
+
+    @Override
+    public final int sequenceOrAdd(int key)
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new UnsupportedOperationException("Immutable sequencers may not be modified: tried to add " + key);
+        }
+        return result;
+    }
+
+    @Override
+    public final int[] sequenceOrAdd(int[] keys)
+    {
+        final int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+        return result;
+    }
+
+    @Nonnull
+    public ImmutableIntShadowingSequencerBuilder extendImmutableIntSequence()
+    {
+        return new ImmutableIntShadowingSequencerBuilder(this);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    @Override
+    public int sequence(int key) throws SequencerKeyException
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new SequencerKeyException("no key %s", key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceIfExists(Integer key)
+    {
+        return sequenceIfExists(key.intValue());
+    }
+
+    @Override
+    public int[] sequenceExisting(int[] keys)
+    {
+        final int[] result = new int[keys.length];
+        sequenceExisting(keys, result);
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(int[] keys, int[] result)
+    {
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceIfExists(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<Integer> keys, TObjectIntMap<Integer> result)
+    {
+        for (Integer key : keys) {
+            final int val = sequenceIfExists(key.intValue());
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public int[] unsequence(int[] indexes)
+    {
+        final int[] result = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = unsequenceInt(indexes[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Integer unsequence(int index)
+    {
+        return unsequenceInt(index);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import javax.annotation.concurrent.Immutable;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * A IntSequencer that is initialized upon construction and may never
+ * change afterward.
+ */
+@Immutable
+class ImmutableIntSequencerImpl extends ImmutableIntSequencer
+{
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final TIntIntHashMap forward;
+    private final int[] reverse;
+
+    ImmutableIntSequencerImpl(int[] elements)
+    {
+        forward = new TIntIntHashMap(elements.length, LOAD_FACTOR, -1, -1);
+        reverse = elements.clone();
+        for (int v = 0; v < reverse.length; v++) {
+            forward.put(reverse[v], v);
+        }
+    }
+
+    ImmutableIntSequencerImpl(IntSequencer sequencer)
+    {
+        final int size = sequencer.size();
+        forward = new TIntIntHashMap(size, LOAD_FACTOR, -1, -1);
+        reverse = new int[size];
+
+        for (int v = 0; v < size; v++) {
+            final int k = sequencer.unsequenceInt(v);
+
+            forward.put(k, v);
+            reverse[v] = k;
+        }
+    }
+
+    @Override
+    protected int depth()
+    {
+        return 1;
+    }
+
+    @Override
+    public boolean containsKey(int key)
+    {
+        return forward.containsKey(key);
+    }
+
+    @Override
+    public int sequenceIfExists(int key)
+    {
+        assert forward.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        return forward.get(key);
+    }
+
+    @Override
+    public int unsequenceInt(int index)
+    {
+        return reverse[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return forward.size();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy(reverse);
+    }
+
+    private static class SerProxy implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final int[] arr;
+
+        SerProxy(int[] arr)
+        {
+            this.arr = arr;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return ImmutableIntSequencer.copyOf(arr);
+        }
+    }
+}
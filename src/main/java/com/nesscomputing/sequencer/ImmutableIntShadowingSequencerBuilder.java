@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * The {@code int} counterpart of {@link ImmutableShadowingSequencerBuilder}: extends an
+ * immutable int sequencer bit by bit, sharing the original state.
+ */
+public class ImmutableIntShadowingSequencerBuilder extends AbstractSequencer<Integer> implements IntSequencer
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableIntSequencer originalBase;
+    private final ImmutableIntSequencer base;
+    private final IntHashSequencer additional = IntHashSequencer.create();
+
+    private final int additionalStartingSize;
+
+    ImmutableIntShadowingSequencerBuilder(ImmutableIntSequencer base)
+    {
+        this.originalBase = base;
+        // Collapse the small top layer into the builder, as ImmutableShadowingSequencerBuilder does.
+        if (base instanceof ImmutableIntShadowingSequencer) {
+            ImmutableIntShadowingSequencer castBase = (ImmutableIntShadowingSequencer) base;
+            this.base = castBase.getFirst();
+            ImmutableIntSequencer collapsee = castBase.getSecond();
+
+            for (int i = 0; i < collapsee.size(); i++) {
+                checkState(i == additional.sequenceOrAdd(collapsee.unsequenceInt(i)), "expected resequence to match");
+            }
+        } else {
+            this.base = originalBase;
+        }
+
+        additionalStartingSize = additional.size();
+    }
+
+    /**
+     * Create a new ImmutableIntSequencer with a reference
+     * to the original sequence and the contents of
+     * this builder.
+     */
+    public ImmutableIntSequencer build()
+    {
+        if (additional.size() == additionalStartingSize) {
+            return originalBase;
+        }
+
+        if (base.size() == 0) {
+            return ImmutableIntSequencer.copyOf(additional);
+        }
+
+        return new ImmutableIntShadowingSequencer(base, ImmutableIntSequencer.copyOf(additional));
+    }
+
+    /**
+     * Create a new ImmutableIntSequencer that does not
+     * reference the immutable sequencer, but has the contents
+     * of both it and the extension.
+     */
+    public ImmutableIntSequencer buildAndCompact()
+    {
+        return new ImmutableIntSequencerImpl(build());
+    }
+
+    @Override
+    public int sequenceOrAdd(int key)
+    {
+        final int result = base.sequenceIfExists(key);
+        if (result != -1) {
+            return result;
+        }
+        return additional.sequenceOrAdd(key) + base.size();
+    }
+
+    @Override
+    public int[] sequenceOrAdd(int[] keys)
+    {
+        final int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(Integer key)
+    {
+        return sequenceOrAdd(key.intValue());
+    }
+
+    @Override
+    public boolean containsKey(int key)
+    {
+        return base.containsKey(key) || additional.containsKey(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    @Override
+    public int sequence(int key) throws SequencerKeyException
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new SequencerKeyException("no key %s", key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceIfExists(int key)
+    {
+        return ImmutableIntShadowingSequencer.sequenceIfExists(base, additional, key);
+    }
+
+    @Override
+    public int sequenceIfExists(Integer key)
+    {
+        return sequenceIfExists(key.intValue());
+    }
+
+    @Override
+    public int[] sequenceExisting(int[] keys)
+    {
+        final int[] result = new int[keys.length];
+        sequenceExisting(keys, result);
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(int[] keys, int[] result)
+    {
+        ImmutableIntShadowingSequencer.sequenceExisting(base, additional, keys, result);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<Integer> keys, TObjectIntMap<Integer> result)
+    {
+        for (Integer key : keys) {
+            final int val = sequenceIfExists(key.intValue());
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public int unsequenceInt(int index)
+    {
+        return ImmutableIntShadowingSequencer.unsequenceInt(base, additional, index);
+    }
+
+    @Override
+    public int[] unsequence(int[] indexes)
+    {
+        final int[] result = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = unsequenceInt(indexes[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Integer unsequence(int index)
+    {
+        return unsequenceInt(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return base.size() + additional.size();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        throw new NotSerializableException("Shadowing builders may not be serialized");
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * An {@link ImmutableSequencer} specialized for {@code long} keys.
+ */
+@Immutable
+public abstract class ImmutableLongSequencer extends ImmutableSequencer<Long> implements LongSequencer
+{
+    private static final long serialVersionUID = 1L;
+
+    @Nonnull
+    public static ImmutableLongSequencer copyOf(long... elements)
+    {
+        return new ImmutableLongSequencerImpl(elements);
+    }
+
+    @Nonnull
+    public static ImmutableLongSequencer copyOf(@Nonnull LongSequencer seq)
+    {
+        if (seq instanceof ImmutableLongSequencer) {
+            return (ImmutableLongSequencer) seq;
+        }
+        return new ImmutableLongSequencerImpl(seq);
+    }
+
+    @Override
+    public final int sequenceOrAdd(long key)
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new UnsupportedOperationException("Immutable sequencers may not be modified: tried to add " + key);
+        }
+        return result;
+    }
+
+    @Override
+    public final int[] sequenceOrAdd(long[] keys)
+    {
+        final int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+        return result;
+    }
+
+    @Nonnull
+    public ImmutableLongShadowingSequencerBuilder extendImmutableLongSequence()
+    {
+        return new ImmutableLongShadowingSequencerBuilder(this);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    @Override
+    public int sequence(long key) throws SequencerKeyException
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new SequencerKeyException("no key %s", key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceIfExists(Long key)
+    {
+        return sequenceIfExists(key.longValue());
+    }
+
+    @Override
+    public int[] sequenceExisting(long[] keys)
+    {
+        final int[] result = new int[keys.length];
+        sequenceExisting(keys, result);
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(long[] keys, int[] result)
+    {
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceIfExists(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<Long> keys, TObjectIntMap<Long> result)
+    {
+        for (Long key : keys) {
+            final int val = sequenceIfExists(key.longValue());
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public long[] unsequence(int[] indexes)
+    {
+        final long[] result = new long[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = unsequenceLong(indexes[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Long unsequence(int index)
+    {
+        return unsequenceLong(index);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import javax.annotation.concurrent.Immutable;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * A LongSequencer that is initialized upon construction and may never
+ * change afterward.
+ */
+@Immutable
+class ImmutableLongSequencerImpl extends ImmutableLongSequencer
+{
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final TLongIntHashMap forward;
+    private final long[] reverse;
+
+    ImmutableLongSequencerImpl(long[] elements)
+    {
+        forward = new TLongIntHashMap(elements.length, LOAD_FACTOR, -1, -1);
+        reverse = elements.clone();
+        for (int v = 0; v < reverse.length; v++) {
+            forward.put(reverse[v], v);
+        }
+    }
+
+    ImmutableLongSequencerImpl(LongSequencer sequencer)
+    {
+        final int size = sequencer.size();
+        forward = new TLongIntHashMap(size, LOAD_FACTOR, -1, -1);
+        reverse = new long[size];
+
+        for (int v = 0; v < size; v++) {
+            final long k = sequencer.unsequenceLong(v);
+
+            forward.put(k, v);
+            reverse[v] = k;
+        }
+    }
+
+    @Override
+    protected int depth()
+    {
+        return 1;
+    }
+
+    @Override
+    public boolean containsKey(long key)
+    {
+        return forward.containsKey(key);
+    }
+
+    @Override
+    public int sequenceIfExists(long key)
+    {
+        assert forward.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        return forward.get(key);
+    }
+
+    @Override
+    public long unsequenceLong(int index)
+    {
+        return reverse[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return forward.size();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy(reverse);
+    }
+
+    private static class SerProxy implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final long[] arr;
+
+        SerProxy(long[] arr)
+        {
+            this.arr = arr;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return ImmutableLongSequencer.copyOf(arr);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+
+/**
+ * An immutable long sequencer made of two layers: the keys of {@code first}, followed by
+ * the keys of {@code second}.
+ */
+class ImmutableLongShadowingSequencer extends ImmutableLongSequencer
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableLongSequencer first;
+    private final ImmutableLongSequencer second;
+    private final int size;
+    private final int depth;
+
+    ImmutableLongShadowingSequencer(ImmutableLongSequencer first, ImmutableLongSequencer second)
+    {
+        this.first = first;
+        this.second = second;
+
+        size = first.size() + second.size();
+        depth = first.depth() + second.depth();
+    }
+
+    @Override
+    protected int depth()
+    {
+        return depth;
+    }
+
+    ImmutableLongSequencer getFirst()
+    {
+        return first;
+    }
+
+    ImmutableLongSequencer getSecond()
+    {
+        return second;
+    }
+
+    @Override
+    public boolean containsKey(long key)
+    {
+        return first.containsKey(key) || second.containsKey(key);
+    }
+
+    @Override
+    public int sequenceIfExists(long key)
+    {
+        return sequenceIfExists(first, second, key);
+    }
+
+    @Override
+    public void sequenceExisting(long[] keys, int[] result)
+    {
+        sequenceExisting(first, second, keys, result);
+    }
+
+    @Override
+    public long unsequenceLong(int index)
+    {
+        return unsequenceLong(first, second, index);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        // Do not use ImmutableLongSequencer.copyOf, since it avoids copying subclasses, defeating the writeReplace!
+        return new ImmutableLongSequencerImpl(this);
+    }
+
+    static int sequenceIfExists(LongSequencer first, LongSequencer second, long key)
+    {
+        int result = first.sequenceIfExists(key);
+        if (result != -1) {
+            return result;
+        }
+        result = second.sequenceIfExists(key);
+        if (result != -1) {
+            return first.size() + result;
+        }
+        return result;
+    }
+
+    static void sequenceExisting(LongSequencer first, LongSequencer second, long[] keys, int[] result)
+    {
+        first.sequenceExisting(keys, result);
+
+        final int offset = first.size();
+        for (int i = 0; i < keys.length; i++) {
+            if (result[i] == -1) {
+                final int val = second.sequenceIfExists(keys[i]);
+                if (val != -1) {
+                    result[i] = val + offset;
+                }
+            }
+        }
+    }
+
+    static long unsequenceLong(LongSequencer first, LongSequencer second, int index)
+    {
+        if (index < first.size()) {
+            return first.unsequenceLong(index);
+        } else {
+            return second.unsequenceLong(index - first.size());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * The {@code long} counterpart of {@link ImmutableShadowingSequencerBuilder}: extends an
+ * immutable long sequencer bit by bit, sharing the original state.
+ */
+public class ImmutableLongShadowingSequencerBuilder extends AbstractSequencer<Long> implements LongSequencer
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableLongSequencer originalBase;
+    private final ImmutableLongSequencer base;
+    private final LongHashSequencer additional = LongHashSequencer.create();
+
+    private final int additionalStartingSize;
+
+    ImmutableLongShadowingSequencerBuilder(ImmutableLongSequencer base)
+    {
+        this.originalBase = base;
+        // Collapse the small top layer into the builder, as ImmutableShadowingSequencerBuilder does.
+        if (base instanceof ImmutableLongShadowingSequencer) {
+            ImmutableLongShadowingSequencer castBase = (ImmutableLongShadowingSequencer) base;
+            this.base = castBase.getFirst();
+            ImmutableLongSequencer collapsee = castBase.getSecond();
+
+            for (int i = 0; i < collapsee.size(); i++) {
+                checkState(i == additional.sequenceOrAdd(collapsee.unsequenceLong(i)), "expected resequence to match");
+            }
+        } else {
+            this.base = originalBase;
+        }
+
+        additionalStartingSize = additional.size();
+    }
+
+    /**
+     * Create a new ImmutableLongSequencer with a reference
+     * to the original sequence and the contents of
+     * this builder.
+     */
+    public ImmutableLongSequencer build()
+    {
+        if (additional.size() == additionalStartingSize) {
+            return originalBase;
+        }
+
+        if (base.size() == 0) {
+            return ImmutableLongSequencer.copyOf(additional);
+        }
+
+        return new ImmutableLongShadowingSequencer(base, ImmutableLongSequencer.copyOf(additional));
+    }
+
+    /**
+     * Create a new ImmutableLongSequencer that does not
+     * reference the immutable sequencer, but has the contents
+     * of both it and the extension.
+     */
+    public ImmutableLongSequencer buildAndCompact()
+    {
+        return new ImmutableLongSequencerImpl(build());
+    }
+
+    @Override
+    public int sequenceOrAdd(long key)
+    {
+        final int result = base.sequenceIfExists(key);
+        if (result != -1) {
+            return result;
+        }
+        return additional.sequenceOrAdd(key) + base.size();
+    }
+
+    @Override
+    public int[] sequenceOrAdd(long[] keys)
+    {
+        final int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(Long key)
+    {
+        return sequenceOrAdd(key.longValue());
+    }
+
+    @Override
+    public boolean containsKey(long key)
+    {
+        return base.containsKey(key) || additional.containsKey(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    @Override
+    public int sequence(long key) throws SequencerKeyException
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new SequencerKeyException("no key %s", key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceIfExists(long key)
+    {
+        return ImmutableLongShadowingSequencer.sequenceIfExists(base, additional, key);
+    }
+
+    @Override
+    public int sequenceIfExists(Long key)
+    {
+        return sequenceIfExists(key.longValue());
+    }
+
+    @Override
+    public int[] sequenceExisting(long[] keys)
+    {
+        final int[] result = new int[keys.length];
+        sequenceExisting(keys, result);
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(long[] keys, int[] result)
+    {
+        ImmutableLongShadowingSequencer.sequenceExisting(base, additional, keys, result);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<Long> keys, TObjectIntMap<Long> result)
+    {
+        for (Long key : keys) {
+            final int val = sequenceIfExists(key.longValue());
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public long unsequenceLong(int index)
+    {
+        return ImmutableLongShadowingSequencer.unsequenceLong(base, additional, index);
+    }
+
+    @Override
+    public long[] unsequence(int[] indexes)
+    {
+        final long[] result = new long[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = unsequenceLong(indexes[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Long unsequence(int index)
+    {
+        return unsequenceLong(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return base.size() + additional.size();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        throw new NotSerializableException("Shadowing builders may not be serialized");
+    }
+}
@@ -15,7 +15,12 @@
  */
 package com.nesscomputing.sequencer;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
@@ -28,6 +33,20 @@ public abstract class ImmutableSequencer<K> extends AbstractSequencer<K>
 {
     private static final long serialVersionUID = 1L;
 
+    /** Batches at least this large are split across threads by {@link #parallelSequenceExisting}. */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * How an immutable sequencer finds the id of a key.
+     */
+    public enum IndexType
+    {
+        /** An open-addressing hash table.  Fastest to build. */
+        HASH_TABLE,
+        /** A minimal perfect hash function, using about half the memory of a hash table. */
+        PERFECT_HASH;
+    }
+
     @SafeVarargs
     public static <K> ImmutableSequencer<K> of(K... elements)
     {
@@ -40,6 +59,38 @@ public abstract class ImmutableSequencer<K> extends AbstractSequencer<K>
         return new ImmutableSequencerImpl<>(iter);
     }
 
+    @Nonnull
+    public static <K> ImmutableSequencer<K> of(@Nonnull IndexType indexType, @Nonnull Iterable<K> iter)
+    {
+        switch (indexType) {
+        case PERFECT_HASH:
+            return PerfectHashImmutableSequencer.create(iter);
+        default:
+            return of(iter);
+        }
+    }
+
+    /**
+     * Build an immutable sequencer from a large list of keys on all available processors,
+     * using a fork-join pool shared by all such calls.
+     * Duplicate keys are allowed; ids are assigned in order of first occurrence.
+     */
+    @Nonnull
+    public static <K> ImmutableSequencer<K> parallelOf(@Nonnull List<K> keys)
+    {
+        return parallelOf(keys, ParallelTasks.sharedPool());
+    }
+
+    /**
+     * Build an immutable sequencer from a large list of keys on {@code pool}.
+     * Duplicate keys are allowed; ids are assigned in order of first occurrence.
+     */
+    @Nonnull
+    public static <K> ImmutableSequencer<K> parallelOf(@Nonnull List<K> keys, @Nonnull ForkJoinPool pool)
+    {
+        return PartitionedImmutableSequencer.build(keys, pool);
+    }
+
     @Nonnull
     public static <K> ImmutableSequencer<K> copyOf(@Nonnull Sequencer<K> seq)
     {
@@ -49,6 +100,86 @@ public abstract class ImmutableSequencer<K> extends AbstractSequencer<K>
         return new ImmutableSequencerImpl<>(seq);
     }
 
+    /**
+     * Copy {@code seq} into an immutable sequencer with the given index.  Sequencers which
+     * already are immutable and use that index are returned as they are.
+     */
+    @Nonnull
+    public static <K> ImmutableSequencer<K> copyOf(@Nonnull IndexType indexType, @Nonnull Sequencer<K> seq)
+    {
+        switch (indexType) {
+        case PERFECT_HASH:
+            if (seq instanceof PerfectHashImmutableSequencer) {
+                return (ImmutableSequencer<K>) seq;
+            }
+            return PerfectHashImmutableSequencer.create(seq);
+        default:
+            if (seq instanceof ImmutableSequencerImpl) {
+                return (ImmutableSequencer<K>) seq;
+            }
+            return new ImmutableSequencerImpl<>(seq);
+        }
+    }
+
+    /**
+     * Sequence many elements into a preallocated array, like {@link #sequenceExisting(Object[], int[])},
+     * splitting the work across {@code pool}.  Batches smaller than {@value #PARALLEL_THRESHOLD}
+     * keys are sequenced on the calling thread.  Sub sequences of mutable sequencers may be used
+     * as long as the underlying sequencer is not modified during the call.
+     */
+    public void parallelSequenceExisting(@Nonnull final K[] keys, @Nonnull final int[] result, @Nonnull ForkJoinPool pool)
+    {
+        checkResult(keys.length, result.length);
+        if (keys.length < PARALLEL_THRESHOLD) {
+            sequenceExisting(keys, result);
+            return;
+        }
+        final int n = keys.length;
+        final int chunkCount = chunkCount(n, pool);
+        ParallelTasks.forEach(pool, chunkCount, new ParallelTasks.Body() {
+            @Override
+            public void run(int chunk)
+            {
+                final int to = ParallelTasks.chunkStart(chunk + 1, chunkCount, n);
+                for (int i = ParallelTasks.chunkStart(chunk, chunkCount, n); i < to; i++) {
+                    result[i] = sequenceIfExists(keys[i]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sequence many elements into a preallocated array, like {@link #sequenceExisting(List, int[])},
+     * splitting the work across {@code pool}.  Batches smaller than {@value #PARALLEL_THRESHOLD}
+     * keys, or lists without random access, are sequenced on the calling thread.
+     */
+    public void parallelSequenceExisting(@Nonnull final List<K> keys, @Nonnull final int[] result, @Nonnull ForkJoinPool pool)
+    {
+        final int n = keys.size();
+        checkResult(n, result.length);
+        if (n < PARALLEL_THRESHOLD || !(keys instanceof RandomAccess)) {
+            sequenceExisting(keys, result);
+            return;
+        }
+        final int chunkCount = chunkCount(n, pool);
+        ParallelTasks.forEach(pool, chunkCount, new ParallelTasks.Body() {
+            @Override
+            public void run(int chunk)
+            {
+                final int to = ParallelTasks.chunkStart(chunk + 1, chunkCount, n);
+                for (int i = ParallelTasks.chunkStart(chunk, chunkCount, n); i < to; i++) {
+                    result[i] = sequenceIfExists(keys.get(i));
+                }
+            }
+        });
+    }
+
+    private static int chunkCount(int n, ForkJoinPool pool)
+    {
+        // A few chunks per thread evens out stragglers, but each should still be worth a task.
+        return Math.max(1, Math.min(pool.getParallelism() * 4, n / (PARALLEL_THRESHOLD / 4)));
+    }
+
     @Override
     public final int sequenceOrAdd(@Nonnull K key)
     {
@@ -65,6 +196,41 @@ public abstract class ImmutableSequencer<K> extends AbstractSequencer<K>
         return new ImmutableShadowingSequencerBuilder<K>(this);
     }
 
+    /**
+     * Extend this sequencer, keeping its layers and merging them according to {@code policy}
+     * when the extension is built.
+     */
+    @Nonnull
+    public ImmutableShadowingSequencerBuilder<K> extendImmutableSequence(@Nonnull ShadowingCompactionPolicy policy)
+    {
+        return new ImmutableShadowingSequencerBuilder<K>(this, checkNotNull(policy, "null policy"));
+    }
+
+    /**
+     * Attach a compact membership filter to each layer of this sequencer, so lookups of
+     * absent keys can usually skip probing it.  Worthwhile for layered (shadowing) sequencers
+     * which see many misses.  Layers later stacked on top of a filtered sequencer are filtered
+     * as well.  Implementations which can not carry a filter return themselves.
+     */
+    @Nonnull
+    public ImmutableSequencer<K> withMembershipFilter()
+    {
+        return this;
+    }
+
+    /**
+     * @return false only if {@code key} is certainly not in this sequencer
+     */
+    boolean mightContain(Object key)
+    {
+        return true;
+    }
+
+    boolean hasMembershipFilter()
+    {
+        return false;
+    }
+
     /**
      * @return the number of Sequencers backing this immutable instance.  Usually 1.
      */
@@ -17,6 +17,7 @@ package com.nesscomputing.sequencer;
 
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
@@ -38,43 +39,75 @@ class ImmutableSequencerImpl<K> extends ImmutableSequencer<K>
     private static final float LOAD_FACTOR = 0.5f;
 
     private final TObjectIntMap<K> forward;
-    private final K[] reverse;
+    private final PagedList<K> reverse;
+    private final transient SequencerMembershipFilter filter;
 
-    @SuppressWarnings("unchecked")
     ImmutableSequencerImpl()
     {
         forward = new TObjectIntHashMap<>(0, LOAD_FACTOR, -1);
-        reverse = (K[]) new Object[0];
+        reverse = new PagedList<>();
+        filter = null;
     }
 
-    @SuppressWarnings("unchecked")
     @JsonCreator
     ImmutableSequencerImpl(Iterable<K> elements)
     {
         final int size = Iterables.size(elements);
         forward = new TObjectIntHashMap<>(size, LOAD_FACTOR, -1);
-        reverse = (K[]) new Object[size];
-        int v = 0;
+        reverse = new PagedList<>(size);
         for (K k : elements) {
-            forward.put(k, v);
-            reverse[v] = k;
-            v++;
+            forward.put(k, reverse.size());
+            reverse.add(k);
         }
+        filter = null;
+    }
+
+    /**
+     * Take ownership of a fully built index.  {@code reverse} must hold exactly the keys of {@code forward}.
+     */
+    ImmutableSequencerImpl(TObjectIntMap<K> forward, PagedList<K> reverse)
+    {
+        this(forward, reverse, null);
+    }
+
+    private ImmutableSequencerImpl(TObjectIntMap<K> forward, PagedList<K> reverse, SequencerMembershipFilter filter)
+    {
+        assert forward.size() == reverse.size() : "forward and reverse mappings must match";
+        this.forward = forward;
+        this.reverse = reverse;
+        this.filter = filter;
     }
 
-    @SuppressWarnings("unchecked")
     ImmutableSequencerImpl(Sequencer<K> sequencer)
     {
         final int size = sequencer.size();
         forward = new TObjectIntHashMap<>(size, LOAD_FACTOR, -1);
-        reverse = (K[]) new Object[size];
+        reverse = new PagedList<>(size);
 
         for (int v = 0; v < size; v++) {
             final K k = sequencer.unsequence(v);
 
             forward.put(k, v);
-            reverse[v] = k;
+            reverse.add(k);
+        }
+        filter = null;
+    }
+
+    /**
+     * Take ownership of {@code reverse}, which must not be modified afterwards,
+     * and index it with an exactly presized map.
+     * @throws IllegalArgumentException if {@code reverse} contains duplicates
+     */
+    static <K> ImmutableSequencerImpl<K> fromList(PagedList<K> reverse)
+    {
+        final int size = reverse.size();
+        final TObjectIntMap<K> forward = new TObjectIntHashMap<>(size, LOAD_FACTOR, -1);
+        for (int v = 0; v < size; v++) {
+            if (forward.put(reverse.get(v), v) != -1) {
+                throw new IllegalArgumentException("duplicate key " + reverse.get(v));
+            }
         }
+        return new ImmutableSequencerImpl<>(forward, reverse);
     }
 
     @Nonnull
@@ -86,6 +119,27 @@ class ImmutableSequencerImpl<K> extends ImmutableSequencer<K>
         return new ImmutableSequencerImpl<>(seq);
     }
 
+    @Override
+    public ImmutableSequencerImpl<K> withMembershipFilter()
+    {
+        if (filter != null) {
+            return this;
+        }
+        return new ImmutableSequencerImpl<>(forward, reverse, SequencerMembershipFilter.of(this));
+    }
+
+    @Override
+    boolean mightContain(Object key)
+    {
+        return filter == null || filter.mightContain(key);
+    }
+
+    @Override
+    boolean hasMembershipFilter()
+    {
+        return filter != null;
+    }
+
     @Override
     protected int depth()
     {
@@ -110,6 +164,9 @@ class ImmutableSequencerImpl<K> extends ImmutableSequencer<K>
     {
         assert forward.getNoEntryValue() == -1 : "noEntryValue must be == -1";
         for (K key : keys) {
+            if (filter != null && !filter.mightContain(key)) {
+                continue;
+            }
             int val = forward.get(key);
             if (val != forward.getNoEntryValue()) {
                 result.put(key, val);
@@ -117,10 +174,49 @@ class ImmutableSequencerImpl<K> extends ImmutableSequencer<K>
         }
     }
 
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        assert forward.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        checkResult(keys.length, result.length);
+        for (int i = 0; i < keys.length; i++) {
+            final K key = keys[i];
+            result[i] = filter != null && !filter.mightContain(key) ? -1 : forward.get(key);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        assert forward.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        final int size = keys.size();
+        checkResult(size, result.length);
+        for (int i = 0; i < size; i++) {
+            final K key = keys.get(i);
+            result[i] = filter != null && !filter.mightContain(key) ? -1 : forward.get(key);
+        }
+    }
+
     @Override
     public K unsequence(int index)
     {
-        return reverse[index];
+        return reverse.get(index);
+    }
+
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        checkResult(indexes.length, result.length);
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = reverse.get(indexes[i]);
+        }
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, reverse.size(), result.length, offset);
+        reverse.copyTo(fromIndex, toIndex, result, offset);
     }
 
     @Override
@@ -129,24 +225,29 @@ class ImmutableSequencerImpl<K> extends ImmutableSequencer<K>
         return forward.size();
     }
 
+    @SuppressWarnings("unchecked")
     private Object writeReplace() throws ObjectStreamException
     {
-        return new SerProxy<>(reverse);
+        // The serialized form predates paged storage and stays a plain array.
+        return new SerProxy<>((K[]) reverse.toArray(), filter != null);
     }
 
     private static class SerProxy<K> implements Serializable
     {
         private static final long serialVersionUID = 1L;
         private final K[] arr;
+        private final boolean filtered;
 
-        SerProxy(K[] arr)
+        SerProxy(K[] arr, boolean filtered)
         {
             this.arr = arr;
+            this.filtered = filtered;
         }
 
         private Object readResolve() throws ObjectStreamException
         {
-            return ImmutableSequencer.of(arr);
+            final ImmutableSequencer<K> result = ImmutableSequencer.of(arr);
+            return filtered ? result.withMembershipFilter() : result;
         }
     }
 }
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.util.List;
+import java.util.RandomAccess;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * An immutable sequencer made of two layers: the keys of {@code first}, followed by
+ * the keys of {@code second}.
+ */
+class ImmutableShadowingSequencer<K> extends ImmutableSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableSequencer<K> first;
+    private final ImmutableSequencer<K> second;
+    private final int size;
+    private final int depth;
+
+    ImmutableShadowingSequencer(ImmutableSequencer<K> first, ImmutableSequencer<K> second)
+    {
+        this.first = first;
+        this.second = second;
+
+        size = first.size() + second.size();
+        depth = first.depth() + second.depth();
+    }
+
+    @Override
+    protected int depth()
+    {
+        return depth;
+    }
+
+    @Override
+    SequencerFingerprint createFingerprint()
+    {
+        return new SequencerFingerprint(first.fingerprint());
+    }
+
+    ImmutableSequencer<K> getFirst()
+    {
+        return first;
+    }
+    ImmutableSequencer<K> getSecond()
+    {
+        return second;
+    }
+
+    /**
+     * Append the non-shadowing layers making up {@code seq} to {@code layers}, bottom first.
+     */
+    static <K> void collectLayers(ImmutableSequencer<K> seq, List<ImmutableSequencer<K>> layers)
+    {
+        if (seq instanceof ImmutableShadowingSequencer) {
+            final ImmutableShadowingSequencer<K> shadowing = (ImmutableShadowingSequencer<K>) seq;
+            collectLayers(shadowing.first, layers);
+            collectLayers(shadowing.second, layers);
+        } else {
+            layers.add(seq);
+        }
+    }
+
+    @Override
+    public ImmutableSequencer<K> withMembershipFilter()
+    {
+        final ImmutableSequencer<K> filteredFirst = first.withMembershipFilter();
+        final ImmutableSequencer<K> filteredSecond = second.withMembershipFilter();
+        if (filteredFirst == first && filteredSecond == second) {
+            return this;
+        }
+        return new ImmutableShadowingSequencer<>(filteredFirst, filteredSecond);
+    }
+
+    @Override
+    boolean hasMembershipFilter()
+    {
+        return second.hasMembershipFilter();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return (first.mightContain(key) && first.containsKey(key)) || (second.mightContain(key) && second.containsKey(key));
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        return sequenceIfExists(first, second, key);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        sequenceExisting(first, second, keys, result);
+    }
+
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        sequenceExisting(first, second, keys, result);
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        sequenceExisting(first, second, keys, result);
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        return unsequence(first, second, index);
+    }
+
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        unsequence(first, second, indexes, result);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        unsequence(first, second, fromIndex, toIndex, result, offset);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        // Do not use ImmutableSequencer.copyOf, since it avoids copying subclasses of ImmutableSequencer, defeating the writeReplace!
+        return new ImmutableSequencerImpl<>(this);
+    }
+
+    static <K> int sequenceIfExists(Sequencer<K> first, Sequencer<K> second, K key)
+    {
+        int result = mightContain(first, key) ? first.sequenceIfExists(key) : -1;
+        if (result != -1) {
+            return result;
+        }
+        result = mightContain(second, key) ? second.sequenceIfExists(key) : -1;
+        if (result != -1) {
+            return first.size() + result;
+        }
+        return result;
+    }
+
+    /**
+     * Consult the membership filter of an immutable layer, if it has one.  Shadowing layers
+     * answer true and leave filtering to their own layers.
+     */
+    private static boolean mightContain(Sequencer<?> seq, Object key)
+    {
+        return !(seq instanceof ImmutableSequencer) || ((ImmutableSequencer<?>) seq).mightContain(key);
+    }
+
+    /**
+     * Sequence {@code keys} in a single pass, writing offset-adjusted ids straight into {@code result}.
+     * Nothing is allocated, apart from the iterator of a {@code keys} which is not a random access list.
+     */
+    static <K> void sequenceExisting(Sequencer<K> first, Sequencer<K> second, Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        if (keys instanceof List && keys instanceof RandomAccess) {
+            final List<K> list = (List<K>) keys;
+            final int size = list.size();
+            for (int i = 0; i < size; i++) {
+                final K key = list.get(i);
+                final int val = sequenceIfExists(first, second, key);
+                if (val != -1) {
+                    result.put(key, val);
+                }
+            }
+        } else {
+            for (K key : keys) {
+                final int val = sequenceIfExists(first, second, key);
+                if (val != -1) {
+                    result.put(key, val);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sequence {@code keys} into {@code result} without allocating: the first sequencer is asked in bulk,
+     * and only the keys it misses are looked up in the second.
+     */
+    static <K> void sequenceExisting(Sequencer<K> first, Sequencer<K> second, K[] keys, int[] result)
+    {
+        first.sequenceExisting(keys, result);
+        final int offset = first.size();
+        for (int i = 0; i < keys.length; i++) {
+            if (result[i] == -1 && mightContain(second, keys[i])) {
+                final int val = second.sequenceIfExists(keys[i]);
+                if (val != -1) {
+                    result[i] = val + offset;
+                }
+            }
+        }
+    }
+
+    static <K> void sequenceExisting(Sequencer<K> first, Sequencer<K> second, List<K> keys, int[] result)
+    {
+        first.sequenceExisting(keys, result);
+        final int offset = first.size();
+        final int size = keys.size();
+        for (int i = 0; i < size; i++) {
+            if (result[i] == -1) {
+                final K key = keys.get(i);
+                if (mightContain(second, key)) {
+                    final int val = second.sequenceIfExists(key);
+                    if (val != -1) {
+                        result[i] = val + offset;
+                    }
+                }
+            }
+        }
+    }
+
+    static <K> K unsequence(Sequencer<K> first, Sequencer<K> second, int index)
+    {
+        if (index < first.size()) {
+            return first.unsequence(index);
+        } else {
+            return second.unsequence(index - first.size());
+        }
+    }
+
+    static <K> void unsequence(Sequencer<K> first, Sequencer<K> second, int[] indexes, K[] result)
+    {
+        checkResult(indexes.length, result.length);
+        final int split = first.size();
+        for (int i = 0; i < indexes.length; i++) {
+            final int index = indexes[i];
+            result[i] = index < split ? first.unsequence(index) : second.unsequence(index - split);
+        }
+    }
+
+    static <K> void unsequence(Sequencer<K> first, Sequencer<K> second, int fromIndex, int toIndex, K[] result, int offset)
+    {
+        final int split = first.size();
+        checkRange(fromIndex, toIndex, split + second.size(), result.length, offset);
+        if (fromIndex < split) {
+            first.unsequence(fromIndex, Math.min(toIndex, split), result, offset);
+        }
+        if (toIndex > split) {
+            final int from = Math.max(fromIndex, split);
+            second.unsequence(from - split, toIndex - split, result, offset + from - fromIndex);
+        }
+    }
+}
@@ -19,11 +19,10 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.io.NotSerializableException;
 import java.io.ObjectStreamException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import gnu.trove.function.TIntFunction;
 import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
 
 import com.nesscomputing.logging.Log;
 
@@ -44,10 +43,17 @@ public class ImmutableShadowingSequencerBuilder<K> extends AbstractSequencer<K>
     private final Sequencer<K> additional = HashSequencer.create();
 
     private final int additionalStartingSize;
+    private final ShadowingCompactionPolicy policy;
 
     ImmutableShadowingSequencerBuilder(ImmutableSequencer<K> base)
+    {
+        this(base, null);
+    }
+
+    ImmutableShadowingSequencerBuilder(ImmutableSequencer<K> base, ShadowingCompactionPolicy policy)
     {
         this.originalBase = base;
+        this.policy = policy;
         /*
          * ImmutableShadowingSequencers stack up on top of each other.  Usually there is one very
          * large sequencer at the very bottom, and then a varying number of incremental sequencers
@@ -56,8 +62,10 @@ public class ImmutableShadowingSequencerBuilder<K> extends AbstractSequencer<K>
          *
          * This algorithm could be improved later if we wish to support having larger extensions in the
          * middle, but that is not a use case today.  So just drop a warning in that case.
+         *
+         * With a compaction policy, layers are left alone here and merged by the policy on build.
          */
-        if (base instanceof ImmutableShadowingSequencer) {
+        if (policy == null && base instanceof ImmutableShadowingSequencer) {
             ImmutableShadowingSequencer<K> castBase = (ImmutableShadowingSequencer<K>) base;
             this.base = castBase.getFirst();
             ImmutableSequencer<K> collapsee = castBase.getSecond();
@@ -77,6 +85,20 @@ public class ImmutableShadowingSequencerBuilder<K> extends AbstractSequencer<K>
         additionalStartingSize = additional.size();
     }
 
+    /**
+     * @return the immutable sequencer this builder shadows; keys beyond its size are held by the builder
+     */
+    ImmutableSequencer<K> getBase()
+    {
+        return base;
+    }
+
+    @Override
+    SequencerFingerprint createFingerprint()
+    {
+        return new SequencerFingerprint(base.fingerprint());
+    }
+
     /**
      * Create a new ImmutableSequencer with a reference
      * to the original sequence and the contents of
@@ -92,7 +114,16 @@ public class ImmutableShadowingSequencerBuilder<K> extends AbstractSequencer<K>
             return ImmutableSequencer.copyOf(additional);
         }
 
-        return new ImmutableShadowingSequencer<K>(base, ImmutableSequencer.copyOf(additional));
+        ImmutableSequencer<K> top = ImmutableSequencer.copyOf(additional);
+        if (originalBase.hasMembershipFilter()) {
+            top = top.withMembershipFilter();
+        }
+
+        if (policy != null) {
+            return policy.apply(base, top);
+        }
+
+        return new ImmutableShadowingSequencer<K>(base, top);
     }
 
     /**
@@ -116,150 +147,86 @@ public class ImmutableShadowingSequencerBuilder<K> extends AbstractSequencer<K>
     }
 
     @Override
-    public boolean containsKey(Object key)
+    public void sequenceOrAdd(K[] keys, int[] result)
     {
-        return base.containsKey(key) || additional.containsKey(key);
+        base.sequenceExisting(keys, result);
+        final int offset = base.size();
+        for (int i = 0; i < keys.length; i++) {
+            if (result[i] == -1) {
+                result[i] = additional.sequenceOrAdd(keys[i]) + offset;
+            }
+        }
     }
 
     @Override
-    public int sequenceIfExists(K key)
-    {
-        return ImmutableShadowingSequencer.sequenceIfExists(base, additional, key);
+    public void sequenceOrAdd(List<K> keys, int[] result)
+    {
+        base.sequenceExisting(keys, result);
+        final int offset = base.size();
+        final int size = keys.size();
+        for (int i = 0; i < size; i++) {
+            if (result[i] == -1) {
+                result[i] = additional.sequenceOrAdd(keys.get(i)) + offset;
+            }
+        }
     }
 
     @Override
-    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    public boolean containsKey(Object key)
     {
-        ImmutableShadowingSequencer.sequenceExisting(base, additional, keys, result);
+        return base.containsKey(key) || additional.containsKey(key);
     }
 
     @Override
-    public K unsequence(int index)
+    public int sequenceIfExists(K key)
     {
-        return ImmutableShadowingSequencer.unsequence(base, additional, index);
+        return ImmutableShadowingSequencer.sequenceIfExists(base, additional, key);
     }
 
     @Override
-    public int size()
-    {
-        return base.size() + additional.size();
-    }
-
-    private Object writeReplace() throws ObjectStreamException
-    {
-        throw new NotSerializableException("Shadowing builders may not be serialized");
-    }
-}
-
-class ImmutableShadowingSequencer<K> extends ImmutableSequencer<K>
-{
-    private static final long serialVersionUID = 1L;
-
-    private final ImmutableSequencer<K> first;
-    private final ImmutableSequencer<K> second;
-    private final int size;
-    private final int depth;
-
-    ImmutableShadowingSequencer(ImmutableSequencer<K> first, ImmutableSequencer<K> second)
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
     {
-        this.first = first;
-        this.second = second;
-
-        size = first.size() + second.size();
-        depth = first.depth() + second.depth();
+        ImmutableShadowingSequencer.sequenceExisting(base, additional, keys, result);
     }
 
     @Override
-    protected int depth()
-    {
-        return depth;
-    }
-
-    ImmutableSequencer<K> getFirst()
-    {
-        return first;
-    }
-    ImmutableSequencer<K> getSecond()
+    public void sequenceExisting(K[] keys, int[] result)
     {
-        return second;
+        ImmutableShadowingSequencer.sequenceExisting(base, additional, keys, result);
     }
 
     @Override
-    public boolean containsKey(Object key)
+    public void sequenceExisting(List<K> keys, int[] result)
     {
-        return first.containsKey(key) || second.containsKey(key);
+        ImmutableShadowingSequencer.sequenceExisting(base, additional, keys, result);
     }
 
     @Override
-    public int sequenceIfExists(K key)
+    public K unsequence(int index)
     {
-        return sequenceIfExists(first, second, key);
+        return ImmutableShadowingSequencer.unsequence(base, additional, index);
     }
 
     @Override
-    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    public void unsequence(int[] indexes, K[] result)
     {
-        sequenceExisting(first, second, keys, result);
+        ImmutableShadowingSequencer.unsequence(base, additional, indexes, result);
     }
 
     @Override
-    public K unsequence(int index)
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
     {
-        return unsequence(first, second, index);
+        ImmutableShadowingSequencer.unsequence(base, additional, fromIndex, toIndex, result, offset);
     }
 
     @Override
     public int size()
     {
-        return size;
+        return base.size() + additional.size();
     }
 
     private Object writeReplace() throws ObjectStreamException
     {
-        // Do not use ImmutableSequencer.copyOf, since it avoids copying subclasses of ImmutableSequencer, defeating the writeReplace!
-        return new ImmutableSequencerImpl<>(this);
-    }
-
-    static <K> int sequenceIfExists(Sequencer<K> first, Sequencer<K> second, K key)
-    {
-        int result = first.sequenceIfExists(key);
-        if (result != -1) {
-            return result;
-        }
-        result = second.sequenceIfExists(key);
-        if (result != -1) {
-            return first.size() + result;
-        }
-        return result;
-    }
-
-    static <K> void sequenceExisting(Sequencer<K> first, Sequencer<K> second, Iterable<K> keys, TObjectIntMap<K> result)
-    {
-        first.sequenceExisting(keys, result);
-
-        TObjectIntMap<K> tmp = new TObjectIntHashMap<K>(second.size());
-
-        second.sequenceExisting(keys, tmp);
-
-        final int offset = first.size();
-
-        tmp.transformValues(new TIntFunction() {
-            @Override
-            public int execute(int value)
-            {
-                return value + offset;
-            }
-        });
-
-        result.putAll(tmp);
-    }
-
-    static <K> K unsequence(Sequencer<K> first, Sequencer<K> second, int index)
-    {
-        if (index < first.size()) {
-            return first.unsequence(index);
-        } else {
-            return second.unsequence(index - first.size());
-        }
+        throw new NotSerializableException("Shadowing builders may not be serialized");
     }
 }
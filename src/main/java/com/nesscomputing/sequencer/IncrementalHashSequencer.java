@@ -0,0 +1,359 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.collect.Lists;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * Maps a sparse range of keys to a dense range (starting at 0), growing its index
+ * incrementally so that no single add pays for rehashing every key.
+ * <p>
+ * When the open addressing table passes its load factor, a table of twice the size is
+ * started, and each following add moves {@value #MIGRATION_STEP} ids from the old
+ * table into it.  Tables are kept in pages which are only allocated once written to, and
+ * mark empty slots with zero, so starting a table neither fills nor allocates it in one
+ * go.  Until all are moved, lookups probe the new table and then the old one.  The old
+ * table is never modified, so it needs no tombstones, and the migration always finishes
+ * long before the new table fills up.  Per-id hash codes are kept alongside the keys, so
+ * moving an id never calls {@link Object#hashCode()}.
+ * <p>
+ * Like {@link HashSequencer}, keys are kept in fixed-size pages which are never copied.
+ * Tables are capped at {@value #MAX_TABLE_SIZE} slots, so at most {@value #MAX_SIZE} keys
+ * fit; adding more throws {@link IllegalStateException}.
+ *
+ * @param <K> the type of sparse keys to map
+ */
+@NotThreadSafe
+public class IncrementalHashSequencer<K> extends AbstractSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Number of ids moved to the new table per add, while a resize is in progress. */
+    static final int MIGRATION_STEP = 4;
+
+    private static final int MIN_TABLE_SIZE = 16;
+    /** Largest power of two table size that an int can hold. */
+    static final int MAX_TABLE_SIZE = 1 << 30;
+    /** Most ids which fit into the largest table without passing the load factor. */
+    static final int MAX_SIZE = MAX_TABLE_SIZE / 2;
+
+    private static final int TABLE_PAGE_SHIFT = 14;
+    private static final int TABLE_PAGE_SIZE = 1 << TABLE_PAGE_SHIFT;
+    private static final int TABLE_PAGE_MASK = TABLE_PAGE_SIZE - 1;
+
+    private final PagedList<K> intToKey;
+    /** Mixed hash codes by id, in pages of {@link PagedList#PAGE_SIZE}. */
+    private int[][] hashPages = new int[0][];
+
+    /** Open addressing table, in lazily allocated pages.  Each slot holds an id + 1, or 0 if empty.  All adds go here. */
+    private int[][] table;
+    private int tableMask;
+    /** The table being drained by a resize in progress, or null. */
+    private int[][] oldTable;
+    private int oldTableMask;
+    /** Ids below this have been moved from {@link #oldTable}. */
+    private int migrated;
+    /** Number of ids in {@link #oldTable}. */
+    private int oldSize;
+
+    private IncrementalHashSequencer(int startingSize)
+    {
+        final int capacity = Math.min(startingSize, MAX_SIZE);
+        intToKey = new PagedList<>(capacity);
+        final int tableSize = tableSizeFor(capacity);
+        table = newTable(tableSize);
+        tableMask = tableSize - 1;
+    }
+
+    /**
+     * Create a new IncrementalHashSequencer with a default initial size.
+     */
+    public static <K> IncrementalHashSequencer<K> create()
+    {
+        return createWithInitialCapacity(10);
+    }
+
+    /**
+     * Create a new IncrementalHashSequencer with a specified initial size.
+     */
+    public static <K> IncrementalHashSequencer<K> createWithInitialCapacity(int startingSize)
+    {
+        return new IncrementalHashSequencer<>(startingSize);
+    }
+
+    /**
+     * Create a new IncrementalHashSequencer with the elements of another sequencer.
+     */
+    public static <K> IncrementalHashSequencer<K> copyOf(Sequencer<K> other)
+    {
+        final IncrementalHashSequencer<K> result = createWithInitialCapacity(other.size());
+        final SequencerCursor<K> cursor = other.cursor();
+        while (cursor.next()) {
+            result.sequenceOrAdd(cursor.key());
+        }
+        return result;
+    }
+
+    /**
+     * Create a new IncrementalHashSequencer with the elements of an array.
+     */
+    @SafeVarargs
+    public static <K> IncrementalHashSequencer<K> copyOf(K... elements)
+    {
+        return copyOf(Arrays.asList(elements));
+    }
+
+    /**
+     * Create a new IncrementalHashSequencer with the elements of an iterable.
+     */
+    public static <K> IncrementalHashSequencer<K> copyOf(Iterable<K> elements)
+    {
+        final IncrementalHashSequencer<K> result = create();
+        for (K key : elements) {
+            result.sequenceOrAdd(key);
+        }
+        return result;
+    }
+
+    @Override
+    public List<K> getKeys()
+    {
+        return Collections.unmodifiableList(intToKey);
+    }
+
+    @Override
+    public int sequenceOrAdd(K key)
+    {
+        final int hash = SequencerHashing.mix(key.hashCode());
+
+        int slot = hash & tableMask;
+        while (true) {
+            final int entry = entry(table, slot);
+            if (entry == 0) {
+                break;
+            }
+            if (hashAt(entry - 1) == hash && key.equals(intToKey.get(entry - 1))) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        if (oldTable != null) {
+            final int id = find(oldTable, oldTableMask, key, hash);
+            if (id != -1) {
+                return id;
+            }
+        }
+
+        final int id = intToKey.size();
+        checkState(id < MAX_SIZE, "sequencer is full, can not add more than %s keys", MAX_SIZE);
+        intToKey.add(key);
+        setHash(id, hash);
+        setEntry(table, tableMask, slot, id + 1);
+
+        if (oldTable != null) {
+            migrate(MIGRATION_STEP);
+        } else if ((long) (id + 1) * 2 > tableMask + 1L) {
+            startResize();
+        }
+        return id;
+    }
+
+    /**
+     * Switch to a table of twice the size.  Only its page directory is allocated here; pages
+     * are allocated, already empty, as ids are moved or added into them.
+     */
+    private void startResize()
+    {
+        checkState(tableMask + 1 < MAX_TABLE_SIZE, "table of %s slots can not grow", tableMask + 1);
+        oldTable = table;
+        oldTableMask = tableMask;
+        oldSize = intToKey.size();
+        migrated = 0;
+        final int tableSize = (tableMask + 1) * 2;
+        table = newTable(tableSize);
+        tableMask = tableSize - 1;
+    }
+
+    /**
+     * Move up to {@code count} ids from the old table into the new one, in ascending order.
+     */
+    private void migrate(int count)
+    {
+        final int to = Math.min(oldSize, migrated + count);
+        for (int id = migrated; id < to; id++) {
+            int slot = hashAt(id) & tableMask;
+            while (entry(table, slot) != 0) {
+                slot = (slot + 1) & tableMask;
+            }
+            setEntry(table, tableMask, slot, id + 1);
+        }
+        migrated = to;
+        if (migrated == oldSize) {
+            oldTable = null;
+        }
+    }
+
+    /**
+     * @return the number of ids a resize in progress has yet to move; for tests
+     */
+    int unmigrated()
+    {
+        return oldTable == null ? 0 : oldSize - migrated;
+    }
+
+    private int find(Object key, int hash)
+    {
+        final int result = find(table, tableMask, key, hash);
+        if (result != -1 || oldTable == null) {
+            return result;
+        }
+        return find(oldTable, oldTableMask, key, hash);
+    }
+
+    private int find(int[][] probeTable, int mask, Object key, int hash)
+    {
+        int slot = hash & mask;
+        while (true) {
+            final int entry = entry(probeTable, slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (hashAt(entry - 1) == hash && key.equals(intToKey.get(entry - 1))) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key != null && find(key, SequencerHashing.mix(key.hashCode())) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        return find(key, SequencerHashing.mix(key.hashCode()));
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int val = sequenceIfExists(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        return intToKey.get(index);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, intToKey.size(), result.length, offset);
+        intToKey.copyTo(fromIndex, toIndex, result, offset);
+    }
+
+    @Override
+    public int size()
+    {
+        return intToKey.size();
+    }
+
+    private int hashAt(int id)
+    {
+        return hashPages[id >>> PagedList.PAGE_SHIFT][id & (PagedList.PAGE_SIZE - 1)];
+    }
+
+    private void setHash(int id, int hash)
+    {
+        final int pageIndex = id >>> PagedList.PAGE_SHIFT;
+        if (pageIndex == hashPages.length) {
+            hashPages = Arrays.copyOf(hashPages, Math.max(4, hashPages.length * 2));
+        }
+        if (hashPages[pageIndex] == null) {
+            hashPages[pageIndex] = new int[PagedList.PAGE_SIZE];
+        }
+        hashPages[pageIndex][id & (PagedList.PAGE_SIZE - 1)] = hash;
+    }
+
+    private static int[][] newTable(int tableSize)
+    {
+        return new int[(tableSize + TABLE_PAGE_MASK) >>> TABLE_PAGE_SHIFT][];
+    }
+
+    private static int entry(int[][] pages, int slot)
+    {
+        final int[] page = pages[slot >>> TABLE_PAGE_SHIFT];
+        return page == null ? 0 : page[slot & TABLE_PAGE_MASK];
+    }
+
+    private static void setEntry(int[][] pages, int mask, int slot, int entry)
+    {
+        int[] page = pages[slot >>> TABLE_PAGE_SHIFT];
+        if (page == null) {
+            page = pages[slot >>> TABLE_PAGE_SHIFT] = new int[Math.min(mask + 1, TABLE_PAGE_SIZE)];
+        }
+        page[slot & TABLE_PAGE_MASK] = entry;
+    }
+
+    private static int tableSizeFor(int capacity)
+    {
+        checkArgument(capacity <= MAX_SIZE, "capacity %s is more than the maximum of %s", capacity, MAX_SIZE);
+        return Math.max(MIN_TABLE_SIZE, Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2);
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy<>(Lists.newArrayList(intToKey));
+    }
+
+    private static class SerProxy<K> implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final List<K> intToKey;
+
+        SerProxy(List<K> intToKey)
+        {
+            this.intToKey = intToKey;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return copyOf(intToKey);
+        }
+    }
+}
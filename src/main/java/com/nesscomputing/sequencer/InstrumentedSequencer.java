@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import gnu.trove.map.TObjectIntMap;
+
+import com.nesscomputing.sequencer.SequencerMetrics.Operation;
+
+/**
+ * Decorates a sequencer to record {@link SequencerMetrics}: call and key counts, lookup hits
+ * and misses, growth through {@code sequenceOrAdd}, batch sizes and sampled latencies.
+ * <p>
+ * Any sequencer may be instrumented, including immutable snapshots and
+ * {@link Sequencers#unmodifiableSequencer(Sequencer) unmodifiable views}, and the result may
+ * itself be wrapped unmodifiable.  Snapshots taken with {@link #subSequence(int)} are not
+ * instrumented; wrap them with the same {@link SequencerMetrics} to aggregate their numbers.
+ * <p>
+ * This class is thread safe if the delegate is.  Serialization writes the delegate only, as
+ * metrics belong to the running process.
+ */
+public class InstrumentedSequencer<K> extends DelegatingSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient SequencerMetrics metrics;
+
+    private InstrumentedSequencer(Sequencer<K> delegate, SequencerMetrics metrics)
+    {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    @Nonnull
+    public static <K> InstrumentedSequencer<K> of(@Nonnull Sequencer<K> delegate, @Nonnull SequencerMetrics metrics)
+    {
+        return new InstrumentedSequencer<>(delegate, metrics);
+    }
+
+    @Nonnull
+    public SequencerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    @Override
+    public int sequenceOrAdd(K key)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_OR_ADD, stripe);
+        final int before = getDelegate().size();
+        final int result = getDelegate().sequenceOrAdd(key);
+        final boolean added = result >= before;
+        metrics.end(Operation.SEQUENCE_OR_ADD, stripe, start, 1, added ? 0 : 1, 0, added ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public void sequenceOrAdd(K[] keys, int[] result)
+    {
+        sequenceOrAdd(keys.length, keys, null, result);
+    }
+
+    @Override
+    public void sequenceOrAdd(List<K> keys, int[] result)
+    {
+        sequenceOrAdd(keys.size(), null, keys, result);
+    }
+
+    private void sequenceOrAdd(int count, K[] array, List<K> list, int[] result)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_OR_ADD, stripe);
+        final int before = getDelegate().size();
+        if (array != null) {
+            getDelegate().sequenceOrAdd(array, result);
+        } else {
+            getDelegate().sequenceOrAdd(list, result);
+        }
+        // Under concurrent additions this attributes other threads' keys to this call.
+        final int added = Math.min(count, getDelegate().size() - before);
+        metrics.end(Operation.SEQUENCE_OR_ADD, stripe, start, count, count - added, 0, added);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_IF_EXISTS, stripe);
+        final boolean result = getDelegate().containsKey(key);
+        metrics.end(Operation.SEQUENCE_IF_EXISTS, stripe, start, 1, result ? 1 : 0, result ? 0 : 1, 0);
+        return result;
+    }
+
+    @Override
+    public int sequence(K key) throws SequencerKeyException
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_IF_EXISTS, stripe);
+        boolean found = false;
+        try {
+            final int result = getDelegate().sequence(key);
+            found = true;
+            return result;
+        } finally {
+            metrics.end(Operation.SEQUENCE_IF_EXISTS, stripe, start, 1, found ? 1 : 0, found ? 0 : 1, 0);
+        }
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_IF_EXISTS, stripe);
+        final int result = getDelegate().sequenceIfExists(key);
+        metrics.end(Operation.SEQUENCE_IF_EXISTS, stripe, start, 1, result >= 0 ? 1 : 0, result >= 0 ? 0 : 1, 0);
+        return result;
+    }
+
+    @Override
+    public TObjectIntMap<K> sequenceExisting(Iterable<K> keys)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_EXISTING, stripe);
+        final TObjectIntMap<K> result = getDelegate().sequenceExisting(keys);
+        endSequenceExisting(stripe, start, keys, result.size());
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_EXISTING, stripe);
+        final int before = result.size();
+        getDelegate().sequenceExisting(keys, result);
+        endSequenceExisting(stripe, start, keys, result.size() - before);
+    }
+
+    private void endSequenceExisting(int stripe, long start, Iterable<K> keys, int hits)
+    {
+        // Duplicate keys are counted once by the result map, so misses are only a bound.
+        final int count = keys instanceof Collection ? ((Collection<K>) keys).size() : -1;
+        metrics.end(Operation.SEQUENCE_EXISTING, stripe, start, count, hits, count < 0 ? -1 : count - hits, 0);
+    }
+
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_EXISTING, stripe);
+        getDelegate().sequenceExisting(keys, result);
+        endSequenceExisting(stripe, start, keys.length, result);
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.SEQUENCE_EXISTING, stripe);
+        getDelegate().sequenceExisting(keys, result);
+        endSequenceExisting(stripe, start, keys.size(), result);
+    }
+
+    private void endSequenceExisting(int stripe, long start, int count, int[] result)
+    {
+        int hits = 0;
+        for (int i = 0; i < count; i++) {
+            if (result[i] >= 0) {
+                hits++;
+            }
+        }
+        metrics.end(Operation.SEQUENCE_EXISTING, stripe, start, count, hits, count - hits, 0);
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.UNSEQUENCE, stripe);
+        final K result = getDelegate().unsequence(index);
+        metrics.end(Operation.UNSEQUENCE, stripe, start, 1, 0, 0, 0);
+        return result;
+    }
+
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.UNSEQUENCE, stripe);
+        getDelegate().unsequence(indexes, result);
+        metrics.end(Operation.UNSEQUENCE, stripe, start, indexes.length, 0, 0, 0);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        final int stripe = metrics.stripe();
+        final long start = metrics.begin(Operation.UNSEQUENCE, stripe);
+        getDelegate().unsequence(fromIndex, toIndex, result, offset);
+        metrics.end(Operation.UNSEQUENCE, stripe, start, toIndex - fromIndex, 0, 0, 0);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return getDelegate().equals(obj instanceof InstrumentedSequencer ? ((InstrumentedSequencer<?>) obj).getDelegate() : obj);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getDelegate().hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getDelegate().toString();
+    }
+
+    private Object writeReplace()
+    {
+        return getDelegate();
+    }
+}
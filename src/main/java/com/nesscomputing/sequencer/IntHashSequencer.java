@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Maps a sparse range of {@code int} keys to a dense range (starting at 0)
+ * without boxing.
+ */
+@NotThreadSafe
+public class IntHashSequencer extends AbstractSequencer<Integer> implements IntSequencer
+{
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final TIntIntHashMap keyToInt;
+    private final TIntArrayList intToKey;
+
+    private IntHashSequencer(int startingSize)
+    {
+        keyToInt = new TIntIntHashMap(startingSize, LOAD_FACTOR, -1, -1);
+        intToKey = new TIntArrayList(startingSize);
+    }
+
+    /**
+     * Create a new IntHashSequencer with a default initial size.
+     */
+    public static IntHashSequencer create()
+    {
+        return createWithInitialCapacity(10);
+    }
+
+    /**
+     * Create a new IntHashSequencer with a specified initial size.
+     */
+    public static IntHashSequencer createWithInitialCapacity(int startingSize)
+    {
+        return new IntHashSequencer(startingSize);
+    }
+
+    /**
+     * Create a new IntHashSequencer with the elements of another sequencer.
+     */
+    public static IntHashSequencer copyOf(IntSequencer other)
+    {
+        final int size = other.size();
+        final IntHashSequencer result = new IntHashSequencer(size);
+        for (int i = 0; i < size; i++) {
+            result.sequenceOrAdd(other.unsequenceInt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Create a new IntHashSequencer with the elements of an array.
+     */
+    public static IntHashSequencer copyOf(int... elements)
+    {
+        final IntHashSequencer result = new IntHashSequencer(elements.length);
+        result.sequenceOrAdd(elements);
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(int key)
+    {
+        assert keyToInt.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+
+        int result = keyToInt.get(key);
+        if (result == -1) {
+            result = intToKey.size();
+            keyToInt.put(key, result);
+            intToKey.add(key);
+        }
+        return result;
+    }
+
+    @Override
+    public int[] sequenceOrAdd(int[] keys)
+    {
+        final int[] result = new int[keys.length];
+        keyToInt.ensureCapacity(keys.length);
+        intToKey.ensureCapacity(intToKey.size() + keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(Integer key)
+    {
+        return sequenceOrAdd(key.intValue());
+    }
+
+    @Override
+    public boolean containsKey(int key)
+    {
+        return keyToInt.containsKey(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    @Override
+    public int sequence(int key) throws SequencerKeyException
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new SequencerKeyException("no key %s", key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceIfExists(int key)
+    {
+        assert keyToInt.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        return keyToInt.get(key);
+    }
+
+    @Override
+    public int sequenceIfExists(Integer key)
+    {
+        return sequenceIfExists(key.intValue());
+    }
+
+    @Override
+    public int[] sequenceExisting(int[] keys)
+    {
+        final int[] result = new int[keys.length];
+        sequenceExisting(keys, result);
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(int[] keys, int[] result)
+    {
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = keyToInt.get(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<Integer> keys, TObjectIntMap<Integer> result)
+    {
+        for (Integer key : keys) {
+            final int val = keyToInt.get(key.intValue());
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public int unsequenceInt(int index)
+    {
+        return intToKey.get(index);
+    }
+
+    @Override
+    public int[] unsequence(int[] indexes)
+    {
+        final int[] result = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = intToKey.get(indexes[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Integer unsequence(int index)
+    {
+        return unsequenceInt(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return intToKey.size();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy(intToKey.toArray());
+    }
+
+    private static class SerProxy implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final int[] intToKey;
+
+        SerProxy(int[] intToKey)
+        {
+            this.intToKey = intToKey;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return copyOf(intToKey);
+        }
+    }
+}
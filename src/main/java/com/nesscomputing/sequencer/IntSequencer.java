@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link Sequencer} specialized for {@code int} keys.  The primitive methods
+ * never box; the inherited {@code Integer} methods remain for interoperability.
+ */
+public interface IntSequencer extends Sequencer<Integer>
+{
+    /**
+     * Convert the given sparse key to its dense representation, and defines
+     * a mapping for it if the sparse key is unknown.
+     *
+     * @param key sparse key
+     * @return dense key
+     */
+    int sequenceOrAdd(int key);
+
+    /**
+     * Sequence many keys at once, defining mappings for any unknown keys.
+     *
+     * @param keys sparse keys
+     * @return dense keys, in the same order as the input
+     */
+    @Nonnull
+    int[] sequenceOrAdd(@Nonnull int[] keys);
+
+    /**
+     * Indicates if the given key can be sequenced.
+     *
+     * @return true iff the key is in the sequencer
+     */
+    boolean containsKey(int key);
+
+    /**
+     * Convert the given sparse key to its dense representation.
+     *
+     * @param key sparse key
+     * @return dense key
+     * @throws SequencerKeyException if there is no mapping for this key.
+     */
+    int sequence(int key) throws SequencerKeyException;
+
+    /**
+     * Convert the given sparse key to its dense representation.
+     * Returns -1 if no element is found.
+     *
+     * @param key sparse key
+     * @return dense key
+     */
+    int sequenceIfExists(int key);
+
+    /**
+     * Sequence many keys at once.  Missing keys are reported as -1.
+     *
+     * @param keys sparse keys
+     * @return dense keys, in the same order as the input
+     */
+    @Nonnull
+    int[] sequenceExisting(@Nonnull int[] keys);
+
+    /**
+     * Sequence many keys into a preallocated result.  Missing keys are reported as -1.
+     *
+     * @param keys sparse keys
+     * @param result receives the dense keys; must be at least as int as {@code keys}
+     */
+    void sequenceExisting(@Nonnull int[] keys, @Nonnull int[] result);
+
+    /**
+     * Convert the given dense key back to its sparse key representation.
+     *
+     * @param index dense key
+     * @return sparse key
+     */
+    int unsequenceInt(int index);
+
+    /**
+     * Convert many dense keys back to their sparse key representation.
+     *
+     * @param indexes dense keys
+     * @return sparse keys, in the same order as the input
+     */
+    @Nonnull
+    int[] unsequence(@Nonnull int[] indexes);
+}
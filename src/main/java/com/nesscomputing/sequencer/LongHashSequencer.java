@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Maps a sparse range of {@code long} keys to a dense range (starting at 0)
+ * without boxing.
+ */
+@NotThreadSafe
+public class LongHashSequencer extends AbstractSequencer<Long> implements LongSequencer
+{
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final TLongIntHashMap keyToInt;
+    private final TLongArrayList intToKey;
+
+    private LongHashSequencer(int startingSize)
+    {
+        keyToInt = new TLongIntHashMap(startingSize, LOAD_FACTOR, -1, -1);
+        intToKey = new TLongArrayList(startingSize);
+    }
+
+    /**
+     * Create a new LongHashSequencer with a default initial size.
+     */
+    public static LongHashSequencer create()
+    {
+        return createWithInitialCapacity(10);
+    }
+
+    /**
+     * Create a new LongHashSequencer with a specified initial size.
+     */
+    public static LongHashSequencer createWithInitialCapacity(int startingSize)
+    {
+        return new LongHashSequencer(startingSize);
+    }
+
+    /**
+     * Create a new LongHashSequencer with the elements of another sequencer.
+     */
+    public static LongHashSequencer copyOf(LongSequencer other)
+    {
+        final int size = other.size();
+        final LongHashSequencer result = new LongHashSequencer(size);
+        for (int i = 0; i < size; i++) {
+            result.sequenceOrAdd(other.unsequenceLong(i));
+        }
+        return result;
+    }
+
+    /**
+     * Create a new LongHashSequencer with the elements of an array.
+     */
+    public static LongHashSequencer copyOf(long... elements)
+    {
+        final LongHashSequencer result = new LongHashSequencer(elements.length);
+        result.sequenceOrAdd(elements);
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(long key)
+    {
+        assert keyToInt.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+
+        int result = keyToInt.get(key);
+        if (result == -1) {
+            result = intToKey.size();
+            keyToInt.put(key, result);
+            intToKey.add(key);
+        }
+        return result;
+    }
+
+    @Override
+    public int[] sequenceOrAdd(long[] keys)
+    {
+        final int[] result = new int[keys.length];
+        keyToInt.ensureCapacity(keys.length);
+        intToKey.ensureCapacity(intToKey.size() + keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = sequenceOrAdd(keys[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(Long key)
+    {
+        return sequenceOrAdd(key.longValue());
+    }
+
+    @Override
+    public boolean containsKey(long key)
+    {
+        return keyToInt.containsKey(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    @Override
+    public int sequence(long key) throws SequencerKeyException
+    {
+        final int result = sequenceIfExists(key);
+        if (result == -1) {
+            throw new SequencerKeyException("no key %s", key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceIfExists(long key)
+    {
+        assert keyToInt.getNoEntryValue() == -1 : "noEntryValue must be == -1";
+        return keyToInt.get(key);
+    }
+
+    @Override
+    public int sequenceIfExists(Long key)
+    {
+        return sequenceIfExists(key.longValue());
+    }
+
+    @Override
+    public int[] sequenceExisting(long[] keys)
+    {
+        final int[] result = new int[keys.length];
+        sequenceExisting(keys, result);
+        return result;
+    }
+
+    @Override
+    public void sequenceExisting(long[] keys, int[] result)
+    {
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = keyToInt.get(keys[i]);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<Long> keys, TObjectIntMap<Long> result)
+    {
+        for (Long key : keys) {
+            final int val = keyToInt.get(key.longValue());
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public long unsequenceLong(int index)
+    {
+        return intToKey.get(index);
+    }
+
+    @Override
+    public long[] unsequence(int[] indexes)
+    {
+        final long[] result = new long[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            result[i] = intToKey.get(indexes[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Long unsequence(int index)
+    {
+        return unsequenceLong(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return intToKey.size();
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy(intToKey.toArray());
+    }
+
+    private static class SerProxy implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final long[] intToKey;
+
+        SerProxy(long[] intToKey)
+        {
+            this.intToKey = intToKey;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return copyOf(intToKey);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * An ImmutableSequencer which reads its keys and hash index directly from a
+ * memory-mapped file.  Opening is O(1) regardless of the number of keys: nothing
+ * is deserialized, pages are faulted in on demand, and processes which map the
+ * same file share a single copy in the page cache.
+ * <p>
+ * The file is written by {@link #write(Sequencer, SequencerKeyCodec, File)} and consists of
+ * <ul>
+ * <li>a 32 byte header (magic, version, key count, hash table size, key data length),</li>
+ * <li>an open-addressing hash table of ids, {@code int[tableSize]}, -1 for empty slots,</li>
+ * <li>an offset table, {@code long[count + 1]}, locating each key within the key data,</li>
+ * <li>the encoded keys, concatenated in id order.</li>
+ * </ul>
+ * Keys are hashed by their encoded bytes, so files are portable between JVMs.
+ */
+@Immutable
+public class MappedImmutableSequencer<K> extends ImmutableSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    static final int MAGIC = 0x4e53514d; // "NSQM"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    /** Mappings are split in segments, since a single MappedByteBuffer is limited to 2GB. */
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    private final transient ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final transient SequencerKeyCodec<K> codec;
+
+    private final int size;
+    private final int tableSize;
+    private final long tableOffset;
+    private final long offsetsOffset;
+    private final long dataOffset;
+
+    MappedImmutableSequencer(ByteBuffer[] segments, int segmentShift, SequencerKeyCodec<K> codec) throws IOException
+    {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        this.codec = codec;
+
+        long length = 0;
+        for (ByteBuffer segment : segments) {
+            length += segment.capacity();
+        }
+        if (length < HEADER_SIZE) {
+            throw new IOException("sequencer file is truncated");
+        }
+        if (getInt(0) != MAGIC) {
+            throw new IOException("not a mapped sequencer file");
+        }
+        if (getInt(4) != VERSION) {
+            throw new IOException("unsupported mapped sequencer version " + getInt(4));
+        }
+        this.size = getInt(8);
+        this.tableSize = getInt(12);
+        final long dataLength = getLong(16);
+
+        // Lookups probe until they find an empty slot, so the table must have one.
+        if (size < 0 || dataLength < 0) {
+            throw new IOException("corrupt sequencer file: size " + size + ", data length " + dataLength);
+        }
+        if (Integer.bitCount(tableSize) != 1 || tableSize <= size) {
+            throw new IOException("corrupt sequencer file: table size " + tableSize + " for " + size + " keys");
+        }
+
+        this.tableOffset = HEADER_SIZE;
+        this.offsetsOffset = tableOffset + 4L * tableSize;
+        this.dataOffset = offsetsOffset + 8L * (size + 1);
+
+        if (length < dataOffset + dataLength) {
+            throw new IOException("sequencer file is truncated: expected " + (dataOffset + dataLength) + " bytes, found " + length);
+        }
+    }
+
+    /**
+     * Map a sequencer file written by {@link #write(Sequencer, SequencerKeyCodec, File)}.
+     * The file must not be modified while it is mapped.
+     */
+    @Nonnull
+    public static <K> MappedImmutableSequencer<K> open(@Nonnull File file, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            final long segmentSize = 1L << DEFAULT_SEGMENT_SHIFT;
+            final ByteBuffer[] segments = new ByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                final long position = i * segmentSize;
+                segments[i] = channel.map(MapMode.READ_ONLY, position, Math.min(segmentSize, length - position));
+            }
+            // The mappings stay valid after the channel is closed.
+            return new MappedImmutableSequencer<>(segments, DEFAULT_SEGMENT_SHIFT, codec);
+        }
+    }
+
+    /**
+     * Use an in-memory copy of a sequencer file, e.g. one read from a resource.
+     */
+    @Nonnull
+    public static <K> MappedImmutableSequencer<K> wrap(@Nonnull ByteBuffer buffer, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        return wrap(buffer, codec, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    static <K> MappedImmutableSequencer<K> wrap(ByteBuffer buffer, SequencerKeyCodec<K> codec, int segmentShift) throws IOException
+    {
+        final int segmentSize = 1 << segmentShift;
+        final int length = buffer.remaining();
+        final ByteBuffer[] segments = new ByteBuffer[Math.max(1, (length + segmentSize - 1) / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            final ByteBuffer segment = buffer.duplicate();
+            segment.position(buffer.position() + i * segmentSize);
+            segment.limit(buffer.position() + Math.min(length, (i + 1) * segmentSize));
+            segments[i] = segment.slice();
+        }
+        return new MappedImmutableSequencer<>(segments, segmentShift, codec);
+    }
+
+    /**
+     * Write the contents of {@code seq} to {@code file} in the mapped sequencer format.
+     */
+    public static <K> void write(@Nonnull Sequencer<K> seq, @Nonnull SequencerKeyCodec<K> codec, @Nonnull File file) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(seq, codec, out);
+        }
+    }
+
+    /**
+     * Write the contents of {@code seq} to {@code out} in the mapped sequencer format.
+     * The stream is flushed but not closed.
+     */
+    public static <K> void write(@Nonnull Sequencer<K> seq, @Nonnull SequencerKeyCodec<K> codec, @Nonnull OutputStream out) throws IOException
+    {
+        final int size = seq.size();
+        final int tableSize = tableSizeFor(size);
+        final int mask = tableSize - 1;
+
+        // First pass: hash every key and lay out the key data.
+        final long[] offsets = new long[size + 1];
+        final int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        for (int i = 0; i < size; i++) {
+            final byte[] bytes = codec.encode(seq.unsequence(i));
+            offsets[i + 1] = offsets[i] + bytes.length;
+
+            int slot = SequencerHashing.hash(bytes, 0, bytes.length) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(size);
+        data.writeInt(tableSize);
+        data.writeLong(offsets[size]);
+        data.writeLong(0);
+
+        for (int slot : table) {
+            data.writeInt(slot);
+        }
+        for (long offset : offsets) {
+            data.writeLong(offset);
+        }
+
+        // Second pass: the keys themselves.
+        for (int i = 0; i < size; i++) {
+            data.write(codec.encode(seq.unsequence(i)));
+        }
+        data.flush();
+    }
+
+    private static int tableSizeFor(int size)
+    {
+        return Math.max(2, Integer.highestOneBit(Math.max(size, 1) * 2 - 1) * 2);
+    }
+
+    @Override
+    protected int depth()
+    {
+        return 1;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        final Class<K> keyType = codec.getKeyType();
+        return keyType.isInstance(key) && sequenceIfExists(keyType.cast(key)) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        final byte[] bytes = codec.encode(key);
+        final int mask = tableSize - 1;
+
+        int slot = SequencerHashing.hash(bytes, 0, bytes.length) & mask;
+        while (true) {
+            final int id = getInt(tableOffset + 4L * slot);
+            if (id == -1) {
+                return -1;
+            }
+            if (keyEquals(id, bytes)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int val = sequenceIfExists(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range [0," + size + ")");
+        }
+        final long start = dataOffset + getLong(offsetsOffset + 8L * index);
+        final long end = dataOffset + getLong(offsetsOffset + 8L * (index + 1));
+        return codec.decode(slice(start, (int) (end - start)));
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private boolean keyEquals(int id, byte[] bytes)
+    {
+        final long start = dataOffset + getLong(offsetsOffset + 8L * id);
+        final long end = dataOffset + getLong(offsetsOffset + 8L * (id + 1));
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (getByte(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer slice(long position, int length)
+    {
+        final int segment = (int) (position >>> segmentShift);
+        final int offset = (int) (position & segmentMask);
+        if (offset + length <= segments[segment].capacity()) {
+            final ByteBuffer result = segments[segment].duplicate();
+            result.limit(offset + length);
+            result.position(offset);
+            return result;
+        }
+        // Rare: the key straddles two segments.
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = getByte(position + i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private byte getByte(long position)
+    {
+        return segments[(int) (position >>> segmentShift)].get((int) (position & segmentMask));
+    }
+
+    // Ints and longs are aligned to their width, so they never straddle a segment.
+
+    private int getInt(long position)
+    {
+        return segments[(int) (position >>> segmentShift)].getInt((int) (position & segmentMask));
+    }
+
+    private long getLong(long position)
+    {
+        return segments[(int) (position >>> segmentShift)].getLong((int) (position & segmentMask));
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        // The mapping can not travel; send a self-contained copy instead.
+        return new ImmutableSequencerImpl<>(this);
+    }
+}
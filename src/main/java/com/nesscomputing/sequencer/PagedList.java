@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An append-only list which keeps its elements in fixed-size pages.
+ * <p>
+ * Growing never copies elements, only the small directory of pages, and no single
+ * allocation exceeds {@value #PAGE_SIZE} references, so even lists of hundreds of
+ * millions of keys never become humongous objects for the garbage collector.
+ */
+@NotThreadSafe
+final class PagedList<E> extends AbstractList<E> implements RandomAccess, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private transient Object[][] pages;
+    private transient int size;
+
+    PagedList()
+    {
+        this(0);
+    }
+
+    /**
+     * @param capacity the expected number of elements; only the page directory is presized
+     */
+    PagedList(int capacity)
+    {
+        pages = new Object[pageCount(capacity)][];
+    }
+
+    private static int pageCount(int capacity)
+    {
+        return (capacity + PAGE_MASK) >>> PAGE_SHIFT;
+    }
+
+    @Override
+    public boolean add(E element)
+    {
+        final int pageIndex = size >>> PAGE_SHIFT;
+        if (pageIndex == pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(4, pages.length * 2));
+        }
+        Object[] page = pages[pageIndex];
+        if (page == null) {
+            page = pages[pageIndex] = new Object[PAGE_SIZE];
+        }
+        page[size & PAGE_MASK] = element;
+        size++;
+        return true;
+    }
+
+    /**
+     * Make room in the page directory for {@code capacity} elements in total.
+     */
+    void ensureCapacity(int capacity)
+    {
+        final int needed = pageCount(capacity);
+        if (needed > pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(needed, pages.length * 2));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range [0," + size + ")");
+        }
+        return (E) pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    /**
+     * Copy the elements in {@code [fromIndex, toIndex)} to {@code dest}, a page at a time.
+     * The range must already have been checked.
+     */
+    void copyTo(int fromIndex, int toIndex, Object[] dest, int offset)
+    {
+        int index = fromIndex;
+        while (index < toIndex) {
+            final int length = Math.min(toIndex - index, PAGE_SIZE - (index & PAGE_MASK));
+            System.arraycopy(pages[index >>> PAGE_SHIFT], index & PAGE_MASK, dest, offset + index - fromIndex, length);
+            index += length;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeObject(pages[i >>> PAGE_SHIFT][i & PAGE_MASK]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("negative size " + count);
+        }
+        pages = new Object[0][];
+        for (int i = 0; i < count; i++) {
+            add((E) in.readObject());
+        }
+    }
+}
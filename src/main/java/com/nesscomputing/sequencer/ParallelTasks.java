@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Minimal fork-join helpers for running a loop body over index ranges.
+ */
+final class ParallelTasks
+{
+    private ParallelTasks() { }
+
+    interface Body
+    {
+        void run(int index);
+    }
+
+    /**
+     * @return the pool used when callers do not supply one.  It is created on first use and
+     *         shared for the life of the JVM; its worker threads are daemons.
+     */
+    static ForkJoinPool sharedPool()
+    {
+        return SharedPool.INSTANCE;
+    }
+
+    private static final class SharedPool
+    {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
+    /**
+     * Run {@code body} for each index in {@code [0, count)} on {@code pool}, and wait for all of them.
+     */
+    static void forEach(ForkJoinPool pool, int count, Body body)
+    {
+        pool.invoke(new ForEach(body, 0, count));
+    }
+
+    /**
+     * @return the first element of chunk {@code chunk} when splitting {@code n} elements into {@code chunkCount} even chunks
+     */
+    static int chunkStart(int chunk, int chunkCount, int n)
+    {
+        return (int) ((long) n * chunk / chunkCount);
+    }
+
+    private static class ForEach extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Body body;
+        private final int from;
+        private final int to;
+
+        ForEach(Body body, int from, int to)
+        {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1) {
+                body.run(from);
+            } else if (to > from) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new ForEach(body, from, mid), new ForEach(body, mid, to));
+            }
+        }
+    }
+}
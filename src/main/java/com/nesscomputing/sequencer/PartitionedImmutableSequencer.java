@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.nesscomputing.sequencer.ParallelTasks.chunkStart;
+import static com.nesscomputing.sequencer.ParallelTasks.forEach;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.nesscomputing.sequencer.ParallelTasks.Body;
+
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * An immutable sequencer whose forward index is split into hash partitions, so that it
+ * can be built on a {@link ForkJoinPool}.  Building takes a few parallel passes:
+ * <ol>
+ * <li>each chunk of the input hashes its keys and counts them per partition,</li>
+ * <li>each chunk scatters the positions of its keys into per-partition runs, in input order,</li>
+ * <li>each partition indexes its keys, keeping only the first occurrence of duplicates,</li>
+ * <li>if there were duplicates, the surviving keys are renumbered densely.</li>
+ * </ol>
+ * Ids are thus assigned in order of first occurrence, exactly as sequencing the input
+ * one key at a time would, no matter how the work is scheduled.
+ */
+@Immutable
+class PartitionedImmutableSequencer<K> extends ImmutableSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /** Inputs are processed in chunks of at least this many keys. */
+    private static final int MIN_CHUNK = 1 << 14;
+    private static final int MAX_PARTITION_BITS = 8;
+
+    private final K[] reverse;
+    private final TObjectIntMap<K>[] partitions;
+    private final int shift;
+
+    private PartitionedImmutableSequencer(K[] reverse, TObjectIntMap<K>[] partitions, int shift)
+    {
+        this.reverse = reverse;
+        this.partitions = partitions;
+        this.shift = shift;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> PartitionedImmutableSequencer<K> build(List<K> input, ForkJoinPool pool)
+    {
+        return build((K[]) input.toArray(), pool);
+    }
+
+    /**
+     * Index {@code keys}, which is taken over and must not be modified afterwards.
+     */
+    @SuppressWarnings("unchecked")
+    static <K> PartitionedImmutableSequencer<K> build(final K[] keys, ForkJoinPool pool)
+    {
+        final int n = keys.length;
+        final int parallelism = pool.getParallelism();
+        final int chunkCount = Math.max(1, Math.min(parallelism * 4, n / MIN_CHUNK));
+        final int partitionBits = Math.max(1, Math.min(MAX_PARTITION_BITS, 32 - Integer.numberOfLeadingZeros(parallelism * 4 - 1)));
+        final int partitionCount = 1 << partitionBits;
+        final int shift = 32 - partitionBits;
+
+        // 1: hash and count.
+        final byte[] partitionOf = new byte[n];
+        final int[][] counts = new int[chunkCount][partitionCount];
+        forEach(pool, chunkCount, new Body() {
+            @Override
+            public void run(int chunk)
+            {
+                final int[] count = counts[chunk];
+                for (int i = chunkStart(chunk, chunkCount, n); i < chunkStart(chunk + 1, chunkCount, n); i++) {
+                    final int partition = SequencerHashing.mix(keys[i].hashCode()) >>> shift;
+                    partitionOf[i] = (byte) partition;
+                    count[partition]++;
+                }
+            }
+        });
+
+        // Turn the counts into write cursors: partition runs in order, chunks in order within each run.
+        final int[] partitionStart = new int[partitionCount + 1];
+        int position = 0;
+        for (int p = 0; p < partitionCount; p++) {
+            partitionStart[p] = position;
+            for (int c = 0; c < chunkCount; c++) {
+                final int count = counts[c][p];
+                counts[c][p] = position;
+                position += count;
+            }
+        }
+        partitionStart[partitionCount] = position;
+
+        // 2: scatter.
+        final int[] positions = new int[n];
+        forEach(pool, chunkCount, new Body() {
+            @Override
+            public void run(int chunk)
+            {
+                final int[] cursor = counts[chunk];
+                for (int i = chunkStart(chunk, chunkCount, n); i < chunkStart(chunk + 1, chunkCount, n); i++) {
+                    positions[cursor[partitionOf[i] & 0xff]++] = i;
+                }
+            }
+        });
+
+        // 3: index each partition, by input position for now.
+        @SuppressWarnings("rawtypes")
+        final TObjectIntMap<K>[] partitions = new TObjectIntMap[partitionCount];
+        final boolean[] duplicate = new boolean[n];
+        final int[] duplicates = new int[partitionCount];
+        forEach(pool, partitionCount, new Body() {
+            @Override
+            public void run(int partition)
+            {
+                final int from = partitionStart[partition];
+                final int to = partitionStart[partition + 1];
+                final TObjectIntMap<K> map = new TObjectIntHashMap<>(to - from, LOAD_FACTOR, -1);
+                for (int j = from; j < to; j++) {
+                    final int i = positions[j];
+                    if (map.putIfAbsent(keys[i], i) != -1) {
+                        duplicate[i] = true;
+                        duplicates[partition]++;
+                    }
+                }
+                partitions[partition] = map;
+            }
+        });
+
+        int duplicateCount = 0;
+        for (int count : duplicates) {
+            duplicateCount += count;
+        }
+        if (duplicateCount == 0) {
+            return new PartitionedImmutableSequencer<>(keys, partitions, shift);
+        }
+
+        // 4: renumber the surviving keys densely, in input order.
+        final int[] chunkIds = new int[chunkCount + 1];
+        forEach(pool, chunkCount, new Body() {
+            @Override
+            public void run(int chunk)
+            {
+                int survivors = 0;
+                for (int i = chunkStart(chunk, chunkCount, n); i < chunkStart(chunk + 1, chunkCount, n); i++) {
+                    if (!duplicate[i]) {
+                        survivors++;
+                    }
+                }
+                chunkIds[chunk + 1] = survivors;
+            }
+        });
+        for (int c = 0; c < chunkCount; c++) {
+            chunkIds[c + 1] += chunkIds[c];
+        }
+
+        final K[] reverse = (K[]) new Object[n - duplicateCount];
+        final int[] idOf = positions; // no longer needed for scattering
+        forEach(pool, chunkCount, new Body() {
+            @Override
+            public void run(int chunk)
+            {
+                int id = chunkIds[chunk];
+                for (int i = chunkStart(chunk, chunkCount, n); i < chunkStart(chunk + 1, chunkCount, n); i++) {
+                    if (!duplicate[i]) {
+                        reverse[id] = keys[i];
+                        idOf[i] = id++;
+                    }
+                }
+            }
+        });
+
+        forEach(pool, partitionCount, new Body() {
+            @Override
+            public void run(int partition)
+            {
+                for (TObjectIntIterator<K> it = partitions[partition].iterator(); it.hasNext(); ) {
+                    it.advance();
+                    it.setValue(idOf[it.value()]);
+                }
+            }
+        });
+
+        return new PartitionedImmutableSequencer<>(reverse, partitions, shift);
+    }
+
+    @Override
+    protected int depth()
+    {
+        return 1;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return partitions[SequencerHashing.mix(key.hashCode()) >>> shift].containsKey(key);
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        return partitions[SequencerHashing.mix(key.hashCode()) >>> shift].get(key);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int val = sequenceIfExists(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        return reverse[index];
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, reverse.length, result.length, offset);
+        System.arraycopy(reverse, fromIndex, result, offset, toIndex - fromIndex);
+    }
+
+    @Override
+    public int size()
+    {
+        return reverse.length;
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy<>(reverse);
+    }
+
+    private static class SerProxy<K> implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final K[] arr;
+
+        SerProxy(K[] arr)
+        {
+            this.arr = arr;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return ImmutableSequencer.parallelOf(Arrays.asList(arr));
+        }
+    }
+}
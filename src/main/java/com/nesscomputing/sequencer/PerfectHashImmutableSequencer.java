@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.collect.Iterables;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * An immutable sequencer indexed by a minimal perfect hash function instead of a hash table.
+ * <p>
+ * The hash function is built BBHash-style: each level is a bit array, and keys whose position
+ * in a level is not shared with any other key set their bit there; the remaining keys move on
+ * to the next, smaller level.  The rank of a key's bit across all levels is its slot, and
+ * {@code slots[slot]} is the candidate id, which is confirmed against {@code reverse[id]}.
+ * The function takes a little under 4 bits per key, so apart from the key array the index
+ * costs one int per key, compared to two keys, two ints and two state bytes per key for a
+ * hash table at load factor 0.5.
+ * <p>
+ * Keys with identical hash codes can never be told apart by the levels, so they are kept in
+ * a small ordinary hash table.
+ */
+@Immutable
+class PerfectHashImmutableSequencer<K> extends ImmutableSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Bits per remaining key in each level.  Larger values need fewer levels but more space. */
+    private static final double GAMMA = 2.0;
+    private static final int MAX_LEVELS = 32;
+    private static final int GOLDEN = 0x9e3779b9;
+
+    /** Rank samples are taken every {@code 1 << RANK_SHIFT} words. */
+    private static final int RANK_SHIFT = 3;
+
+    private final K[] reverse;
+    private final long[] bits;
+    private final long[] levelOffsets;
+    private final long[] levelSizes;
+    private final int[] ranks;
+    private final int[] slots;
+    private final TObjectIntMap<K> overflow;
+
+    private PerfectHashImmutableSequencer(K[] reverse)
+    {
+        this.reverse = reverse;
+
+        final long[][] levels = new long[MAX_LEVELS][];
+        final long[] sizes = new long[MAX_LEVELS];
+        int[] remaining = new int[reverse.length];
+        for (int i = 0; i < remaining.length; i++) {
+            remaining[i] = i;
+        }
+        int remainingCount = remaining.length;
+        int levelCount = 0;
+        long totalWords = 0;
+
+        while (remainingCount > 0 && levelCount < MAX_LEVELS) {
+            final long size = Math.max(64, ((long) Math.ceil(remainingCount * GAMMA) + 63) & ~63L);
+            final long[] seen = new long[(int) (size >>> 6)];
+            final long[] collided = new long[seen.length];
+            for (int i = 0; i < remainingCount; i++) {
+                final long pos = position(spread(reverse[remaining[i]]), levelCount, size);
+                final long bit = 1L << pos;
+                final int word = (int) (pos >>> 6);
+                if ((seen[word] & bit) != 0) {
+                    collided[word] |= bit;
+                } else {
+                    seen[word] |= bit;
+                }
+            }
+            for (int w = 0; w < seen.length; w++) {
+                seen[w] &= ~collided[w];
+            }
+
+            int next = 0;
+            for (int i = 0; i < remainingCount; i++) {
+                final long pos = position(spread(reverse[remaining[i]]), levelCount, size);
+                if ((seen[(int) (pos >>> 6)] & (1L << pos)) == 0) {
+                    remaining[next++] = remaining[i];
+                }
+            }
+            if (next == remainingCount) {
+                // Nothing was placed; the rest share their hash codes.
+                break;
+            }
+
+            levels[levelCount] = seen;
+            sizes[levelCount] = size;
+            totalWords += seen.length;
+            remainingCount = next;
+            levelCount++;
+        }
+
+        this.levelOffsets = new long[levelCount];
+        this.levelSizes = Arrays.copyOf(sizes, levelCount);
+        this.bits = new long[(int) totalWords];
+        long offset = 0;
+        for (int level = 0; level < levelCount; level++) {
+            levelOffsets[level] = offset;
+            System.arraycopy(levels[level], 0, bits, (int) (offset >>> 6), levels[level].length);
+            offset += levelSizes[level];
+        }
+
+        this.ranks = new int[(bits.length >>> RANK_SHIFT) + 1];
+        int rank = 0;
+        for (int w = 0; w < bits.length; w++) {
+            if ((w & ((1 << RANK_SHIFT) - 1)) == 0) {
+                ranks[w >>> RANK_SHIFT] = rank;
+            }
+            rank += Long.bitCount(bits[w]);
+        }
+
+        this.slots = new int[reverse.length - remainingCount];
+        this.overflow = remainingCount == 0 ? null : new TObjectIntHashMap<K>(remainingCount, 0.5f, -1);
+        for (int i = 0; i < remainingCount; i++) {
+            if (overflow.put(reverse[remaining[i]], remaining[i]) != -1) {
+                throw new IllegalArgumentException("duplicate key " + reverse[remaining[i]]);
+            }
+        }
+
+        // Duplicate keys always collide, so they end up in the overflow table above.
+        for (int id = 0; id < reverse.length; id++) {
+            final long bit = find(spread(reverse[id]));
+            if (bit == -1) {
+                continue;
+            }
+            slots[rank(bit)] = id;
+        }
+    }
+
+    /**
+     * Take ownership of {@code reverse}, which must not be modified afterwards.
+     * @throws IllegalArgumentException if {@code reverse} contains duplicates
+     */
+    static <K> PerfectHashImmutableSequencer<K> fromArray(K[] reverse)
+    {
+        return new PerfectHashImmutableSequencer<>(reverse);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> PerfectHashImmutableSequencer<K> create(Iterable<K> elements)
+    {
+        final K[] keys;
+        if (elements instanceof Collection) {
+            keys = (K[]) ((Collection<K>) elements).toArray();
+        } else {
+            keys = (K[]) Iterables.toArray(elements, Object.class);
+        }
+        return fromArray(keys);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> PerfectHashImmutableSequencer<K> create(Sequencer<K> seq)
+    {
+        final K[] keys = (K[]) new Object[seq.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = seq.unsequence(i);
+        }
+        return fromArray(keys);
+    }
+
+    private static int spread(Object key)
+    {
+        return SequencerHashing.mix(key.hashCode());
+    }
+
+    private static long position(int spread, int level, long size)
+    {
+        final int h = SequencerHashing.mix(spread + level * GOLDEN);
+        return ((h & 0xffffffffL) * size) >>> 32;
+    }
+
+    /**
+     * @return the global bit index of the level that claims this hash, or -1 if none does
+     */
+    private long find(int spread)
+    {
+        for (int level = 0; level < levelOffsets.length; level++) {
+            final long bit = levelOffsets[level] + position(spread, level, levelSizes[level]);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+                return bit;
+            }
+        }
+        return -1;
+    }
+
+    private int rank(long bit)
+    {
+        final int word = (int) (bit >>> 6);
+        int rank = ranks[word >>> RANK_SHIFT];
+        for (int w = word & ~((1 << RANK_SHIFT) - 1); w < word; w++) {
+            rank += Long.bitCount(bits[w]);
+        }
+        return rank + Long.bitCount(bits[word] & ((1L << bit) - 1));
+    }
+
+    @Override
+    protected int depth()
+    {
+        return 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return sequenceIfExists((K) key) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        final long bit = find(spread(key));
+        if (bit == -1) {
+            return overflow == null ? -1 : overflow.get(key);
+        }
+        final int id = slots[rank(bit)];
+        return key.equals(reverse[id]) ? id : -1;
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int val = sequenceIfExists(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public K unsequence(int index)
+    {
+        return reverse[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return reverse.length;
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy<>(reverse);
+    }
+
+    private static class SerProxy<K> implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final K[] arr;
+
+        SerProxy(K[] arr)
+        {
+            this.arr = arr;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return fromArray(arr);
+        }
+    }
+}
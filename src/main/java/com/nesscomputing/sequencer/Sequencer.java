@@ -26,6 +26,7 @@ import com.fasterxml.jackson.annotation.JsonValue;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.procedure.TObjectIntProcedure;
 
 /**
  * A Sequencer represents a bidirectional mapping from sparse {@code <K>} to dense integers.
@@ -42,6 +43,22 @@ public interface Sequencer<K> extends Serializable
      */
     int sequenceOrAdd(@Nonnull K key);
 
+    /**
+     * Sequence many keys, defining mappings for unknown ones.
+     *
+     * @param keys sparse keys
+     * @param result receives the dense key of {@code keys[i]} at index {@code i}; must be at least as long as {@code keys}
+     */
+    void sequenceOrAdd(@Nonnull K[] keys, @Nonnull int[] result);
+
+    /**
+     * Sequence many keys, defining mappings for unknown ones.
+     *
+     * @param keys sparse keys
+     * @param result receives the dense key of {@code keys.get(i)} at index {@code i}; must be at least as long as {@code keys}
+     */
+    void sequenceOrAdd(@Nonnull List<K> keys, @Nonnull int[] result);
+
     /**
      * Indicates if the given key can be sequenced.
      *
@@ -85,6 +102,24 @@ public interface Sequencer<K> extends Serializable
      */
     void sequenceExisting(@Nonnull Iterable<K> keys, @Nonnull TObjectIntMap<K> result);
 
+    /**
+     * Sequence many elements into a preallocated array, without building a map.
+     *
+     * @param keys the keys to sequence
+     * @param result receives the dense key of {@code keys[i]}, or -1 if it is missing, at index {@code i};
+     *     must be at least as long as {@code keys}
+     */
+    void sequenceExisting(@Nonnull K[] keys, @Nonnull int[] result);
+
+    /**
+     * Sequence many elements into a preallocated array, without building a map.
+     *
+     * @param keys the keys to sequence
+     * @param result receives the dense key of {@code keys.get(i)}, or -1 if it is missing, at index {@code i};
+     *     must be at least as long as {@code keys}
+     */
+    void sequenceExisting(@Nonnull List<K> keys, @Nonnull int[] result);
+
     /**
      * Convert the given dense key back to its sparse key representation.
      *
@@ -94,6 +129,23 @@ public interface Sequencer<K> extends Serializable
     @Nonnull
     K unsequence(int index);
 
+    /**
+     * Convert many dense keys back to their sparse keys.
+     *
+     * @param indexes dense keys
+     * @param result receives the sparse key of {@code indexes[i]} at index {@code i}; must be at least as long as {@code indexes}
+     * @throws IndexOutOfBoundsException if any dense key is not known
+     */
+    void unsequence(@Nonnull int[] indexes, @Nonnull K[] result);
+
+    /**
+     * Convert the dense keys {@code [fromIndex, toIndex)} back to their sparse keys.
+     *
+     * @param result receives the sparse key of {@code fromIndex + i} at index {@code offset + i}
+     * @throws IndexOutOfBoundsException if the range is not known
+     */
+    void unsequence(int fromIndex, int toIndex, @Nonnull K[] result, int offset);
+
     /**
      * @return The number of sequenced items.
      */
@@ -117,6 +169,27 @@ public interface Sequencer<K> extends Serializable
     @Nonnull
     Set<Entry<K, Integer>> entrySet();
 
+    /**
+     * Call {@code procedure} with every key and its id, in sequence order, until it returns false.
+     * Unlike iterating {@link #entrySet()}, this does not allocate per entry.
+     *
+     * @return false if the procedure stopped the iteration
+     */
+    boolean forEachEntry(@Nonnull TObjectIntProcedure<? super K> procedure);
+
+    /**
+     * @return a cursor over all entries, in sequence order
+     */
+    @Nonnull
+    SequencerCursor<K> cursor();
+
+    /**
+     * @return a cursor over the entries with ids in {@code [fromIndex, toIndex)}
+     * @throws IndexOutOfBoundsException if the range is not known
+     */
+    @Nonnull
+    SequencerCursor<K> cursor(int fromIndex, int toIndex);
+
     /**
      * Create an subsequence view containing {@code numElements} elements
      * starting from {@code 0}.  Because sequencer elements may not be changed after
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Reads sequencers written by {@link SequencerBinaryWriter}.
+ * <p>
+ * {@link #read()} rebuilds the written layers as exactly presized immutable sequencers,
+ * so loading never rehashes.  Alternatively, keys may be consumed one at a time with
+ * {@link #nextLayer()} and {@link #readKey()}.
+ */
+@NotThreadSafe
+public class SequencerBinaryReader<K> implements Closeable
+{
+    private final DataInputStream in;
+    private final SequencerKeyCodec<K> codec;
+
+    private byte[] scratch = new byte[64];
+    private int remainingInLayer = 0;
+    private boolean finished = false;
+
+    public SequencerBinaryReader(@Nonnull InputStream in, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        this.codec = codec;
+
+        if (this.in.readInt() != SequencerBinaryWriter.MAGIC) {
+            throw new IOException("not a binary sequencer stream");
+        }
+        final byte version = this.in.readByte();
+        if (version != SequencerBinaryWriter.VERSION) {
+            throw new IOException("unsupported binary sequencer version " + version);
+        }
+    }
+
+    public SequencerBinaryReader(@Nonnull ReadableByteChannel channel, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        this(Channels.newInputStream(channel), codec);
+    }
+
+    /**
+     * Read all remaining layers.
+     *
+     * @return an immutable sequencer with one layer per layer in the stream
+     */
+    @Nonnull
+    public ImmutableSequencer<K> read() throws IOException
+    {
+        ImmutableSequencer<K> result = Sequencers.emptySequencer();
+        ImmutableSequencer<K> layer;
+        while ((layer = readLayer()) != null) {
+            result = result.isEmpty() ? layer : new ImmutableShadowingSequencer<>(result, layer);
+        }
+        return result;
+    }
+
+    /**
+     * Read the next layer in full.
+     *
+     * @return the layer, or null at the end of the stream
+     */
+    @CheckForNull
+    public ImmutableSequencer<K> readLayer() throws IOException
+    {
+        final int size = nextLayer();
+        if (size == -1) {
+            return null;
+        }
+        final PagedList<K> keys = new PagedList<>(Math.min(size, Sequencers.MAX_PRESIZE));
+        for (int i = 0; i < size; i++) {
+            keys.add(readKey());
+        }
+        try {
+            return ImmutableSequencerImpl.fromList(keys);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt binary sequencer stream", e);
+        }
+    }
+
+    /**
+     * Advance to the next layer.  Any unread keys of the current layer are skipped.
+     *
+     * @return the number of keys in the layer, or -1 at the end of the stream
+     */
+    public int nextLayer() throws IOException
+    {
+        while (remainingInLayer > 0) {
+            final int length = readKeyLength(in);
+            in.readFully(scratch(length), 0, length);
+            remainingInLayer--;
+        }
+        if (finished) {
+            return -1;
+        }
+        final int size = readVarint();
+        if (size == 0) {
+            finished = true;
+            return -1;
+        }
+        remainingInLayer = size;
+        return size;
+    }
+
+    /**
+     * Read the next key of the current layer.
+     */
+    @Nonnull
+    public K readKey() throws IOException
+    {
+        checkState(remainingInLayer > 0, "no keys left in the current layer");
+        final int length = readKeyLength(in);
+        final byte[] bytes = scratch(length);
+        in.readFully(bytes, 0, length);
+        remainingInLayer--;
+        return codec.decode(ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    private byte[] scratch(int length)
+    {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    /**
+     * Read the length of a key, rejecting lengths no writer would produce before anything is allocated for it.
+     */
+    static int readKeyLength(DataInput in) throws IOException
+    {
+        final int length = readVarint(in);
+        if (length > SequencerBinaryWriter.MAX_KEY_LENGTH) {
+            throw new IOException("key length " + length + " exceeds " + SequencerBinaryWriter.MAX_KEY_LENGTH);
+        }
+        return length;
+    }
+
+    private int readVarint() throws IOException
+    {
+        return readVarint(in);
+    }
+
+    /**
+     * Read a varint written by {@link SequencerBinaryWriter#writeVarint(java.io.DataOutput, int)}.
+     * Only non-negative values are ever written, so anything else is corrupt.
+     */
+    static int readVarint(DataInput in) throws IOException
+    {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new IOException("malformed varint");
+            }
+            b = in.readByte();
+            if (shift == 28 && (b & 0xf8) != 0) {
+                throw new IOException("varint out of range");
+            }
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+}
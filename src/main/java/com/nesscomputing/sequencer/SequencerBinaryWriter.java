@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Writes sequencers in a compact, versioned binary format.
+ * <p>
+ * The stream starts with a magic number and a version byte, followed by any
+ * number of layers.  Each layer is a varint key count followed by that many keys,
+ * each a varint length followed by the bytes from the {@link SequencerKeyCodec}.
+ * Encoded keys may be at most {@value #MAX_KEY_LENGTH} bytes long.
+ * A zero count terminates the stream.  Layered (shadowing) immutable sequencers
+ * are written one layer at a time, so they are never flattened in memory, and
+ * {@link SequencerBinaryReader} restores the same layering.
+ * <p>
+ * Sequencers may be written in one go with {@link #write(Sequencer)}, or key by key
+ * with {@link #beginLayer(int)} and {@link #writeKey(Object)}.
+ */
+@NotThreadSafe
+public class SequencerBinaryWriter<K> implements Flushable, Closeable
+{
+    static final int MAGIC = 0x4e53514c; // "NSQL"
+    static final byte VERSION = 1;
+    public static final int MAX_KEY_LENGTH = 1 << 24;
+
+    private final DataOutputStream out;
+    private final SequencerKeyCodec<K> codec;
+
+    private int remainingInLayer = 0;
+    private boolean finished = false;
+
+    public SequencerBinaryWriter(@Nonnull OutputStream out, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.codec = codec;
+
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    public SequencerBinaryWriter(@Nonnull WritableByteChannel channel, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        this(Channels.newOutputStream(channel), codec);
+    }
+
+    /**
+     * Write all keys of {@code seq}.  Immutable sequencers are written layer by layer;
+     * other sequencers are written as a single layer.
+     */
+    public SequencerBinaryWriter<K> write(@Nonnull Sequencer<K> seq) throws IOException
+    {
+        final List<ImmutableSequencer<K>> layers = Lists.newArrayList();
+        int from = 0;
+        if (seq instanceof ImmutableSequencer) {
+            ImmutableShadowingSequencer.collectLayers((ImmutableSequencer<K>) seq, layers);
+        } else if (seq instanceof ImmutableShadowingSequencerBuilder) {
+            ImmutableShadowingSequencer.collectLayers(((ImmutableShadowingSequencerBuilder<K>) seq).getBase(), layers);
+        }
+
+        for (ImmutableSequencer<K> layer : layers) {
+            writeLayer(layer, 0, layer.size());
+            from += layer.size();
+        }
+        writeLayer(seq, from, seq.size());
+        return this;
+    }
+
+    private void writeLayer(Sequencer<K> seq, int from, int to) throws IOException
+    {
+        if (from == to) {
+            return;
+        }
+        beginLayer(to - from);
+        for (int i = from; i < to; i++) {
+            writeKey(seq.unsequence(i));
+        }
+    }
+
+    /**
+     * Start a new layer of {@code size} keys, which must be written with {@link #writeKey(Object)}.
+     * Keys must be distinct from each other and from the keys of all previous layers.
+     */
+    public void beginLayer(int size) throws IOException
+    {
+        checkState(!finished, "writer is finished");
+        checkState(remainingInLayer == 0, "%s keys missing from the previous layer", remainingInLayer);
+        checkArgument(size > 0, "layers must not be empty");
+        writeVarint(size);
+        remainingInLayer = size;
+    }
+
+    public void writeKey(@Nonnull K key) throws IOException
+    {
+        checkState(remainingInLayer > 0, "no room left in the current layer");
+        final byte[] bytes = codec.encode(key);
+        checkArgument(bytes.length <= MAX_KEY_LENGTH, "key %s encodes to %s bytes, more than %s", key, bytes.length, MAX_KEY_LENGTH);
+        writeVarint(bytes.length);
+        out.write(bytes);
+        remainingInLayer--;
+    }
+
+    /**
+     * Terminate the stream and flush it.  The underlying stream is not closed.
+     */
+    public void finish() throws IOException
+    {
+        if (!finished) {
+            checkState(remainingInLayer == 0, "%s keys missing from the last layer", remainingInLayer);
+            writeVarint(0);
+            finished = true;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    /**
+     * Terminate the stream and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeVarint(int value) throws IOException
+    {
+        writeVarint(out, value);
+    }
+
+    static void writeVarint(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Checkpoints a live sequencer to a directory while writers keep adding keys.
+ * <p>
+ * Since ids are only ever appended, the first {@code n} keys are a consistent snapshot no
+ * matter what is added meanwhile.  The first checkpoint writes all current keys as a snapshot
+ * in the {@link SequencerBinaryWriter binary format}; later checkpoints only write the keys
+ * added since the previous one, as {@link SequencerDeltas deltas}.  Once
+ * {@code maxDeltas} deltas have piled up, the next checkpoint writes a new snapshot instead
+ * and removes the files it supersedes.  Files are written under a temporary name, forced to
+ * disk and renamed into place, so a crash never leaves a partial checkpoint behind.
+ * <p>
+ * Keys are read in small blocks.  Sequencers which do not allow reads concurrent with
+ * writes, like {@link HashSequencer}, must be given the lock their writers hold; it is
+ * only held for one block at a time.
+ * <p>
+ * {@link #load(File, SequencerKeyCodec)} restores the newest snapshot and its deltas.
+ */
+@ThreadSafe
+public class SequencerCheckpointer<K> implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+
+    public static final int DEFAULT_MAX_DELTAS = 8;
+
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.seq");
+    private static final Pattern DELTA = Pattern.compile("delta-(\\d+)-(\\d+)\\.seq");
+
+    private final File directory;
+    private final Sequencer<K> view;
+    private final SequencerKeyCodec<K> codec;
+    private final int maxDeltas;
+
+    /** Fingerprint of the keys read so far, extended as checkpoints read more. */
+    private final SequencerFingerprint fingerprint = new SequencerFingerprint(null);
+
+    @GuardedBy("this")
+    private int checkpointedSize = -1;
+    @GuardedBy("this")
+    private int deltas = 0;
+    @GuardedBy("this")
+    private ScheduledExecutorService executor;
+
+    private SequencerCheckpointer(File directory, Sequencer<K> seq, Object lock, SequencerKeyCodec<K> codec, int maxDeltas)
+    {
+        this.directory = directory;
+        this.view = lock == null ? seq : new LockedView<>(seq, lock);
+        this.codec = codec;
+        this.maxDeltas = maxDeltas;
+    }
+
+    /**
+     * Checkpoint {@code seq}, which must allow reads concurrent with writes, into {@code directory}.
+     */
+    @Nonnull
+    public static <K> SequencerCheckpointer<K> create(@Nonnull File directory, @Nonnull Sequencer<K> seq, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        return create(directory, seq, null, codec, DEFAULT_MAX_DELTAS);
+    }
+
+    /**
+     * Checkpoint {@code seq} into {@code directory}.
+     *
+     * @param lock the monitor writers of {@code seq} hold, or null if reads may run concurrently with writes
+     * @param maxDeltas the number of deltas after which a new snapshot is written
+     */
+    @Nonnull
+    public static <K> SequencerCheckpointer<K> create(@Nonnull File directory, @Nonnull Sequencer<K> seq, @CheckForNull Object lock, @Nonnull SequencerKeyCodec<K> codec, int maxDeltas) throws IOException
+    {
+        checkArgument(maxDeltas >= 0, "negative max deltas %s", maxDeltas);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        return new SequencerCheckpointer<>(directory, seq, lock, codec, maxDeltas);
+    }
+
+    /**
+     * Checkpoint every {@code period} on a background thread, until {@link #close()}.
+     */
+    public synchronized void start(long period, @Nonnull TimeUnit unit)
+    {
+        checkArgument(period > 0, "non-positive period %s", period);
+        checkState(executor == null, "already started");
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sequencer-checkpoint-%d").build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    LOG.error(e, "Could not checkpoint sequencer to %s", directory);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Write all keys added since the last checkpoint.
+     *
+     * @return the number of keys checkpointed in total
+     */
+    public synchronized int checkpoint() throws IOException
+    {
+        final int size = view.size();
+        if (size == checkpointedSize) {
+            return size;
+        }
+        fingerprint.catchUp(view);
+
+        if (checkpointedSize == -1 || deltas >= maxDeltas) {
+            writeSnapshot(size);
+            removeBefore(size);
+            deltas = 0;
+        } else {
+            writeDelta(checkpointedSize, size);
+            deltas++;
+        }
+        checkpointedSize = size;
+        return size;
+    }
+
+    private void writeSnapshot(int size) throws IOException
+    {
+        final File file = new File(directory, String.format("snapshot-%010d.seq", size));
+        final File temp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            final SequencerBinaryWriter<K> writer = new SequencerBinaryWriter<>(out, codec);
+            if (size > 0) {
+                writer.beginLayer(size);
+                final SequencerCursor<K> cursor = view.cursor(0, size);
+                while (cursor.next()) {
+                    writer.writeKey(cursor.key());
+                }
+            }
+            writer.finish();
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void writeDelta(int fromSize, int toSize) throws IOException
+    {
+        final File file = new File(directory, String.format("delta-%010d-%010d.seq", fromSize, toSize));
+        final File temp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            SequencerDeltas.export(view, fromSize, toSize, fingerprint.prefix(view, fromSize), fingerprint.prefix(view, toSize), out, codec);
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Remove the files superseded by the snapshot of the first {@code size} keys.
+     */
+    private void removeBefore(int size)
+    {
+        for (File file : listFiles(directory)) {
+            final Matcher snapshot = SNAPSHOT.matcher(file.getName());
+            final Matcher delta = DELTA.matcher(file.getName());
+            final boolean superseded = (snapshot.matches() && Integer.parseInt(snapshot.group(1)) < size)
+                    || (delta.matches() && Integer.parseInt(delta.group(2)) <= size);
+            if (superseded && !file.delete()) {
+                LOG.warn("Could not remove superseded checkpoint %s", file);
+            }
+        }
+    }
+
+    /**
+     * Stop checkpointing in the background and write a final checkpoint.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final ScheduledExecutorService toStop;
+        synchronized (this) {
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop != null) {
+            toStop.shutdown();
+            try {
+                toStop.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+    }
+
+    /**
+     * Restore the keys checkpointed to {@code directory}: the newest snapshot, extended
+     * by the deltas that follow it.
+     *
+     * @return a new sequencer, empty if there is no checkpoint
+     * @throws SequencerDeltaException if a delta does not match the keys before it
+     * @throws IOException if the snapshot can not be read or holds a key twice
+     */
+    @Nonnull
+    public static <K> HashSequencer<K> load(@Nonnull File directory, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        File newestSnapshot = null;
+        int snapshotSize = -1;
+        final List<int[]> deltas = Lists.newArrayList();
+        for (File file : listFiles(directory)) {
+            final Matcher snapshot = SNAPSHOT.matcher(file.getName());
+            final Matcher delta = DELTA.matcher(file.getName());
+            if (snapshot.matches() && Integer.parseInt(snapshot.group(1)) > snapshotSize) {
+                newestSnapshot = file;
+                snapshotSize = Integer.parseInt(snapshot.group(1));
+            } else if (delta.matches()) {
+                deltas.add(new int[] {Integer.parseInt(delta.group(1)), Integer.parseInt(delta.group(2))});
+            }
+        }
+
+        if (newestSnapshot == null) {
+            return HashSequencer.create();
+        }
+        final HashSequencer<K> result = HashSequencer.createWithInitialCapacity(snapshotSize);
+        try (SequencerBinaryReader<K> reader = new SequencerBinaryReader<>(new FileInputStream(newestSnapshot), codec)) {
+            int count;
+            while ((count = reader.nextLayer()) != -1) {
+                for (int i = 0; i < count; i++) {
+                    final K key = reader.readKey();
+                    final int expected = result.size();
+                    if (result.sequenceOrAdd(key) != expected) {
+                        throw new IOException("duplicate key " + key + " in " + newestSnapshot);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(deltas, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b)
+            {
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        for (int[] delta : deltas) {
+            if (delta[1] <= result.size()) {
+                continue;
+            }
+            if (delta[0] > result.size()) {
+                LOG.warn("Checkpoint in %s is missing keys %s to %s, ignoring later deltas", directory, result.size(), delta[0]);
+                break;
+            }
+            final File file = new File(directory, String.format("delta-%010d-%010d.seq", delta[0], delta[1]));
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                SequencerDeltas.apply(in, result, codec);
+            }
+        }
+        return result;
+    }
+
+    private static File[] listFiles(File directory)
+    {
+        final File[] files = directory.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Reads a sequencer under the lock its writers hold.
+     */
+    private static class LockedView<K> extends DelegatingSequencer<K>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Object lock;
+
+        LockedView(Sequencer<K> delegate, Object lock)
+        {
+            super(delegate);
+            this.lock = lock;
+        }
+
+        @Override
+        public int size()
+        {
+            synchronized (lock) {
+                return super.size();
+            }
+        }
+
+        @Override
+        public K unsequence(int index)
+        {
+            synchronized (lock) {
+                return super.unsequence(index);
+            }
+        }
+
+        @Override
+        public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+        {
+            synchronized (lock) {
+                super.unsequence(fromIndex, toIndex, result, offset);
+            }
+        }
+
+        @Override
+        public SequencerCursor<K> cursor()
+        {
+            return cursor(0, size());
+        }
+
+        @Override
+        public SequencerCursor<K> cursor(int fromIndex, int toIndex)
+        {
+            return new SequencerCursor<>(this, fromIndex, toIndex);
+        }
+    }
+}
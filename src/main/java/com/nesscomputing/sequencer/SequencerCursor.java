@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Reusable cursor over a range of the entries of a {@link Sequencer}, in id order.
+ * Unlike {@link Sequencer#entrySet()} it does not allocate per entry: the id is a
+ * primitive, and keys are fetched in blocks with
+ * {@link Sequencer#unsequence(int, int, Object[], int)}.
+ * <pre>
+ * final SequencerCursor&lt;K&gt; cursor = seq.cursor();
+ * while (cursor.next()) {
+ *     process(cursor.key(), cursor.id());
+ * }
+ * </pre>
+ * Disjoint ranges may be scanned by separate cursors in parallel.
+ */
+@NotThreadSafe
+public final class SequencerCursor<K>
+{
+    private static final int BLOCK_SIZE = 64;
+
+    private final Sequencer<K> sequencer;
+    private final int fromIndex;
+    private final int toIndex;
+    private final K[] block;
+
+    private int blockStart;
+    private int blockEnd;
+    private int id;
+
+    @SuppressWarnings("unchecked")
+    SequencerCursor(@Nonnull Sequencer<K> sequencer, int fromIndex, int toIndex)
+    {
+        AbstractSequencer.checkRange(fromIndex, toIndex, sequencer.size());
+        this.sequencer = sequencer;
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+        this.block = (K[]) new Object[Math.min(BLOCK_SIZE, toIndex - fromIndex)];
+        reset();
+    }
+
+    /**
+     * Move to the next entry.
+     *
+     * @return false if the cursor is past the last entry
+     */
+    public boolean next()
+    {
+        if (id + 1 >= toIndex) {
+            id = toIndex;
+            return false;
+        }
+        id++;
+        if (id >= blockEnd) {
+            blockStart = id;
+            blockEnd = Math.min(toIndex, id + block.length);
+            sequencer.unsequence(blockStart, blockEnd, block, 0);
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of the current entry
+     */
+    public int id()
+    {
+        checkState(id >= fromIndex && id < toIndex, "cursor is not on an entry");
+        return id;
+    }
+
+    /**
+     * @return the key of the current entry
+     */
+    @Nonnull
+    public K key()
+    {
+        checkState(id >= fromIndex && id < toIndex, "cursor is not on an entry");
+        return block[id - blockStart];
+    }
+
+    /**
+     * Move back before the first entry, so the range may be scanned again.
+     */
+    public SequencerCursor<K> reset()
+    {
+        id = fromIndex - 1;
+        blockStart = fromIndex;
+        blockEnd = fromIndex;
+        return this;
+    }
+}
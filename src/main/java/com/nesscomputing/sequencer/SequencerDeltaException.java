@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a delta does not apply to a sequencer, because the sequencer does not hold
+ * the keys the delta was exported on top of.  The replica needs a full copy instead.
+ */
+public class SequencerDeltaException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    public SequencerDeltaException(String message, Object... args)
+    {
+        super(String.format(message, args));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Replicates append-only sequencers by shipping only the keys added since a replica's last sync.
+ * <p>
+ * A delta holds the keys with ids {@code [fromSize, toSize)} of a sequencer, along with the
+ * {@link Sequencers#prefixFingerprint(Sequencer, int) fingerprints} of the first {@code fromSize}
+ * and {@code toSize} keys.  Applying it checks that the replica holds the same first
+ * {@code fromSize} keys before changing anything, and that it ends up with the same
+ * {@code toSize} keys.  Replicas which are already further along are accepted, as long as
+ * they agree, so applying a delta twice is harmless.
+ * <p>
+ * The format is a magic number and version byte, followed by {@code fromSize} as a varint,
+ * its fingerprint as a long, the key count as a varint, each key as a varint length and
+ * the bytes from the {@link SequencerKeyCodec}, and the final fingerprint as a long.  As in
+ * the {@link SequencerBinaryWriter binary format}, encoded keys may be at most
+ * {@value com.nesscomputing.sequencer.SequencerBinaryWriter#MAX_KEY_LENGTH} bytes long.
+ * Deltas may be written back to back on one stream, as reading consumes exactly one.
+ */
+public final class SequencerDeltas
+{
+    static final int MAGIC = 0x4e535144; // "NSQD"
+    static final byte VERSION = 1;
+
+    private SequencerDeltas() { }
+
+    /**
+     * Write the keys of {@code seq} from id {@code fromSize} on.  The stream is flushed but not closed.
+     *
+     * @return the size of {@code seq} the delta extends a replica to
+     * @throws IndexOutOfBoundsException if {@code fromSize} exceeds the size of {@code seq}
+     */
+    public static <K> int export(@Nonnull Sequencer<K> seq, int fromSize, @Nonnull OutputStream out, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        final int toSize = seq.size();
+        AbstractSequencer.checkRange(fromSize, toSize, toSize);
+        export(seq, fromSize, toSize, Sequencers.prefixFingerprint(seq, fromSize), Sequencers.prefixFingerprint(seq, toSize), out, codec);
+        return toSize;
+    }
+
+    /**
+     * Write the keys with ids {@code [fromSize, toSize)} of {@code seq}, given the fingerprints of both prefixes.
+     */
+    static <K> void export(Sequencer<K> seq, int fromSize, int toSize, long fromFingerprint, long toFingerprint, OutputStream out, SequencerKeyCodec<K> codec) throws IOException
+    {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        SequencerBinaryWriter.writeVarint(data, fromSize);
+        data.writeLong(fromFingerprint);
+        SequencerBinaryWriter.writeVarint(data, toSize - fromSize);
+
+        final SequencerCursor<K> cursor = seq.cursor(fromSize, toSize);
+        while (cursor.next()) {
+            final byte[] bytes = codec.encode(cursor.key());
+            checkArgument(bytes.length <= SequencerBinaryWriter.MAX_KEY_LENGTH, "key %s encodes to %s bytes, more than %s", cursor.key(), bytes.length, SequencerBinaryWriter.MAX_KEY_LENGTH);
+            SequencerBinaryWriter.writeVarint(data, bytes.length);
+            data.write(bytes);
+        }
+        data.writeLong(toFingerprint);
+        data.flush();
+    }
+
+    /**
+     * Read one delta and add its keys to {@code target} in place.  {@code target} may be any
+     * sequencer which accepts {@code sequenceOrAdd}, such as a {@link HashSequencer} or an
+     * {@link ImmutableShadowingSequencerBuilder}.
+     * <p>
+     * The stream is read byte by byte, so it should be buffered.
+     *
+     * @return the number of keys added to {@code target}
+     * @throws SequencerDeltaException if {@code target} does not agree with the sequencer the
+     *         delta was exported from.  If the first {@code fromSize} keys disagree, {@code target}
+     *         is left unchanged; otherwise it may hold some of the delta's keys.
+     */
+    public static <K> int apply(@Nonnull InputStream in, @Nonnull Sequencer<K> target, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a sequencer delta");
+        }
+        final byte version = data.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported sequencer delta version " + version);
+        }
+
+        final int fromSize = SequencerBinaryReader.readVarint(data);
+        final long fromFingerprint = data.readLong();
+        final int count = SequencerBinaryReader.readVarint(data);
+        if (count > Integer.MAX_VALUE - fromSize) {
+            throw new IOException("corrupt sequencer delta: " + count + " keys after " + fromSize);
+        }
+        final int toSize = fromSize + count;
+
+        final int startSize = target.size();
+        if (startSize < fromSize) {
+            throw new SequencerDeltaException("delta starts at %s keys, but the sequencer only has %s", fromSize, startSize);
+        }
+        if (Sequencers.prefixFingerprint(target, fromSize) != fromFingerprint) {
+            throw new SequencerDeltaException("the first %s keys of the sequencer differ from the ones the delta extends", fromSize);
+        }
+
+        byte[] scratch = new byte[64];
+        for (int id = fromSize; id < toSize; id++) {
+            final int length = SequencerBinaryReader.readKeyLength(data);
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            data.readFully(scratch, 0, length);
+            final K key = codec.decode(ByteBuffer.wrap(scratch, 0, length));
+            final int actual = target.sequenceOrAdd(key);
+            if (actual != id) {
+                throw new SequencerDeltaException("key %s has id %s in the sequencer, but %s in the delta", key, actual, id);
+            }
+        }
+
+        final long toFingerprint = data.readLong();
+        if (Sequencers.prefixFingerprint(target, toSize) != toFingerprint) {
+            throw new SequencerDeltaException("the sequencer does not match the delta after applying it");
+        }
+        return Math.max(0, target.size() - startSize);
+    }
+
+    /**
+     * Read one delta and stack its keys onto {@code base}, as with {@link #apply(InputStream, Sequencer, SequencerKeyCodec)}.
+     *
+     * @return {@code base} extended with the keys of the delta; {@code base} itself if it has all of them
+     */
+    @Nonnull
+    public static <K> ImmutableSequencer<K> extend(@Nonnull InputStream in, @Nonnull ImmutableSequencer<K> base, @Nonnull SequencerKeyCodec<K> codec) throws IOException
+    {
+        final ImmutableShadowingSequencerBuilder<K> builder = base.extendImmutableSequence();
+        apply(in, builder, codec);
+        return builder.build();
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Rolling fingerprint of the prefixes of a sequencer.
+ * <p>
+ * The fingerprint of the first {@code n} entries is the sum of a 64 bit mix of each key's
+ * hash code and id, so it is extended in constant time per added key, and prefixes may be
+ * subtracted from each other.  Because sequencers only ever append, a fingerprint computed
+ * once stays valid: {@link #catchUp(Sequencer)} only visits keys added since the last call.
+ * The {@link java.util.Set#hashCode() hash code} of the entry set is kept alongside.
+ * <p>
+ * Prefix sums are checkpointed every {@value #CHECKPOINT_INTERVAL} ids, so the fingerprint of
+ * any prefix costs at most that many key visits.  A layer of a shadowing sequencer only keeps
+ * the checkpoints of its own ids, and refers to the fingerprint of the layers below for the
+ * rest.
+ */
+@ThreadSafe
+final class SequencerFingerprint
+{
+    static final int CHECKPOINT_INTERVAL = 64;
+
+    private final SequencerFingerprint parent;
+    private final int start;
+    private final long startFingerprint;
+
+    private int size;
+    private long fingerprint;
+    private int hashCode;
+
+    /** Checkpoint {@code i} covers the prefix of length {@code (firstCheckpoint + i) * CHECKPOINT_INTERVAL}. */
+    private final int firstCheckpoint;
+    private long[] checkpoints = new long[0];
+    private int checkpointCount;
+
+    /**
+     * @param parent fingerprint of the first {@code parent.size()} ids, which must not grow any more;
+     *        null to start from the empty prefix
+     */
+    SequencerFingerprint(@CheckForNull SequencerFingerprint parent)
+    {
+        this.parent = parent;
+        if (parent != null) {
+            synchronized (parent) {
+                start = parent.size;
+                startFingerprint = parent.fingerprint;
+                hashCode = parent.hashCode;
+            }
+        } else {
+            start = 0;
+            startFingerprint = 0;
+        }
+        fingerprint = startFingerprint;
+        size = start;
+        firstCheckpoint = start / CHECKPOINT_INTERVAL + 1;
+    }
+
+    static long term(Object key, int id)
+    {
+        return SequencerHashing.mix64(((long) key.hashCode() << 32) | (id & 0xffffffffL));
+    }
+
+    /**
+     * Extend the fingerprint to all ids of {@code seq}, which must have the ids fingerprinted so far.
+     *
+     * @return this
+     */
+    synchronized SequencerFingerprint catchUp(Sequencer<?> seq)
+    {
+        final int target = seq.size();
+        if (target <= size) {
+            return this;
+        }
+        final SequencerCursor<?> cursor = seq.cursor(size, target);
+        while (cursor.next()) {
+            final Object key = cursor.key();
+            final int id = cursor.id();
+            fingerprint += term(key, id);
+            hashCode += key.hashCode() ^ id;
+            if ((id + 1) % CHECKPOINT_INTERVAL == 0) {
+                if (checkpointCount == checkpoints.length) {
+                    checkpoints = Arrays.copyOf(checkpoints, Math.max(4, checkpointCount * 2));
+                }
+                checkpoints[checkpointCount++] = fingerprint;
+            }
+        }
+        size = target;
+        return this;
+    }
+
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the fingerprint of all ids fingerprinted so far
+     */
+    synchronized long fingerprint()
+    {
+        return fingerprint;
+    }
+
+    /**
+     * @return the hash code of the entry set of all ids fingerprinted so far
+     */
+    synchronized int entryHashCode()
+    {
+        return hashCode;
+    }
+
+    /**
+     * @param seq a sequencer with at least the ids fingerprinted so far, used to visit keys
+     *        between checkpoints
+     * @return the fingerprint of the first {@code length} ids
+     */
+    long prefix(Sequencer<?> seq, int length)
+    {
+        if (length <= start && parent != null) {
+            return parent.prefix(seq, length);
+        }
+
+        final int from;
+        long result;
+        synchronized (this) {
+            if (length > size) {
+                throw new IndexOutOfBoundsException("prefix of length " + length + " exceeds fingerprinted size " + size);
+            }
+            if (length == size) {
+                return fingerprint;
+            }
+            final int checkpoint = length / CHECKPOINT_INTERVAL - firstCheckpoint;
+            if (checkpoint >= 0) {
+                from = (firstCheckpoint + checkpoint) * CHECKPOINT_INTERVAL;
+                result = checkpoints[checkpoint];
+            } else {
+                from = start;
+                result = startFingerprint;
+            }
+        }
+
+        final SequencerCursor<?> cursor = seq.cursor(from, length);
+        while (cursor.next()) {
+            result += term(cursor.key(), cursor.id());
+        }
+        return result;
+    }
+}
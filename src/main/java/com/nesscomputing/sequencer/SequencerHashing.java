@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+/**
+ * Allocation-free hash functions for sequencers that index raw key bytes or chars.
+ * The byte hashes are stable across JVMs, so they may be persisted.
+ */
+final class SequencerHashing
+{
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private SequencerHashing() { }
+
+    /**
+     * Murmur3 (x86, 32 bit) of {@code bytes[offset, offset + length)}.
+     */
+    @SuppressWarnings("fallthrough")
+    static int hash(byte[] bytes, int offset, int length)
+    {
+        int h = 0;
+        final int blockEnd = offset + (length & ~3);
+        for (int i = offset; i < blockEnd; i += 4) {
+            final int k = (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff) << 16 | bytes[i + 3] << 24;
+            h = mixH(h, mixK(k));
+        }
+        int k = 0;
+        switch (length & 3) {
+        case 3:
+            k ^= (bytes[blockEnd + 2] & 0xff) << 16;
+            // fall through
+        case 2:
+            k ^= (bytes[blockEnd + 1] & 0xff) << 8;
+            // fall through
+        case 1:
+            k ^= bytes[blockEnd] & 0xff;
+            h ^= mixK(k);
+            // fall through
+        default:
+            break;
+        }
+        return fmix(h ^ length);
+    }
+
+    /**
+     * Murmur3 (x86, 32 bit) of the UTF-16 code units of {@code chars}, two per block.
+     */
+    static int hash(CharSequence chars)
+    {
+        int h = 0;
+        final int length = chars.length();
+        final int blockEnd = length & ~1;
+        for (int i = 0; i < blockEnd; i += 2) {
+            h = mixH(h, mixK(chars.charAt(i) | chars.charAt(i + 1) << 16));
+        }
+        if (blockEnd != length) {
+            h ^= mixK(chars.charAt(blockEnd));
+        }
+        return fmix(h ^ length * 2);
+    }
+
+    /**
+     * Spread the bits of a (possibly weak) {@link Object#hashCode()}.
+     */
+    static int mix(int hashCode)
+    {
+        return fmix(hashCode);
+    }
+
+    /**
+     * Spread the bits of a long; a bijection, so distinct inputs give distinct outputs.
+     */
+    static long mix64(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static int mixK(int k)
+    {
+        return Integer.rotateLeft(k * C1, 15) * C2;
+    }
+
+    private static int mixH(int h, int k)
+    {
+        return Integer.rotateLeft(h ^ k, 13) * 5 + 0xe6546b64;
+    }
+
+    private static int fmix(int h)
+    {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
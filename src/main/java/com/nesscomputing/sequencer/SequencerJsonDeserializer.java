@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Reads a sequencer token by token, putting each key straight into the forward map
+ * and reverse array.  Accepts either a plain JSON array of keys or an object
+ * {@code {"size": n, "keys": [...]}}, in which case both are presized to {@code n}.
+ * The size comes from the input, so it is only trusted up to
+ * {@value com.nesscomputing.sequencer.Sequencers#MAX_PRESIZE} keys.
+ */
+@SuppressWarnings("rawtypes")
+class SequencerJsonDeserializer extends StdDeserializer<Sequencer> implements ContextualDeserializer
+{
+    private static final long serialVersionUID = 1L;
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final JavaType keyType;
+    private final boolean mutable;
+    private final JsonDeserializer<Object> keyDeserializer;
+
+    SequencerJsonDeserializer(JavaType keyType, boolean mutable, JsonDeserializer<Object> keyDeserializer)
+    {
+        super(mutable ? HashSequencer.class : ImmutableSequencerImpl.class);
+        this.keyType = keyType;
+        this.mutable = mutable;
+        this.keyDeserializer = keyDeserializer;
+    }
+
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext ctxt, BeanProperty property) throws JsonMappingException
+    {
+        if (keyDeserializer != null) {
+            return this;
+        }
+        return new SequencerJsonDeserializer(keyType, mutable, ctxt.findContextualValueDeserializer(keyType, property));
+    }
+
+    @Override
+    public Sequencer deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException
+    {
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_ARRAY) {
+            return readKeys(jp, ctxt, -1);
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException(getValueClass());
+        }
+
+        int sizeHint = -1;
+        Sequencer result = null;
+        while ((token = jp.nextToken()) == JsonToken.FIELD_NAME) {
+            final String field = jp.getCurrentName();
+            token = jp.nextToken();
+            if (SequencerJsonSerializer.SIZE_FIELD.equals(field)) {
+                if (token != JsonToken.VALUE_NUMBER_INT || jp.getIntValue() < 0) {
+                    throw ctxt.mappingException("sequencer size must be a non-negative integer");
+                }
+                sizeHint = jp.getIntValue();
+            } else if (SequencerJsonSerializer.KEYS_FIELD.equals(field)) {
+                if (token != JsonToken.START_ARRAY) {
+                    throw ctxt.mappingException("sequencer keys must be an array");
+                }
+                result = readKeys(jp, ctxt, sizeHint);
+            } else {
+                throw ctxt.mappingException("unknown sequencer field '" + field + "'");
+            }
+        }
+        if (result == null) {
+            throw ctxt.mappingException("sequencer has no keys");
+        }
+        return result;
+    }
+
+    private Sequencer readKeys(JsonParser jp, DeserializationContext ctxt, int sizeHint) throws IOException
+    {
+        final int capacity = sizeHint == -1 ? DEFAULT_CAPACITY : Math.min(sizeHint, Sequencers.MAX_PRESIZE);
+        return mutable ? readHashSequencer(jp, ctxt, capacity) : readImmutableSequencer(jp, ctxt, capacity);
+    }
+
+    private Sequencer readHashSequencer(JsonParser jp, DeserializationContext ctxt, int capacity) throws IOException
+    {
+        final HashSequencer<Object> result = HashSequencer.createWithInitialCapacity(capacity);
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            final Object key = readKey(jp, ctxt);
+            final int size = result.size();
+            if (result.sequenceOrAdd(key) != size) {
+                throw ctxt.mappingException("duplicate sequencer key " + key);
+            }
+        }
+        return result;
+    }
+
+    private Sequencer readImmutableSequencer(JsonParser jp, DeserializationContext ctxt, int capacity) throws IOException
+    {
+        final TObjectIntMap<Object> forward = new TObjectIntHashMap<>(capacity, LOAD_FACTOR, -1);
+        final PagedList<Object> reverse = new PagedList<>(capacity);
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            final Object key = readKey(jp, ctxt);
+            if (forward.put(key, reverse.size()) != -1) {
+                throw ctxt.mappingException("duplicate sequencer key " + key);
+            }
+            reverse.add(key);
+        }
+        return new ImmutableSequencerImpl<>(forward, reverse);
+    }
+
+    private Object readKey(JsonParser jp, DeserializationContext ctxt) throws IOException
+    {
+        if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+            throw ctxt.mappingException("sequencer keys must not be null");
+        }
+        return keyDeserializer.deserialize(jp, ctxt);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Writes a sequencer's keys in id order directly from {@link Sequencer#unsequence(int)},
+ * without going through {@link Sequencer#getKeys()}.
+ */
+@SuppressWarnings("rawtypes")
+class SequencerJsonSerializer extends StdSerializer<Sequencer>
+{
+    static final String SIZE_FIELD = "size";
+    static final String KEYS_FIELD = "keys";
+
+    private final boolean writeSizeHint;
+
+    SequencerJsonSerializer(boolean writeSizeHint)
+    {
+        super(Sequencer.class);
+        this.writeSizeHint = writeSizeHint;
+    }
+
+    @Override
+    public void serialize(Sequencer value, JsonGenerator jgen, SerializerProvider provider) throws IOException
+    {
+        final int size = value.size();
+        if (writeSizeHint) {
+            jgen.writeStartObject();
+            jgen.writeNumberField(SIZE_FIELD, size);
+            jgen.writeFieldName(KEYS_FIELD);
+        }
+
+        jgen.writeStartArray();
+        for (int i = 0; i < size; i++) {
+            final Object key = value.unsequence(i);
+            if (key instanceof String) {
+                jgen.writeString((String) key);
+            } else if (key instanceof Long || key instanceof Integer) {
+                jgen.writeNumber(((Number) key).longValue());
+            } else {
+                provider.defaultSerializeValue(key, jgen);
+            }
+        }
+        jgen.writeEndArray();
+
+        if (writeSizeHint) {
+            jgen.writeEndObject();
+        }
+    }
+
+    @Override
+    public boolean isEmpty(Sequencer value)
+    {
+        return value == null || value.isEmpty();
+    }
+}
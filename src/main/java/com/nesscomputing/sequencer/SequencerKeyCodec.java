@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Converts sequencer keys to and from bytes, for sequencers which are stored
+ * outside of the Java heap.  Encodings must be canonical: equal keys must always
+ * encode to identical bytes, since stored keys are compared byte by byte.
+ *
+ * @see SequencerKeyCodecs
+ */
+public interface SequencerKeyCodec<K>
+{
+    /**
+     * @return the class of the keys this codec encodes
+     */
+    @Nonnull
+    Class<K> getKeyType();
+
+    /**
+     * @return the encoded form of {@code key}
+     */
+    @Nonnull
+    byte[] encode(@Nonnull K key);
+
+    /**
+     * Decode a key from all remaining bytes of {@code buffer}.
+     * Implementations may move the buffer's position.
+     */
+    @Nonnull
+    K decode(@Nonnull ByteBuffer buffer);
+}
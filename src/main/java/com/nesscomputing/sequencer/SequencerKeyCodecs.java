@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Standard {@link SequencerKeyCodec}s.
+ */
+public class SequencerKeyCodecs
+{
+    private SequencerKeyCodecs() { }
+
+    /**
+     * @return a codec storing Strings as UTF-8
+     */
+    public static SequencerKeyCodec<String> strings()
+    {
+        return StringCodec.INSTANCE;
+    }
+
+    /**
+     * @return a codec storing Longs as zig-zag varints, so small magnitudes take few bytes
+     */
+    public static SequencerKeyCodec<Long> longs()
+    {
+        return LongCodec.INSTANCE;
+    }
+
+    /**
+     * @return a codec storing Integers as zig-zag varints, so small magnitudes take few bytes
+     */
+    public static SequencerKeyCodec<Integer> ints()
+    {
+        return IntCodec.INSTANCE;
+    }
+
+    private enum StringCodec implements SequencerKeyCodec<String>
+    {
+        INSTANCE;
+
+        @Override
+        public Class<String> getKeyType()
+        {
+            return String.class;
+        }
+
+        @Override
+        public byte[] encode(String key)
+        {
+            return key.getBytes(Charsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer)
+        {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), Charsets.UTF_8);
+            }
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, Charsets.UTF_8);
+        }
+    }
+
+    private enum LongCodec implements SequencerKeyCodec<Long>
+    {
+        INSTANCE;
+
+        @Override
+        public Class<Long> getKeyType()
+        {
+            return Long.class;
+        }
+
+        @Override
+        public byte[] encode(Long key)
+        {
+            return encodeVarint((key << 1) ^ (key >> 63));
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer)
+        {
+            final long zigzag = decodeVarint(buffer);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+
+    private enum IntCodec implements SequencerKeyCodec<Integer>
+    {
+        INSTANCE;
+
+        @Override
+        public Class<Integer> getKeyType()
+        {
+            return Integer.class;
+        }
+
+        @Override
+        public byte[] encode(Integer key)
+        {
+            return encodeVarint(((key << 1) ^ (key >> 31)) & 0xffffffffL);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer)
+        {
+            final int zigzag = (int) decodeVarint(buffer);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+
+    static byte[] encodeVarint(long value)
+    {
+        final byte[] result = new byte[varintLength(value)];
+        int i = 0;
+        while ((value & ~0x7fL) != 0) {
+            result[i++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        result[i] = (byte) value;
+        return result;
+    }
+
+    static long decodeVarint(ByteBuffer buffer)
+    {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    static int varintLength(long value)
+    {
+        int result = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            result++;
+        }
+        return result;
+    }
+}
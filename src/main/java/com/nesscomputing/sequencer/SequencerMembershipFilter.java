@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A blocked Bloom filter over the keys of an immutable sequencer layer.  All bits of a key
+ * fall into a single 64 bit word, so a query touches one cache line.  At the default
+ * {@value #DEFAULT_BITS_PER_KEY} bits per key about 2% of absent keys pass the filter.
+ */
+@Immutable
+final class SequencerMembershipFilter
+{
+    static final int DEFAULT_BITS_PER_KEY = 10;
+    private static final int HASHES = 6;
+
+    private final long[] words;
+
+    private SequencerMembershipFilter(long[] words)
+    {
+        this.words = words;
+    }
+
+    static SequencerMembershipFilter of(Sequencer<?> seq)
+    {
+        return of(seq, DEFAULT_BITS_PER_KEY);
+    }
+
+    static SequencerMembershipFilter of(Sequencer<?> seq, int bitsPerKey)
+    {
+        final int size = seq.size();
+        final SequencerMembershipFilter filter = new SequencerMembershipFilter(new long[(int) Math.max(1, ((long) size * bitsPerKey + 63) >>> 6)]);
+        for (int i = 0; i < size; i++) {
+            final int h = SequencerHashing.mix(seq.unsequence(i).hashCode());
+            filter.words[filter.word(h)] |= mask(h);
+        }
+        return filter;
+    }
+
+    boolean mightContain(Object key)
+    {
+        final int h = SequencerHashing.mix(key.hashCode());
+        final long mask = mask(h);
+        return (words[word(h)] & mask) == mask;
+    }
+
+    private int word(int h)
+    {
+        return (int) (((h & 0xffffffffL) * words.length) >>> 32);
+    }
+
+    private static long mask(int h)
+    {
+        // Derive the bit positions from bits of the hash not used to pick the word.
+        final long x = (h ^ (h >>> 16)) * 0x9e3779b97f4a7c15L;
+        long mask = 0;
+        for (int i = 1; i <= HASHES; i++) {
+            mask |= 1L << (x >>> (64 - 6 * i));
+        }
+        return mask;
+    }
+}
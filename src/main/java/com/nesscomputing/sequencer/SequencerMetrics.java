@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Counters and histograms recorded by {@link InstrumentedSequencer}s.  One instance may be
+ * shared by several sequencers, for example a mutable sequencer and the immutable snapshots
+ * taken from it, to aggregate their numbers.
+ * <p>
+ * Every call is counted in counters striped by thread, so recording costs a few
+ * uncontended atomic additions; histograms are striped the same way.  Latencies and batch
+ * sizes are only recorded for one call in every {@link #getSampleInterval() sample interval}
+ * per operation, as reading the clock costs more than the rest of the bookkeeping together.
+ * Histograms have power of two buckets: bucket {@code i} counts values in
+ * {@code [2^i, 2^(i+1))}, and bucket zero also counts zero.
+ * <p>
+ * Numbers are read with {@link #snapshot()}, or pushed to a {@link Reporter} with
+ * {@link #report(Reporter)} to bridge them into other metrics systems.
+ */
+@ThreadSafe
+public final class SequencerMetrics
+{
+    /**
+     * The instrumented operations.  Single key and batch variants share an operation; the
+     * batch size histogram tells them apart.
+     */
+    public enum Operation
+    {
+        /** {@code sequenceOrAdd}: hits found the key, additions added it. */
+        SEQUENCE_OR_ADD,
+        /** {@code sequence}, {@code sequenceIfExists} and {@code containsKey}. */
+        SEQUENCE_IF_EXISTS,
+        /** {@code sequenceExisting}. */
+        SEQUENCE_EXISTING,
+        /** {@code unsequence}. */
+        UNSEQUENCE;
+    }
+
+    /**
+     * Receives metrics, see {@link SequencerMetrics#report(Reporter)}.
+     */
+    public interface Reporter
+    {
+        void report(@Nonnull Snapshot snapshot);
+    }
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    static final int LATENCY_BUCKETS = 64;
+    static final int BATCH_BUCKETS = 32;
+
+    private static final int OPERATIONS = Operation.values().length;
+
+    private static final int CALLS = 0;
+    private static final int KEYS = 1;
+    private static final int HITS = 2;
+    private static final int MISSES = 3;
+    private static final int ADDED = 4;
+    private static final int COUNTERS = 5;
+
+    // Each stripe is padded to a multiple of 128 bytes, so threads do not share cache lines.
+    private static final int STRIDE = (OPERATIONS * COUNTERS + 15) & ~15;
+    private static final int LATENCY_STRIDE = (OPERATIONS * LATENCY_BUCKETS + 15) & ~15;
+    private static final int BATCH_STRIDE = (OPERATIONS * BATCH_BUCKETS + 15) & ~15;
+    private static final int MAX_STRIPES = 64;
+
+    private final int sampleMask;
+    private final int stripeMask;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray latencies;
+    private final AtomicLongArray batchSizes;
+
+    private SequencerMetrics(int sampleInterval)
+    {
+        this.sampleMask = sampleInterval - 1;
+        final int stripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+        this.stripeMask = stripes - 1;
+        this.counters = new AtomicLongArray(stripes * STRIDE);
+        this.latencies = new AtomicLongArray(stripes * LATENCY_STRIDE);
+        this.batchSizes = new AtomicLongArray(stripes * BATCH_STRIDE);
+    }
+
+    /**
+     * @return metrics sampling latencies every {@value #DEFAULT_SAMPLE_INTERVAL} calls
+     */
+    @Nonnull
+    public static SequencerMetrics create()
+    {
+        return new SequencerMetrics(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param sampleInterval record latencies and batch sizes for one call in this many;
+     *        must be a power of two.  One samples every call.
+     */
+    @Nonnull
+    public static SequencerMetrics create(int sampleInterval)
+    {
+        checkArgument(sampleInterval > 0 && Integer.bitCount(sampleInterval) == 1, "sample interval must be a power of two, was %s", sampleInterval);
+        return new SequencerMetrics(sampleInterval);
+    }
+
+    public int getSampleInterval()
+    {
+        return sampleMask + 1;
+    }
+
+    /**
+     * @return the calling thread's stripe, to pass to {@link #begin(Operation, int)} and
+     *         {@link #end(Operation, int, long, int, int, int, int)}
+     */
+    int stripe()
+    {
+        return SequencerHashing.mix((int) Thread.currentThread().getId()) & stripeMask;
+    }
+
+    /**
+     * Count a call to {@code op}.
+     *
+     * @return the start time if the call is sampled, otherwise zero
+     */
+    long begin(Operation op, int stripe)
+    {
+        final long calls = counters.incrementAndGet(stripe * STRIDE + op.ordinal() * COUNTERS + CALLS);
+        if ((calls & sampleMask) != 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        return now == 0 ? 1 : now;
+    }
+
+    /**
+     * Complete a call started with {@link #begin(Operation, int)}.  Negative counts are unknown and not recorded.
+     */
+    void end(Operation op, int stripe, long start, int keys, int hits, int misses, int added)
+    {
+        final int base = stripe * STRIDE + op.ordinal() * COUNTERS;
+        add(base + KEYS, keys);
+        add(base + HITS, hits);
+        add(base + MISSES, misses);
+        add(base + ADDED, added);
+        if (start != 0) {
+            latencies.incrementAndGet(stripe * LATENCY_STRIDE + op.ordinal() * LATENCY_BUCKETS + bucket(System.nanoTime() - start, LATENCY_BUCKETS));
+            if (keys >= 0) {
+                batchSizes.incrementAndGet(stripe * BATCH_STRIDE + op.ordinal() * BATCH_BUCKETS + bucket(keys, BATCH_BUCKETS));
+            }
+        }
+    }
+
+    private void add(int index, int delta)
+    {
+        if (delta > 0) {
+            counters.addAndGet(index, delta);
+        }
+    }
+
+    static int bucket(long value, int buckets)
+    {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(buckets - 1, 63 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * @return the numbers recorded so far.  Concurrent calls may be partially included.
+     */
+    @Nonnull
+    public Snapshot snapshot()
+    {
+        final Map<Operation, OperationSnapshot> operations = new EnumMap<>(Operation.class);
+        for (Operation op : Operation.values()) {
+            final long[] sums = new long[COUNTERS];
+            for (int stripe = 0; stripe <= stripeMask; stripe++) {
+                for (int counter = 0; counter < COUNTERS; counter++) {
+                    sums[counter] += counters.get(stripe * STRIDE + op.ordinal() * COUNTERS + counter);
+                }
+            }
+            operations.put(op, new OperationSnapshot(sums[CALLS], sums[KEYS], sums[HITS], sums[MISSES], sums[ADDED],
+                    sum(latencies, LATENCY_STRIDE, op.ordinal() * LATENCY_BUCKETS, LATENCY_BUCKETS),
+                    sum(batchSizes, BATCH_STRIDE, op.ordinal() * BATCH_BUCKETS, BATCH_BUCKETS)));
+        }
+        return new Snapshot(getSampleInterval(), operations);
+    }
+
+    private long[] sum(AtomicLongArray array, int stride, int offset, int length)
+    {
+        final long[] result = new long[length];
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            for (int i = 0; i < length; i++) {
+                result[i] += array.get(stripe * stride + offset + i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pass a {@link #snapshot()} to {@code reporter}.
+     */
+    public void report(@Nonnull Reporter reporter)
+    {
+        reporter.report(snapshot());
+    }
+
+    /**
+     * A point in time copy of the metrics.
+     */
+    @Immutable
+    public static final class Snapshot
+    {
+        private final int sampleInterval;
+        private final Map<Operation, OperationSnapshot> operations;
+
+        Snapshot(int sampleInterval, Map<Operation, OperationSnapshot> operations)
+        {
+            this.sampleInterval = sampleInterval;
+            this.operations = operations;
+        }
+
+        public int getSampleInterval()
+        {
+            return sampleInterval;
+        }
+
+        @Nonnull
+        public OperationSnapshot get(@Nonnull Operation op)
+        {
+            return operations.get(op);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SequencerMetrics" + operations;
+        }
+    }
+
+    /**
+     * The metrics of one {@link Operation}.
+     */
+    @Immutable
+    public static final class OperationSnapshot
+    {
+        private final long calls;
+        private final long keys;
+        private final long hits;
+        private final long misses;
+        private final long added;
+        private final long[] latencies;
+        private final long[] batchSizes;
+
+        OperationSnapshot(long calls, long keys, long hits, long misses, long added, long[] latencies, long[] batchSizes)
+        {
+            this.calls = calls;
+            this.keys = keys;
+            this.hits = hits;
+            this.misses = misses;
+            this.added = added;
+            this.latencies = latencies;
+            this.batchSizes = batchSizes;
+        }
+
+        /** @return the number of calls */
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        /** @return the number of keys or indexes passed, over all calls */
+        public long getKeys()
+        {
+            return keys;
+        }
+
+        /** @return the number of keys which were found */
+        public long getHits()
+        {
+            return hits;
+        }
+
+        /** @return the number of keys which were not found; not counted for lookups of iterables */
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        /** @return the number of keys added, for {@link Operation#SEQUENCE_OR_ADD} */
+        public long getAdded()
+        {
+            return added;
+        }
+
+        /**
+         * @return hits divided by hits and misses, or NaN without either
+         */
+        public double getHitRatio()
+        {
+            return (double) hits / (hits + misses);
+        }
+
+        /**
+         * @return a copy of the latency histogram of the sampled calls, in nanoseconds
+         */
+        @Nonnull
+        public long[] getLatencyHistogram()
+        {
+            return latencies.clone();
+        }
+
+        /**
+         * @return a copy of the histogram of keys per sampled call
+         */
+        @Nonnull
+        public long[] getBatchSizeHistogram()
+        {
+            return batchSizes.clone();
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         * @return an upper bound of the latency quantile in nanoseconds, or zero if no call was sampled
+         */
+        public long getLatencyQuantile(double quantile)
+        {
+            checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between 0 and 1, was %s", quantile);
+            long total = 0;
+            for (long count : latencies) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            int bucket = 0;
+            while ((seen += latencies[bucket]) < rank) {
+                bucket++;
+            }
+            return bucket == LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) - 1;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("[calls=%d, keys=%d, hits=%d, misses=%d, added=%d, p50<=%dns, p99<=%dns]",
+                    calls, keys, hits, misses, added, getLatencyQuantile(0.5), getLatencyQuantile(0.99));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.deser.Deserializers;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+/**
+ * Jackson module which streams sequencers key by key, without building
+ * intermediate collections.
+ * <p>
+ * Sequencers are written as a JSON array of keys, just as without the module.
+ * Optionally they are written as {@code {"size": n, "keys": [...]}} instead, which
+ * lets readers presize their tables.  Both forms are accepted when reading.
+ */
+public class SequencerModule extends Module
+{
+    private final boolean writeSizeHint;
+
+    /**
+     * Create a module which writes plain JSON arrays.
+     */
+    public SequencerModule()
+    {
+        this(false);
+    }
+
+    /**
+     * @param writeSizeHint if true, write sequencers as objects carrying a size hint
+     */
+    public SequencerModule(boolean writeSizeHint)
+    {
+        this.writeSizeHint = writeSizeHint;
+    }
+
+    @Override
+    public String getModuleName()
+    {
+        return "SequencerModule";
+    }
+
+    @Override
+    public Version version()
+    {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public void setupModule(SetupContext context)
+    {
+        // Jackson resolves @JsonValue before consulting module serializers, so the
+        // streaming serializer is supplied as a class annotation instead.
+        context.insertAnnotationIntrospector(new SequencerAnnotationIntrospector(new SequencerJsonSerializer(writeSizeHint)));
+
+        context.addDeserializers(new Deserializers.Base() {
+            @Override
+            public JsonDeserializer<?> findBeanDeserializer(JavaType type, DeserializationConfig config, BeanDescription beanDesc)
+            {
+                final Class<?> raw = type.getRawClass();
+                if (!Sequencer.class.isAssignableFrom(raw)) {
+                    return null;
+                }
+                final boolean mutable;
+                if (raw.isAssignableFrom(ImmutableSequencerImpl.class)) {
+                    mutable = false;
+                } else if (raw.isAssignableFrom(HashSequencer.class)) {
+                    mutable = true;
+                } else {
+                    return null;
+                }
+
+                final JavaType[] params = config.getTypeFactory().findTypeParameters(type, Sequencer.class);
+                final JavaType keyType = params == null || params.length == 0 ? TypeFactory.unknownType() : params[0];
+                return new SequencerJsonDeserializer(keyType, mutable, null);
+            }
+        });
+    }
+
+    /**
+     * Overrides the serialization annotations inherited from {@link Sequencer}.
+     */
+    private static class SequencerAnnotationIntrospector extends NopAnnotationIntrospector
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final SequencerJsonSerializer serializer;
+
+        SequencerAnnotationIntrospector(SequencerJsonSerializer serializer)
+        {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public Object findSerializer(Annotated am)
+        {
+            if (am instanceof AnnotatedClass && Sequencer.class.isAssignableFrom(am.getRawType())) {
+                return serializer;
+            }
+            return null;
+        }
+
+        @Override
+        public Class<?> findDeserializationType(Annotated am, JavaType baseType)
+        {
+            // Sequencer is annotated to deserialize as an immutable sequencer, which can not be a HashSequencer.
+            if (am instanceof AnnotatedClass && baseType.getRawClass() == HashSequencer.class) {
+                return HashSequencer.class;
+            }
+            return null;
+        }
+    }
+}
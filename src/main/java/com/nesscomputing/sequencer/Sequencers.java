@@ -15,11 +15,19 @@
  */
 package com.nesscomputing.sequencer;
 
+import java.util.List;
+
 /**
  * Utility methods that work with {@link Sequencer}s.
  */
 public class Sequencers
 {
+    /**
+     * Sizes read from untrusted input presize tables up to this many keys; larger
+     * sequencers grow as their keys arrive, which costs a few rehashes at most.
+     */
+    static final int MAX_PRESIZE = 1 << 24;
+
     private Sequencers() { }
 
     /**
@@ -49,6 +57,117 @@ public class Sequencers
         {
             throw new UnsupportedOperationException("Unable to add to unmodifiable sequencer");
         }
+
+        @Override
+        public void sequenceOrAdd(T[] keys, int[] result)
+        {
+            throw new UnsupportedOperationException("Unable to add to unmodifiable sequencer");
+        }
+
+        @Override
+        public void sequenceOrAdd(List<T> keys, int[] result)
+        {
+            throw new UnsupportedOperationException("Unable to add to unmodifiable sequencer");
+        }
+    }
+
+    /**
+     * Return a 64 bit fingerprint of the keys of {@code seq} and their order.  Equal sequencers
+     * have equal fingerprints; unequal ones almost certainly do not.  Fingerprints are stable
+     * across processes if the hash codes of the keys are, as for strings and boxed primitives,
+     * so replicas may compare them instead of their contents.
+     * <p>
+     * Fingerprints are maintained incrementally: after the first call, a call costs time
+     * proportional to the number of keys added since the previous one.
+     */
+    public static long fingerprint(Sequencer<?> seq)
+    {
+        return prefixFingerprint(seq, seq.size());
+    }
+
+    /**
+     * Return the {@link #fingerprint(Sequencer) fingerprint} of the first {@code length} keys
+     * of {@code seq}, which equals the fingerprint of any sequencer holding just those keys.
+     * This costs visiting at most a few dozen keys once {@code seq} is fingerprinted.
+     *
+     * @throws IndexOutOfBoundsException if {@code length} exceeds the size of {@code seq}
+     */
+    public static long prefixFingerprint(Sequencer<?> seq, int length)
+    {
+        AbstractSequencer.checkRange(0, length, seq.size());
+        final Sequencer<?> unwrapped = unwrap(seq);
+        final SequencerFingerprint fingerprint;
+        if (unwrapped instanceof AbstractSequencer) {
+            fingerprint = ((AbstractSequencer<?>) unwrapped).fingerprint();
+        } else {
+            fingerprint = new SequencerFingerprint(null).catchUp(unwrapped);
+        }
+        return fingerprint.prefix(unwrapped, length);
+    }
+
+    /**
+     * Compare two sequencers by size and {@link #fingerprint(Sequencer) fingerprint} alone, without
+     * visiting their keys, for replica consistency checks and similar uses which can accept a
+     * 2<sup>-64</sup> chance of a false positive.  Once both are fingerprinted this costs constant
+     * time.  Unlike {@link Object#equals(Object)}, which confirms matching fingerprints key by key,
+     * a true result is not proof of equality; a false result is proof of inequality.
+     */
+    public static boolean fingerprintsEqual(Sequencer<?> a, Sequencer<?> b)
+    {
+        final int size = a.size();
+        return b.size() == size && prefixFingerprint(a, size) == prefixFingerprint(b, size);
+    }
+
+    /**
+     * Return true if {@code prefix} holds the first {@code prefix.size()} keys of {@code seq}
+     * in the same order, so {@code seq} only appends to it.  Sequencers with different
+     * fingerprints, and layered sequencers built on top of {@code prefix}, are answered without
+     * comparing keys.
+     */
+    public static boolean isPrefixOf(Sequencer<?> prefix, Sequencer<?> seq)
+    {
+        final int size = prefix.size();
+        if (size > seq.size()) {
+            return false;
+        }
+        final Sequencer<?> unwrappedPrefix = unwrap(prefix);
+        Sequencer<?> layer = unwrap(seq);
+        while (layer != unwrappedPrefix && layer.size() > size) {
+            if (layer instanceof ImmutableShadowingSequencer) {
+                layer = ((ImmutableShadowingSequencer<?>) layer).getFirst();
+            } else if (layer instanceof ImmutableShadowingSequencerBuilder) {
+                layer = ((ImmutableShadowingSequencerBuilder<?>) layer).getBase();
+            } else {
+                break;
+            }
+        }
+        if (layer == unwrappedPrefix) {
+            return true;
+        }
+        if (prefixFingerprint(prefix, size) != prefixFingerprint(seq, size)) {
+            return false;
+        }
+        return keysEqual(prefix, seq, size);
+    }
+
+    static boolean keysEqual(Sequencer<?> a, Sequencer<?> b, int length)
+    {
+        final SequencerCursor<?> first = a.cursor(0, length);
+        final SequencerCursor<?> second = b.cursor(0, length);
+        while (first.next() && second.next()) {
+            if (!first.key().equals(second.key())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Sequencer<?> unwrap(Sequencer<?> seq)
+    {
+        while (seq instanceof DelegatingSequencer) {
+            seq = ((DelegatingSequencer<?>) seq).getDelegate();
+        }
+        return seq;
     }
 
     private static final ImmutableSequencer<Object> EMPTY_SEQUENCER = ImmutableSequencer.copyOf(HashSequencer.create());
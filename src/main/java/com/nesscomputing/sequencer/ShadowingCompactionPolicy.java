@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Decides when the layers of a shadowing immutable sequencer are merged, in the style of
+ * a tiered LSM tree.  Whenever a layer is added, adjacent layers are merged from the top down
+ * while the lower layer is less than {@code sizeRatio} times the size of the upper one, so
+ * layer sizes grow geometrically towards the bottom.  Each key is thus rewritten O(log n)
+ * times in total, and a stack holds O(log n) layers.  Should the stack still be deeper than
+ * {@code maxDepth}, the topmost layers are merged until it is not.
+ * <p>
+ * Layers below the merged ones are kept as they are, so the result shares them with the
+ * input.  A merged layer uses a perfect hash index if all layers merged into it do, and a
+ * hash table otherwise; partitioned and memory-mapped layers are merged into hash tables.
+ *
+ * @see ImmutableSequencer#extendImmutableSequence(ShadowingCompactionPolicy)
+ */
+@Immutable
+public final class ShadowingCompactionPolicy
+{
+    public static final int DEFAULT_SIZE_RATIO = 4;
+    public static final int DEFAULT_MAX_DEPTH = 12;
+
+    private static final ShadowingCompactionPolicy DEFAULT = new ShadowingCompactionPolicy(DEFAULT_SIZE_RATIO, DEFAULT_MAX_DEPTH);
+
+    private final int sizeRatio;
+    private final int maxDepth;
+
+    private ShadowingCompactionPolicy(int sizeRatio, int maxDepth)
+    {
+        this.sizeRatio = sizeRatio;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return a tiered policy with the default size ratio and maximum depth
+     */
+    @Nonnull
+    public static ShadowingCompactionPolicy tiered()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * @param sizeRatio merge two layers unless the lower one is at least this many times larger
+     * @param maxDepth the maximum number of layers
+     */
+    @Nonnull
+    public static ShadowingCompactionPolicy tiered(int sizeRatio, int maxDepth)
+    {
+        checkArgument(sizeRatio >= 2, "size ratio must be at least 2, was %s", sizeRatio);
+        checkArgument(maxDepth >= 1, "max depth must be at least 1, was %s", maxDepth);
+        return new ShadowingCompactionPolicy(sizeRatio, maxDepth);
+    }
+
+    public int getSizeRatio()
+    {
+        return sizeRatio;
+    }
+
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    /**
+     * Stack {@code top} onto {@code base}, merging layers as needed.
+     */
+    <K> ImmutableSequencer<K> apply(ImmutableSequencer<K> base, ImmutableSequencer<K> top)
+    {
+        final List<ImmutableSequencer<K>> layers = Lists.newArrayList();
+        ImmutableShadowingSequencer.collectLayers(base, layers);
+        layers.add(top);
+
+        // Only the layers touched by merges are rebuilt; the ones below are shared.
+        int n = layers.size();
+        int mergeFrom = n - 1;
+        long mergedSize = top.size();
+        while (mergeFrom > 0 && (mergeFrom >= maxDepth || layers.get(mergeFrom - 1).size() < (long) sizeRatio * mergedSize)) {
+            mergeFrom--;
+            mergedSize += layers.get(mergeFrom).size();
+        }
+
+        ImmutableSequencer<K> result = mergeFrom == n - 1 ? top : merge(layers.subList(mergeFrom, n), (int) mergedSize);
+        if (mergeFrom == 0) {
+            return result;
+        }
+        return new ImmutableShadowingSequencer<>(below(base, layers, mergeFrom), result);
+    }
+
+    /**
+     * @return the part of {@code base} made of its first {@code count} layers, reusing the
+     *         existing node where there is one, so {@link Sequencers#isPrefixOf} can match it by identity
+     */
+    private static <K> ImmutableSequencer<K> below(ImmutableSequencer<K> base, List<ImmutableSequencer<K>> layers, int count)
+    {
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            size += layers.get(i).size();
+        }
+        ImmutableSequencer<K> node = base;
+        while (node.size() > size && node instanceof ImmutableShadowingSequencer) {
+            node = ((ImmutableShadowingSequencer<K>) node).getFirst();
+        }
+        if (node.size() == size) {
+            return node;
+        }
+
+        ImmutableSequencer<K> result = layers.get(0);
+        for (int i = 1; i < count; i++) {
+            result = new ImmutableShadowingSequencer<>(result, layers.get(i));
+        }
+        return result;
+    }
+
+    private static <K> ImmutableSequencer<K> merge(List<ImmutableSequencer<K>> layers, int size)
+    {
+        final PagedList<K> keys = new PagedList<>(size);
+        boolean filtered = false;
+        boolean perfectHash = true;
+        for (ImmutableSequencer<K> layer : layers) {
+            for (int i = 0; i < layer.size(); i++) {
+                keys.add(layer.unsequence(i));
+            }
+            filtered |= layer.hasMembershipFilter();
+            perfectHash &= layer instanceof PerfectHashImmutableSequencer;
+        }
+        final ImmutableSequencer<K> result = perfectHash ? PerfectHashImmutableSequencer.create(keys) : ImmutableSequencerImpl.fromList(keys);
+        return filtered ? result.withMembershipFilter() : result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ShadowingCompactionPolicy[sizeRatio=" + sizeRatio + ", maxDepth=" + maxDepth + "]";
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Assigns ids to keys from many threads without a global point of contention.
+ * <p>
+ * Keys are sharded by hash over a power of two number of independent shards, each with its
+ * own lock for adds.  Shards are {@link SingleWriterSequencer}s rather than
+ * {@link HashSequencer}s, so lookups never lock, not even while a shard is adding a key.
+ * Shard {@code s} of {@code n} hands out the ids {@code s}, {@code s + n}, {@code s + 2n},
+ * ..., so additions to different shards never touch the same memory.  The price is that
+ * ids are not dense: with unevenly filled shards there are holes, and this class therefore
+ * is not a {@link Sequencer}.  {@link #compact()} renumbers the keys into a dense
+ * {@link ImmutableSequencer}, with a table mapping the ids handed out here to the new ones.
+ */
+@ThreadSafe
+public final class ShardedSequencer<K>
+{
+    private final SingleWriterSequencer<K>[] shards;
+    private final int shardBits;
+    private final int shardMask;
+    /** The highest local id a shard may hand out before its ids would overflow. */
+    private final int maxLocalId;
+
+    private ShardedSequencer(int shardCount)
+    {
+        this(shardCount, Integer.MAX_VALUE >>> Integer.numberOfTrailingZeros(shardCount));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ShardedSequencer(int shardCount, int maxLocalId)
+    {
+        checkArgument(shardCount > 0 && Integer.bitCount(shardCount) == 1, "shard count must be a power of two, was %s", shardCount);
+        shards = new SingleWriterSequencer[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = SingleWriterSequencer.create();
+        }
+        shardBits = Integer.numberOfTrailingZeros(shardCount);
+        shardMask = shardCount - 1;
+        this.maxLocalId = maxLocalId;
+    }
+
+    /**
+     * Create a sharded sequencer with twice as many shards as there are processors.
+     */
+    @Nonnull
+    public static <K> ShardedSequencer<K> create()
+    {
+        return new ShardedSequencer<>(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+    }
+
+    /**
+     * @param shardCount the number of shards, a power of two
+     */
+    @Nonnull
+    public static <K> ShardedSequencer<K> create(int shardCount)
+    {
+        return new ShardedSequencer<>(shardCount);
+    }
+
+    public int getShardCount()
+    {
+        return shards.length;
+    }
+
+    private int shardOf(Object key)
+    {
+        // The high bits, so the shard does not correlate with the slot in the shard's table.
+        return (SequencerHashing.mix(key.hashCode()) >>> (32 - shardBits)) & shardMask;
+    }
+
+    private int toId(int shard, int local)
+    {
+        return (local << shardBits) | shard;
+    }
+
+    /**
+     * @return the id of {@code key}, which is added if it is not known yet
+     */
+    public int sequenceOrAdd(@Nonnull K key)
+    {
+        final int shard = shardOf(key);
+        final SingleWriterSequencer<K> seq = shards[shard];
+        int local = seq.sequenceIfExists(key);
+        if (local == -1) {
+            synchronized (seq) {
+                local = seq.sequenceIfExists(key);
+                if (local == -1) {
+                    // Checked before adding, so a full shard never holds a key without a valid id.
+                    if (seq.size() > maxLocalId) {
+                        throw new IllegalStateException("shard " + shard + " is full");
+                    }
+                    local = seq.sequenceOrAdd(key);
+                }
+            }
+        }
+        return toId(shard, local);
+    }
+
+    /**
+     * @return the id of {@code key}, or -1 if it is not known
+     */
+    public int sequenceIfExists(@Nonnull K key)
+    {
+        final int shard = shardOf(key);
+        final int local = shards[shard].sequenceIfExists(key);
+        return local == -1 ? -1 : toId(shard, local);
+    }
+
+    public boolean containsKey(@Nonnull K key)
+    {
+        return sequenceIfExists(key) != -1;
+    }
+
+    /**
+     * @return the key with the given id
+     * @throws IndexOutOfBoundsException if no key has the id
+     */
+    @Nonnull
+    public K unsequence(int id)
+    {
+        if (id < 0) {
+            throw new IndexOutOfBoundsException("negative id " + id);
+        }
+        final SingleWriterSequencer<K> seq = shards[id & shardMask];
+        final int local = id >>> shardBits;
+        if (local >= seq.size()) {
+            throw new IndexOutOfBoundsException("no key with id " + id);
+        }
+        return seq.unsequence(local);
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size()
+    {
+        int result = 0;
+        for (SingleWriterSequencer<K> seq : shards) {
+            result += seq.size();
+        }
+        return result;
+    }
+
+    /**
+     * Renumber all keys densely, in order of their current ids.  Keys added while compacting
+     * may or may not be included; the remap table covers exactly the included ones.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public Compaction<K> compact()
+    {
+        final Object[][] shardKeys = new Object[shards.length][];
+        int size = 0;
+        int idBound = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            final SingleWriterSequencer<K> seq = shards[shard];
+            final Object[] copy = new Object[seq.size()];
+            seq.unsequence(0, copy.length, (K[]) copy, 0);
+            shardKeys[shard] = copy;
+            size += shardKeys[shard].length;
+            if (shardKeys[shard].length > 0) {
+                idBound = Math.max(idBound, toId(shard, shardKeys[shard].length - 1) + 1);
+            }
+        }
+
+        final PagedList<K> keys = new PagedList<>(size);
+        final int[] remap = new int[idBound];
+        int next = 0;
+        for (int id = 0; id < idBound; id++) {
+            final Object[] shard = shardKeys[id & shardMask];
+            final int local = id >>> shardBits;
+            if (local < shard.length) {
+                keys.add((K) shard[local]);
+                remap[id] = next++;
+            } else {
+                remap[id] = -1;
+            }
+        }
+        return new Compaction<>(ImmutableSequencerImpl.fromList(keys), remap);
+    }
+
+    /**
+     * The result of {@link ShardedSequencer#compact()}.
+     */
+    @Immutable
+    public static final class Compaction<K>
+    {
+        private final ImmutableSequencer<K> sequencer;
+        private final int[] remap;
+
+        Compaction(ImmutableSequencer<K> sequencer, int[] remap)
+        {
+            this.sequencer = sequencer;
+            this.remap = remap;
+        }
+
+        /**
+         * @return the compacted keys, with dense ids
+         */
+        @Nonnull
+        public ImmutableSequencer<K> getSequencer()
+        {
+            return sequencer;
+        }
+
+        /**
+         * @return the dense id of the key which had {@code id} in the sharded sequencer,
+         *         or -1 if it was not included
+         */
+        public int remap(int id)
+        {
+            return id >= 0 && id < remap.length ? remap[id] : -1;
+        }
+
+        /**
+         * @return a copy of the remap table: element {@code i} is {@link #remap(int) remap(i)}
+         */
+        @Nonnull
+        public int[] getRemapTable()
+        {
+            return Arrays.copyOf(remap, remap.length);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.Lists;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * Maps a sparse range of keys to a dense range (starting at 0), built for one thread
+ * adding keys while any number of threads look them up.
+ * <p>
+ * Readers never lock or wait.  Keys live in fixed-size pages which are never copied, and
+ * the open addressing table is only replaced, never modified, by a resize, so a reader
+ * always probes a table which holds every key it may see.  The writer stores a key and
+ * its table slot before publishing the new size through a volatile field; readers read
+ * the size first and ignore any id beyond it.
+ * <p>
+ * Adds are serialized on this sequencer's monitor, so several writers are safe, but they
+ * gain nothing over one.  Looking up an existing key with {@link #sequenceOrAdd(Object)}
+ * does not lock.
+ * <p>
+ * Since ids are only ever appended, {@link #snapshot()} hands out a consistent immutable
+ * view of the current keys in constant time, without copying.
+ *
+ * @param <K> the type of sparse keys to map
+ */
+@ThreadSafe
+public class SingleWriterSequencer<K> extends AbstractSequencer<K>
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final int EMPTY = -1;
+
+    /** Keys by id, in pages of {@value #PAGE_SIZE}.  Filled pages are never copied. */
+    private volatile Object[][] keyPages = new Object[0][];
+    /** Mixed hash codes by id, paged like {@link #keyPages}, to skip equals calls and rehash without rehashing keys. */
+    private volatile int[][] hashPages = new int[0][];
+    /** Open addressing table of ids, or {@link #EMPTY}.  Replaced as a whole when it grows. */
+    private volatile int[] table;
+    /** Number of ids visible to readers.  Written last by each add. */
+    private volatile int size = 0;
+
+    private SingleWriterSequencer(int startingSize)
+    {
+        table = newTable(tableSizeFor(startingSize));
+    }
+
+    /**
+     * Create a new SingleWriterSequencer with a default initial size.
+     */
+    public static <K> SingleWriterSequencer<K> create()
+    {
+        return createWithInitialCapacity(16);
+    }
+
+    /**
+     * Create a new SingleWriterSequencer with a specified initial size.
+     */
+    public static <K> SingleWriterSequencer<K> createWithInitialCapacity(int startingSize)
+    {
+        return new SingleWriterSequencer<>(startingSize);
+    }
+
+    /**
+     * Create a new SingleWriterSequencer with the elements of another sequencer.
+     */
+    public static <K> SingleWriterSequencer<K> copyOf(Sequencer<K> other)
+    {
+        final SingleWriterSequencer<K> result = createWithInitialCapacity(other.size());
+        final SequencerCursor<K> cursor = other.cursor();
+        while (cursor.next()) {
+            result.sequenceOrAdd(cursor.key());
+        }
+        return result;
+    }
+
+    /**
+     * Create a new SingleWriterSequencer with the elements of an array.
+     */
+    @SafeVarargs
+    public static <K> SingleWriterSequencer<K> copyOf(K... elements)
+    {
+        return copyOf(Arrays.asList(elements));
+    }
+
+    /**
+     * Create a new SingleWriterSequencer with the elements of an iterable.
+     */
+    public static <K> SingleWriterSequencer<K> copyOf(Iterable<K> elements)
+    {
+        SingleWriterSequencer<K> result = create();
+        for (K key : elements) {
+            result.sequenceOrAdd(key);
+        }
+        return result;
+    }
+
+    /**
+     * An immutable view of the keys added so far.  Takes constant time and copies nothing;
+     * the view stays valid, and unchanged, while keys are added to this sequencer.
+     */
+    @Nonnull
+    public ImmutableSequencer<K> snapshot()
+    {
+        return subSequence(size);
+    }
+
+    @Override
+    public int sequenceOrAdd(K key)
+    {
+        final int result = find(key);
+        if (result != -1) {
+            return result;
+        }
+        synchronized (this) {
+            return add(key);
+        }
+    }
+
+    @GuardedBy("this")
+    private int add(K key)
+    {
+        final int id = size;
+        final int hash = SequencerHashing.mix(key.hashCode());
+        final int[] currentTable = table;
+        final int mask = currentTable.length - 1;
+
+        int slot = hash & mask;
+        while (true) {
+            final int existing = currentTable[slot];
+            if (existing == EMPTY) {
+                break;
+            }
+            if (hashAt(hashPages, existing) == hash && key.equals(keyAt(keyPages, existing))) {
+                return existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        final int pageIndex = id >>> PAGE_SHIFT;
+        if (pageIndex == keyPages.length) {
+            addPage();
+        }
+        keyPages[pageIndex][id & PAGE_MASK] = key;
+        hashPages[pageIndex][id & PAGE_MASK] = hash;
+        currentTable[slot] = id;
+        size = id + 1;
+
+        if ((id + 1) * 2 > currentTable.length) {
+            rehash(currentTable.length * 2);
+        }
+        return id;
+    }
+
+    @GuardedBy("this")
+    private void addPage()
+    {
+        final Object[][] newKeyPages = Arrays.copyOf(keyPages, keyPages.length + 1);
+        newKeyPages[keyPages.length] = new Object[PAGE_SIZE];
+        final int[][] newHashPages = Arrays.copyOf(hashPages, hashPages.length + 1);
+        newHashPages[hashPages.length] = new int[PAGE_SIZE];
+        keyPages = newKeyPages;
+        hashPages = newHashPages;
+    }
+
+    /**
+     * Build a larger table on the side and publish it in one write.  Readers still probing
+     * the old table find every key it was published with.
+     */
+    @GuardedBy("this")
+    private void rehash(int newTableSize)
+    {
+        final int[] newTable = newTable(newTableSize);
+        final int[][] currentHashPages = hashPages;
+        final int mask = newTableSize - 1;
+        final int currentSize = size;
+        for (int id = 0; id < currentSize; id++) {
+            int slot = hashAt(currentHashPages, id) & mask;
+            while (newTable[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Look up {@code key} without locking.
+     * <p>
+     * Ids are inserted in increasing order, so every slot probed before a key's own slot
+     * holds a lower id.  A slot holding an id at or beyond the size read up front was filled
+     * after every visible key, and ends the search just like an empty slot.
+     */
+    private int find(Object key)
+    {
+        final int currentSize = size;
+        final int[] currentTable = table;
+        final Object[][] currentKeyPages = keyPages;
+        final int[][] currentHashPages = hashPages;
+        final int hash = SequencerHashing.mix(key.hashCode());
+        final int mask = currentTable.length - 1;
+
+        int slot = hash & mask;
+        while (true) {
+            final int id = currentTable[slot];
+            if (id == EMPTY || id >= currentSize) {
+                return -1;
+            }
+            if (hashAt(currentHashPages, id) == hash && key.equals(keyAt(currentKeyPages, id))) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key != null && find(key) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(K key)
+    {
+        return find(key);
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<K> keys, TObjectIntMap<K> result)
+    {
+        for (K key : keys) {
+            final int val = find(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K unsequence(int index)
+    {
+        final int currentSize = size;
+        if (index < 0 || index >= currentSize) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range [0," + currentSize + ")");
+        }
+        return (K) keyAt(keyPages, index);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, size, result.length, offset);
+        final Object[][] currentKeyPages = keyPages;
+        int index = fromIndex;
+        while (index < toIndex) {
+            final int length = Math.min(toIndex - index, PAGE_SIZE - (index & PAGE_MASK));
+            System.arraycopy(currentKeyPages[index >>> PAGE_SHIFT], index & PAGE_MASK, result, offset + index - fromIndex, length);
+            index += length;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private static Object keyAt(Object[][] pages, int id)
+    {
+        return pages[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    private static int hashAt(int[][] pages, int id)
+    {
+        return pages[id >>> PAGE_SHIFT][id & PAGE_MASK];
+    }
+
+    private static int[] newTable(int tableSize)
+    {
+        final int[] result = new int[tableSize];
+        Arrays.fill(result, EMPTY);
+        return result;
+    }
+
+    private static int tableSizeFor(int capacity)
+    {
+        return Math.max(MIN_TABLE_SIZE, Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2);
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy<>(Lists.newArrayList(snapshot().getKeys()));
+    }
+
+    private static class SerProxy<K> implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final List<K> intToKey;
+
+        SerProxy(List<K> intToKey)
+        {
+            this.intToKey = intToKey;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            return copyOf(intToKey);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * Maps a sparse range of Strings to a dense range (starting at 0), keeping the
+ * keys as UTF-8 bytes in large arena chunks rather than as String objects.
+ * <p>
+ * The heap cost per key is a handful of primitive array slots, independent of the
+ * number of keys, so very large dictionaries do not burden the garbage collector.
+ * Chunks may optionally live off-heap.  Strings are only materialized by
+ * {@link #unsequence(int)}; {@link #keyBytes(int)} exposes the raw bytes without copying.
+ * <p>
+ * Keys must be well-formed UTF-16, as a lone surrogate has no UTF-8 encoding; adding
+ * such a key throws {@link IllegalArgumentException}.  Lookups compare the key's chars
+ * against the stored bytes directly, so they do not encode or allocate.
+ */
+@NotThreadSafe
+public class StringArenaSequencer extends AbstractSequencer<String>
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final int EMPTY = -1;
+
+    private final int chunkSize;
+    private final boolean offHeap;
+
+    private transient CharsetEncoder encoder = Charsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private transient ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkCount = 0;
+    /** Index of the chunk currently being appended to, or -1. */
+    private int currentChunk = -1;
+
+    /** Per id: chunk index in the high word, offset of the length prefix in the low word. */
+    private long[] locations;
+    /** Per id: hash of the key's chars, to skip byte comparisons and rehash without reading the arena. */
+    private int[] hashes;
+    /** Open addressing table of ids, or {@link #EMPTY}. */
+    private int[] table;
+    private int size = 0;
+
+    private StringArenaSequencer(int startingSize, int chunkSize, boolean offHeap)
+    {
+        checkArgument(chunkSize > 0, "chunk size must be positive");
+        this.chunkSize = chunkSize;
+        this.offHeap = offHeap;
+
+        final int capacity = Math.max(startingSize, 1);
+        locations = new long[capacity];
+        hashes = new int[capacity];
+        table = newTable(tableSizeFor(capacity));
+    }
+
+    /**
+     * Create a new StringArenaSequencer with on-heap chunks of the default size.
+     */
+    public static StringArenaSequencer create()
+    {
+        return new StringArenaSequencer(10, DEFAULT_CHUNK_SIZE, false);
+    }
+
+    /**
+     * Create a new StringArenaSequencer with off-heap (direct) chunks of the default size.
+     */
+    public static StringArenaSequencer createOffHeap()
+    {
+        return new StringArenaSequencer(10, DEFAULT_CHUNK_SIZE, true);
+    }
+
+    /**
+     * Create a new StringArenaSequencer.
+     *
+     * @param startingSize the number of keys to size the index for
+     * @param chunkSize the size in bytes of each arena chunk
+     * @param offHeap whether chunks are allocated as direct buffers
+     */
+    public static StringArenaSequencer create(int startingSize, int chunkSize, boolean offHeap)
+    {
+        return new StringArenaSequencer(startingSize, chunkSize, offHeap);
+    }
+
+    /**
+     * Create a new on-heap StringArenaSequencer with the elements of an iterable.
+     */
+    public static StringArenaSequencer copyOf(Iterable<String> elements)
+    {
+        final StringArenaSequencer result = create();
+        for (String key : elements) {
+            result.sequenceOrAdd(key);
+        }
+        return result;
+    }
+
+    @Override
+    public int sequenceOrAdd(String key)
+    {
+        final int hash = SequencerHashing.hash(key);
+
+        int slot = hash & (table.length - 1);
+        while (true) {
+            final int id = table[slot];
+            if (id == EMPTY) {
+                break;
+            }
+            if (hashes[id] == hash && keyEquals(id, key)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+
+        final ByteBuffer bytes = encode(key);
+        final int id = size;
+        if (id == locations.length) {
+            final int newCapacity = locations.length + (locations.length >> 1) + 1;
+            locations = Arrays.copyOf(locations, newCapacity);
+            hashes = Arrays.copyOf(hashes, newCapacity);
+        }
+        locations[id] = append(bytes);
+        hashes[id] = hash;
+        table[slot] = id;
+        size++;
+
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof String && sequenceIfExists((String) key) != -1;
+    }
+
+    @Override
+    public int sequenceIfExists(String key)
+    {
+        final int hash = SequencerHashing.hash(key);
+
+        int slot = hash & (table.length - 1);
+        while (true) {
+            final int id = table[slot];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (hashes[id] == hash && keyEquals(id, key)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+    }
+
+    @Override
+    public void sequenceExisting(Iterable<String> keys, TObjectIntMap<String> result)
+    {
+        for (String key : keys) {
+            final int val = sequenceIfExists(key);
+            if (val != -1) {
+                result.put(key, val);
+            }
+        }
+    }
+
+    @Override
+    public String unsequence(int index)
+    {
+        checkIndex(index);
+        final ByteBuffer chunk = chunks[(int) (locations[index] >>> 32)];
+        int position = (int) locations[index];
+        final int length = readLength(chunk, position);
+        position += lengthOfLength(length);
+
+        if (chunk.hasArray()) {
+            return new String(chunk.array(), chunk.arrayOffset() + position, length, Charsets.UTF_8);
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = chunk.get(position + i);
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Return the UTF-8 bytes of a key without copying them.  The returned buffer
+     * is a read-only view into the arena, positioned at the first byte of the key
+     * and limited to its last.
+     *
+     * @param index dense key
+     * @return the sparse key's UTF-8 bytes
+     */
+    @Nonnull
+    public ByteBuffer keyBytes(int index)
+    {
+        checkIndex(index);
+        final ByteBuffer chunk = chunks[(int) (locations[index] >>> 32)];
+        final int position = (int) locations[index];
+        final int length = readLength(chunk, position);
+        final int start = position + lengthOfLength(length);
+
+        final ByteBuffer result = chunk.asReadOnlyBuffer();
+        result.limit(start + length);
+        result.position(start);
+        return result;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range [0," + size + ")");
+        }
+    }
+
+    /**
+     * Compare the stored UTF-8 bytes of {@code id} with {@code key}, encoding it one code point at a time.
+     */
+    private boolean keyEquals(int id, String key)
+    {
+        final ByteBuffer chunk = chunks[(int) (locations[id] >>> 32)];
+        int position = (int) locations[id];
+        final int length = readLength(chunk, position);
+        position += lengthOfLength(length);
+        final int end = position + length;
+
+        final int chars = key.length();
+        int i = 0;
+        while (i < chars) {
+            int codePoint = key.charAt(i++);
+            final int bytes;
+            if (codePoint < 0x80) {
+                bytes = 1;
+            } else if (codePoint < 0x800) {
+                bytes = 2;
+            } else if (Character.isSurrogate((char) codePoint)) {
+                // Only a surrogate pair has an encoding; stored keys never contain lone surrogates.
+                if (!Character.isHighSurrogate((char) codePoint) || i == chars || !Character.isLowSurrogate(key.charAt(i))) {
+                    return false;
+                }
+                codePoint = Character.toCodePoint((char) codePoint, key.charAt(i++));
+                bytes = 4;
+            } else {
+                bytes = 3;
+            }
+            if (end - position < bytes) {
+                return false;
+            }
+            if (bytes == 1) {
+                if (chunk.get(position++) != codePoint) {
+                    return false;
+                }
+                continue;
+            }
+            // Lead byte 110xxxxx, 1110xxxx or 11110xxx, then 10xxxxxx continuation bytes.
+            if (chunk.get(position++) != (byte) ((0xff00 >>> bytes) | codePoint >>> (6 * (bytes - 1)))) {
+                return false;
+            }
+            for (int shift = 6 * (bytes - 2); shift >= 0; shift -= 6) {
+                if (chunk.get(position++) != (byte) (0x80 | (codePoint >>> shift) & 0x3f)) {
+                    return false;
+                }
+            }
+        }
+        return position == end;
+    }
+
+    private ByteBuffer encode(String key)
+    {
+        try {
+            return encoder.encode(CharBuffer.wrap(key));
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("key is not well-formed UTF-16: " + key, e);
+        }
+    }
+
+    /**
+     * Copy the key into the arena, prefixed with its varint length.
+     * @return the location of the key
+     */
+    private long append(ByteBuffer bytes)
+    {
+        final int length = bytes.remaining();
+        final int needed = lengthOfLength(length) + length;
+
+        final int chunkIndex;
+        if (needed > chunkSize) {
+            // Oversized keys get a chunk of their own, and do not disturb the current one.
+            chunkIndex = addChunk(needed);
+        } else {
+            if (currentChunk == -1 || chunks[currentChunk].remaining() < needed) {
+                currentChunk = addChunk(chunkSize);
+            }
+            chunkIndex = currentChunk;
+        }
+
+        final ByteBuffer chunk = chunks[chunkIndex];
+        final int position = chunk.position();
+        int remaining = length;
+        while ((remaining & ~0x7f) != 0) {
+            chunk.put((byte) ((remaining & 0x7f) | 0x80));
+            remaining >>>= 7;
+        }
+        chunk.put((byte) remaining);
+        chunk.put(bytes);
+
+        return ((long) chunkIndex << 32) | position;
+    }
+
+    private int addChunk(int capacity)
+    {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunkCount * 2));
+        }
+        chunks[chunkCount] = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return chunkCount++;
+    }
+
+    private void rehash(int newTableSize)
+    {
+        final int[] newTable = newTable(newTableSize);
+        final int mask = newTableSize - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (newTable[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id;
+        }
+        table = newTable;
+    }
+
+    private static int[] newTable(int tableSize)
+    {
+        final int[] result = new int[tableSize];
+        Arrays.fill(result, EMPTY);
+        return result;
+    }
+
+    private static int tableSizeFor(int capacity)
+    {
+        return Math.max(MIN_TABLE_SIZE, Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2);
+    }
+
+    private static int readLength(ByteBuffer chunk, int position)
+    {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk.get(position++);
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    private static int lengthOfLength(int length)
+    {
+        int result = 1;
+        while ((length & ~0x7f) != 0) {
+            length >>>= 7;
+            result++;
+        }
+        return result;
+    }
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return new SerProxy(Lists.newArrayList(getKeys()), chunkSize, offHeap);
+    }
+
+    private static class SerProxy implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final List<String> intToKey;
+        private final int chunkSize;
+        private final boolean offHeap;
+
+        SerProxy(List<String> intToKey, int chunkSize, boolean offHeap)
+        {
+            this.intToKey = intToKey;
+            this.chunkSize = chunkSize;
+            this.offHeap = offHeap;
+        }
+
+        private Object readResolve() throws ObjectStreamException
+        {
+            final StringArenaSequencer result = create(intToKey.size(), chunkSize, offHeap);
+            for (String key : intToKey) {
+                result.sequenceOrAdd(key);
+            }
+            return result;
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.nesscomputing.sequencer;
 
+import java.util.List;
+
 import javax.annotation.Nonnull;
 
 import com.google.common.base.Preconditions;
@@ -63,6 +65,50 @@ class SubSequenceView<K> extends ImmutableSequencer<K>
         }
     }
 
+    @Override
+    public void sequenceExisting(K[] keys, int[] result)
+    {
+        outerSequence.sequenceExisting(keys, result);
+        truncate(result, keys.length);
+    }
+
+    @Override
+    public void sequenceExisting(List<K> keys, int[] result)
+    {
+        outerSequence.sequenceExisting(keys, result);
+        truncate(result, keys.size());
+    }
+
+    /**
+     * Hide keys added to the outer sequencer after this view was taken.
+     */
+    private void truncate(int[] result, int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (result[i] >= numElements) {
+                result[i] = -1;
+            }
+        }
+    }
+
+    @Override
+    public void unsequence(int[] indexes, K[] result)
+    {
+        for (int index : indexes) {
+            if (index < 0 || index >= numElements) {
+                throw new IndexOutOfBoundsException("index " + index + " out of range [0," + numElements + ")");
+            }
+        }
+        outerSequence.unsequence(indexes, result);
+    }
+
+    @Override
+    public void unsequence(int fromIndex, int toIndex, K[] result, int offset)
+    {
+        checkRange(fromIndex, toIndex, numElements, result.length, offset);
+        outerSequence.unsequence(fromIndex, toIndex, result, offset);
+    }
+
     @Override
     @Nonnull
     public K unsequence(int index)
@@ -17,14 +17,21 @@ package com.nesscomputing.sequencer;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Test;
 
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.procedure.TObjectIntProcedure;
 
 public abstract class AbstractSequencerTest<S extends Sequencer<String>>
 {
@@ -142,6 +149,50 @@ public abstract class AbstractSequencerTest<S extends Sequencer<String>>
         assertEquals(2, result.get("ddd"));
     }
 
+    @Test
+    public void testBulkSequenceExisting()
+    {
+        S seq = extend(create("aaa", "bbb"), "ccc", "ddd");
+        int[] result = new int[6];
+        seq.sequenceExisting(new String[] { "ddd", "xxx", "aaa", "ccc" }, result);
+        assertArrayEquals(new int[] { 3, -1, 0, 2, 0, 0 }, result);
+
+        seq.sequenceExisting(ImmutableList.of("bbb", "yyy", "ccc"), result);
+        assertArrayEquals(new int[] { 1, -1, 2, 2, 0, 0 }, result);
+
+        ImmutableSequencer<String> sub = seq.subSequence(2);
+        sub.sequenceExisting(new String[] { "aaa", "ccc" }, result);
+        assertEquals(0, result[0]);
+        assertEquals(-1, result[1]);
+    }
+
+    @Test
+    public void testBulkUnsequence()
+    {
+        S seq = extend(create("aaa", "bbb"), "ccc", "ddd");
+        String[] result = new String[5];
+        seq.unsequence(new int[] { 3, 0, 2 }, result);
+        assertArrayEquals(new String[] { "ddd", "aaa", "ccc", null, null }, result);
+
+        seq.unsequence(1, 4, result, 2);
+        assertArrayEquals(new String[] { "ddd", "aaa", "bbb", "ccc", "ddd" }, result);
+
+        seq.subSequence(3).unsequence(0, 3, result, 0);
+        assertArrayEquals(new String[] { "aaa", "bbb", "ccc", "ccc", "ddd" }, result);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testBulkUnsequenceOutOfRange()
+    {
+        create("aaa", "bbb").unsequence(1, 3, new String[2], 0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBulkResultTooSmall()
+    {
+        create("aaa", "bbb").sequenceExisting(new String[] { "aaa", "bbb" }, new int[1]);
+    }
+
     @Test
     public void testFullSequencerEntrySet()
     {
@@ -186,4 +237,103 @@ public abstract class AbstractSequencerTest<S extends Sequencer<String>>
         assertEquals(create("a", "b"), create("a", "b", "c").subSequence(2));
         assertEquals(create(), create("a", "b", "c").subSequence(0));
     }
+
+    @Test
+    public void testCursor()
+    {
+        final S seq = extend(createEmpty(), "aaa", "bbb", "ccc");
+        final SequencerCursor<String> cursor = seq.cursor();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(cursor.next());
+                assertEquals(i, cursor.id());
+                assertEquals(seq.unsequence(i), cursor.key());
+            }
+            assertFalse(cursor.next());
+            assertFalse(cursor.next());
+            cursor.reset();
+        }
+
+        final SequencerCursor<String> range = seq.cursor(1, 2);
+        assertTrue(range.next());
+        assertEquals("bbb", range.key());
+        assertEquals(1, range.id());
+        assertFalse(range.next());
+        assertFalse(seq.cursor(3, 3).next());
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testCursorBadRange()
+    {
+        create("a", "b").cursor(1, 3);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testCursorBeforeNext()
+    {
+        create("a", "b").cursor().key();
+    }
+
+    @Test
+    public void testForEachEntry()
+    {
+        final S seq = extend(createEmpty(), "aaa", "bbb", "ccc");
+        final List<String> seen = Lists.newArrayList();
+        assertFalse(seq.forEachEntry(new TObjectIntProcedure<String>() {
+            @Override
+            public boolean execute(String key, int id)
+            {
+                assertEquals(seen.size(), id);
+                seen.add(key);
+                return id < 1;
+            }
+        }));
+        assertEquals(ImmutableList.of("aaa", "bbb"), seen);
+        assertTrue(createEmpty().forEachEntry(null));
+    }
+
+    @Test
+    public void testEqualsAndHashCodeMatchEntrySet()
+    {
+        final S seq = extend(createEmpty(), "aaa", "bbb", "ccc");
+        final Set<Entry<String, Integer>> entries = ImmutableSet.copyOf(seq.entrySet());
+        assertEquals(entries.hashCode(), seq.hashCode());
+        assertEquals(HashSequencer.copyOf("aaa", "bbb", "ccc"), seq);
+        assertEquals(seq, HashSequencer.copyOf("aaa", "bbb", "ccc"));
+        assertFalse(seq.equals(HashSequencer.copyOf("aaa", "ccc", "bbb")));
+        assertFalse(seq.equals(HashSequencer.copyOf("aaa", "bbb")));
+        assertFalse(seq.equals(entries));
+    }
+
+    @Test
+    public void testFingerprints()
+    {
+        final String[] keys = new String[150];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+        final S seq = extend(createEmpty(), keys);
+        assertEquals(Sequencers.fingerprint(HashSequencer.copyOf(keys)), Sequencers.fingerprint(seq));
+        assertEquals(HashSequencer.copyOf(keys).hashCode(), seq.hashCode());
+
+        for (int length : new int[] {0, 1, 63, 64, 65, 128, 149}) {
+            final Sequencer<String> prefix = HashSequencer.copyOf(Arrays.copyOf(keys, length));
+            assertEquals(Sequencers.fingerprint(prefix), Sequencers.prefixFingerprint(seq, length));
+            assertTrue(Sequencers.isPrefixOf(prefix, seq));
+            assertEquals(length == keys.length, Sequencers.isPrefixOf(seq, prefix));
+        }
+
+        assertFalse(Sequencers.isPrefixOf(HashSequencer.copyOf("key1", "key0"), seq));
+        assertFalse(Sequencers.fingerprint(HashSequencer.copyOf("key1", "key0")) == Sequencers.prefixFingerprint(seq, 2));
+
+        assertTrue(Sequencers.fingerprintsEqual(seq, HashSequencer.copyOf(keys)));
+        assertFalse(Sequencers.fingerprintsEqual(seq, HashSequencer.copyOf(Arrays.copyOf(keys, 149))));
+        assertFalse(Sequencers.fingerprintsEqual(HashSequencer.copyOf("key1", "key0"), HashSequencer.copyOf("key0", "key1")));
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testPrefixFingerprintTooLong()
+    {
+        Sequencers.prefixFingerprint(create("a"), 2);
+    }
 }
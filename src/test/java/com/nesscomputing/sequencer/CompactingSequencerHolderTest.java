@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+public class CompactingSequencerHolderTest
+{
+    @Test
+    public void testCompactsLargeShadowLayers()
+    {
+        CompactingSequencerHolder<String> holder = CompactingSequencerHolder.create(ImmutableSequencer.of("a", "b"), MoreExecutors.sameThreadExecutor(), 3);
+
+        ImmutableSequencer<String> seq = holder.extend(Arrays.asList("c", "d"));
+        assertEquals(2, seq.depth());
+        assertEquals(0, holder.getCompactionCount());
+
+        seq = holder.extend(Arrays.asList("e", "a", "f"));
+        assertEquals(6, seq.size());
+        assertEquals(1, holder.getCompactionCount());
+        assertEquals(1, holder.get().depth());
+        assertEquals(ImmutableSequencer.of("a", "b", "c", "d", "e", "f"), holder.get());
+        assertEquals(holder.getLastCompactionTime(TimeUnit.NANOSECONDS), holder.getCompactionTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testCompactsDeepInitialStack()
+    {
+        ImmutableSequencer<String> deep = new ImmutableShadowingSequencer<>(
+                new ImmutableShadowingSequencer<>(ImmutableSequencer.of("a", "b", "c", "d"), ImmutableSequencer.of("e")),
+                ImmutableSequencer.of("f"));
+        assertEquals(3, deep.depth());
+
+        CompactingSequencerHolder<String> holder = CompactingSequencerHolder.create(deep, MoreExecutors.sameThreadExecutor(), 100);
+        assertEquals(1, holder.get().depth());
+        assertEquals(deep, holder.get());
+    }
+
+    @Test
+    public void testSequenceOrAdd()
+    {
+        CompactingSequencerHolder<String> holder = CompactingSequencerHolder.create(ImmutableSequencer.of("a"), MoreExecutors.sameThreadExecutor(), 100);
+        int[] result = new int[3];
+        holder.sequenceOrAdd(new String[] {"b", "a", "b"}, result);
+        assertArrayEquals(new int[] {1, 0, 1}, result);
+        assertEquals(2, holder.get().size());
+    }
+
+    @Test
+    public void testReadersDuringCompaction() throws Exception
+    {
+        final int keyCount = 20000;
+        final CompactingSequencerHolder<String> holder = CompactingSequencerHolder.create(ImmutableSequencer.of("0"));
+        final AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int t = 0; t < 2; t++) {
+                futures.add(readers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        while (!done.get()) {
+                            // Whatever version is current, ids never change.
+                            final ImmutableSequencer<String> seq = holder.get();
+                            for (int id = Math.max(0, seq.size() - 32); id < seq.size(); id++) {
+                                assertEquals(id, seq.sequenceIfExists(Integer.toString(id)));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 1; i < keyCount; i += 10) {
+                final List<String> batch = Lists.newArrayList();
+                for (int j = i; j < i + 10 && j < keyCount; j++) {
+                    batch.add(Integer.toString(j));
+                }
+                holder.extend(batch);
+            }
+            done.set(true);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            readers.shutdown();
+        }
+        holder.close();
+
+        final ImmutableSequencer<String> seq = holder.get();
+        assertEquals(keyCount, seq.size());
+        for (int i = 0; i < keyCount; i++) {
+            assertEquals(i, seq.sequenceIfExists(Integer.toString(i)));
+        }
+        assertTrue(holder.getCompactionCount() > 0);
+    }
+}
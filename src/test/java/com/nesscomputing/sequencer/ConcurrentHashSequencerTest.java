@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+public class ConcurrentHashSequencerTest extends AbstractSequencerTest<ConcurrentHashSequencer<String>>
+{
+    @Override
+    protected ConcurrentHashSequencer<String> createEmpty()
+    {
+        return ConcurrentHashSequencer.create();
+    }
+
+    @Override
+    protected ConcurrentHashSequencer<String> extend(ConcurrentHashSequencer<String> from, String... newKeys)
+    {
+        for (String newKey : newKeys) {
+            from.sequenceOrAdd(newKey);
+        }
+        return from;
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception
+    {
+        final int threads = 8;
+        final int keysPerThread = 20000;
+        final ConcurrentHashSequencer<String> seq = createEmpty();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        start.await();
+                        for (int i = 0; i < keysPerThread; i++) {
+                            // Every thread adds every key, in a different order.
+                            String key = Integer.toString((i * 7 + offset * 1013) % keysPerThread);
+                            int id = seq.sequenceOrAdd(key);
+                            assertTrue(id < seq.size());
+                            assertEquals(key, seq.unsequence(id));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(keysPerThread, seq.size());
+        assertEquals(keysPerThread, Sets.newHashSet(seq.getKeys()).size());
+        for (int i = 0; i < seq.size(); i++) {
+            assertEquals(i, seq.sequenceIfExists(seq.unsequence(i)));
+        }
+        assertEquals(seq, ImmutableSequencer.copyOf(seq));
+    }
+
+    @Test
+    public void testLookupsAgreeWithSize() throws Exception
+    {
+        final int keys = 200000;
+        final ConcurrentHashSequencer<String> seq = createEmpty();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> reader = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception
+                {
+                    while (!done.get()) {
+                        // Every id below size() must already be found by key.
+                        final int size = seq.size();
+                        for (int i = Math.max(0, size - 64); i < size; i++) {
+                            String key = seq.unsequence(i);
+                            assertEquals(i, seq.sequenceIfExists(key));
+                            assertTrue(seq.containsKey(key));
+                        }
+                    }
+                    return null;
+                }
+            });
+            for (int i = 0; i < keys; i++) {
+                seq.sequenceOrAdd(Integer.toString(i));
+            }
+            done.set(true);
+            reader.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(keys, seq.size());
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+public class DurableSequencerTest extends AbstractSequencerTest<DurableSequencer<String>>
+{
+    private static File newLog()
+    {
+        try {
+            final File file = File.createTempFile("sequencer", ".log");
+            file.deleteOnExit();
+            file.delete();
+            return file;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static DurableSequencer<String> open(File file) throws IOException
+    {
+        return DurableSequencer.open(file, SequencerKeyCodecs.strings());
+    }
+
+    @Override
+    protected DurableSequencer<String> createEmpty()
+    {
+        try {
+            return open(newLog());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    protected DurableSequencer<String> extend(DurableSequencer<String> from, String... newKeys)
+    {
+        for (String newKey : newKeys) {
+            from.sequenceOrAdd(newKey);
+        }
+        return from;
+    }
+
+    @Test
+    public void testRecovery() throws IOException
+    {
+        final File file = newLog();
+        final DurableSequencer<String> seq = open(file);
+        seq.sequenceOrAdd("a");
+        seq.sequenceOrAdd(new String[] {"b", "a", "c"}, new int[3]);
+        assertEquals(3, seq.getDurableSize());
+        // No close: everything must already be on disk.
+
+        final DurableSequencer<String> recovered = open(file);
+        assertEquals(HashSequencer.copyOf("a", "b", "c"), recovered);
+        assertEquals(3, recovered.sequenceOrAdd("d"));
+        recovered.close();
+        seq.close();
+
+        assertEquals(HashSequencer.copyOf("a", "b", "c", "d"), open(file));
+    }
+
+    @Test
+    public void testTornFrameIsDiscarded() throws IOException
+    {
+        final File file = newLog();
+        final DurableSequencer<String> seq = open(file);
+        seq.sequenceOrAdd("a");
+        final long goodLength = file.length();
+        seq.sequenceOrAdd("b");
+        seq.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 2);
+        }
+        final DurableSequencer<String> recovered = open(file);
+        assertEquals(HashSequencer.copyOf("a"), recovered);
+        assertEquals(goodLength, file.length());
+        assertEquals(1, recovered.sequenceOrAdd("c"));
+        recovered.close();
+        assertEquals(HashSequencer.copyOf("a", "c"), open(file));
+    }
+
+    @Test(expected=IOException.class)
+    public void testNotALog() throws IOException
+    {
+        final File file = newLog();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeLong(42);
+        }
+        open(file);
+    }
+
+    @Test
+    public void testDelayedCommit() throws Exception
+    {
+        final File file = newLog();
+        final DurableSequencer<String> seq = DurableSequencer.open(file, SequencerKeyCodecs.strings(), 10, TimeUnit.MILLISECONDS);
+        seq.sequenceOrAdd("a");
+        seq.sequenceOrAdd("b");
+        for (int i = 0; i < 500 && seq.getDurableSize() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, seq.getDurableSize());
+
+        seq.sequenceOrAdd("c");
+        seq.sync();
+        assertEquals(3, seq.getDurableSize());
+        seq.close();
+        assertEquals(HashSequencer.copyOf("a", "b", "c"), open(file));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testAddAfterClose() throws IOException
+    {
+        final DurableSequencer<String> seq = createEmpty();
+        seq.sequenceOrAdd("a");
+        seq.close();
+        assertEquals(0, seq.sequenceOrAdd("a"));
+        seq.sequenceOrAdd("b");
+    }
+
+    @Test
+    public void testConcurrentGroupCommit() throws Exception
+    {
+        final int threads = 8;
+        final int keysPerThread = 500;
+        final File file = newLog();
+        final DurableSequencer<String> seq = open(file);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = Lists.newArrayList();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        start.await();
+                        for (int i = 0; i < keysPerThread; i++) {
+                            final int id = seq.sequenceOrAdd("key" + thread + "-" + i);
+                            assertTrue(seq.getDurableSize() > id);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        seq.close();
+
+        final DurableSequencer<String> recovered = open(file);
+        assertEquals(threads * keysPerThread, recovered.size());
+        assertEquals(seq, recovered);
+    }
+
+    @Test
+    public void testRejectsKeysAfterWriteFailure() throws Exception
+    {
+        final DurableSequencer<String> seq = DurableSequencer.open(newLog(), SequencerKeyCodecs.strings(), 1, TimeUnit.HOURS);
+        seq.sequenceOrAdd("a");
+        seq.sync();
+        seq.sequenceOrAdd("b");
+
+        // Break the log underneath the sequencer.
+        final Field channel = DurableSequencer.class.getDeclaredField("channel");
+        channel.setAccessible(true);
+        ((FileChannel) channel.get(seq)).close();
+        try {
+            seq.sync();
+            fail();
+        } catch (IOException expected) {
+            // ignored
+        }
+
+        try {
+            seq.sequenceOrAdd("c");
+            fail();
+        } catch (IllegalStateException expected) {
+            // ignored
+        }
+        try {
+            seq.sequenceOrAdd("b");
+            fail();
+        } catch (IllegalStateException expected) {
+            // ignored
+        }
+        assertEquals(0, seq.sequenceOrAdd("a"));
+        assertEquals(-1, seq.sequenceIfExists("b"));
+        assertFalse(seq.containsKey("b"));
+        assertEquals(1, seq.size());
+        assertEquals(1, seq.getDurableSize());
+    }
+
+    @Test
+    public void testSynchronousLookupsOnlySeeDurableKeys() throws Exception
+    {
+        final DurableSequencer<String> seq = DurableSequencer.open(newLog(), SequencerKeyCodecs.strings(), 0, TimeUnit.MILLISECONDS);
+        seq.sequenceOrAdd("a");
+
+        final Field keysField = DurableSequencer.class.getDeclaredField("keys");
+        keysField.setAccessible(true);
+        final Sequencer<?> keys = (Sequencer<?>) keysField.get(seq);
+        final Field lockField = DurableSequencer.class.getDeclaredField("commitLock");
+        lockField.setAccessible(true);
+        final Object commitLock = lockField.get(seq);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> writer;
+            synchronized (commitLock) {
+                // Hold the writer between adding "b" and committing it.
+                writer = executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call()
+                    {
+                        return seq.sequenceOrAdd("b");
+                    }
+                });
+                while (keys.size() < 2) {
+                    Thread.sleep(1);
+                }
+                assertEquals(1, seq.size());
+                assertEquals(1, seq.getDurableSize());
+                try {
+                    seq.unsequence(1);
+                    fail();
+                } catch (IndexOutOfBoundsException expected) {
+                    // ignored
+                }
+
+                // Finding the key commits it before handing out its id.
+                assertEquals(1, seq.sequenceIfExists("b"));
+                assertEquals(2, seq.getDurableSize());
+            }
+            assertEquals(1, writer.get(10, TimeUnit.SECONDS).intValue());
+            assertEquals("b", seq.unsequence(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -15,6 +15,21 @@
  */
 package com.nesscomputing.sequencer;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
 public class HashSequencerTest extends AbstractSequencerTest<HashSequencer<String>>
 {
     @Override
@@ -31,4 +46,74 @@ public class HashSequencerTest extends AbstractSequencerTest<HashSequencer<Strin
         }
         return from;
     }
+
+    @Test
+    public void testBulkSequenceOrAdd()
+    {
+        HashSequencer<String> seq = create("aaa");
+        int[] result = new int[4];
+        seq.sequenceOrAdd(new String[] { "bbb", "aaa", "ccc", "bbb" }, result);
+        assertArrayEquals(new int[] { 1, 0, 2, 1 }, result);
+        assertEquals(3, seq.size());
+
+        seq.sequenceOrAdd(ImmutableList.of("ddd", "ccc"), result);
+        assertEquals(3, result[0]);
+        assertEquals(2, result[1]);
+        assertEquals(ImmutableList.of("aaa", "bbb", "ccc", "ddd"), seq.getKeys());
+    }
+
+    @Test
+    public void testAcrossPages()
+    {
+        final int size = PagedList.PAGE_SIZE * 3 + 5;
+        HashSequencer<String> seq = HashSequencer.create();
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, seq.sequenceOrAdd(Integer.toString(i)));
+        }
+
+        String[] keys = new String[PagedList.PAGE_SIZE + 2];
+        seq.unsequence(PagedList.PAGE_SIZE - 1, PagedList.PAGE_SIZE * 2 + 1, keys, 0);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(Integer.toString(PagedList.PAGE_SIZE - 1 + i), keys[i]);
+        }
+
+        assertEquals(seq, SerializationUtils.clone(seq));
+        assertEquals(seq, ImmutableSequencer.copyOf(seq));
+        // Paged storage is an implementation detail, and stays out of the serialized form.
+        assertFalse(new String(SerializationUtils.serialize(seq), Charsets.ISO_8859_1).contains(PagedList.class.getName()));
+        assertEquals(seq, SerializationUtils.clone(ImmutableSequencer.copyOf(seq)));
+    }
+
+    @Test
+    public void testBatchOfExistingKeysDoesNotGrow() throws Exception
+    {
+        HashSequencer<String> seq = HashSequencer.create();
+        String[] keys = new String[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Integer.toString(i % 10);
+        }
+        seq.sequenceOrAdd(Arrays.copyOf(keys, 10), new int[10]);
+
+        Field field = HashSequencer.class.getDeclaredField("keyToInt");
+        field.setAccessible(true);
+        TObjectIntHashMap<?> keyToInt = (TObjectIntHashMap<?>) field.get(seq);
+        final int capacity = keyToInt.capacity();
+
+        int[] result = new int[keys.length];
+        seq.sequenceOrAdd(keys, result);
+        seq.sequenceOrAdd(Arrays.asList(keys), result);
+        assertEquals(capacity, keyToInt.capacity());
+        assertEquals(10, seq.size());
+        assertEquals(3, result[9993]);
+
+        // Repeated new keys in one batch get a single id.
+        seq.sequenceOrAdd(new String[] { "x", "1", "x", "y" }, result);
+        assertArrayEquals(new int[] { 10, 1, 10, 11 }, Arrays.copyOf(result, 4));
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testUnmodifiableBulkSequenceOrAdd()
+    {
+        Sequencers.unmodifiableSequencer(create("aaa")).sequenceOrAdd(new String[] { "aaa" }, new int[1]);
+    }
 }
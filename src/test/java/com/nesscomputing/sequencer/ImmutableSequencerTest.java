@@ -15,6 +15,12 @@
  */
 package com.nesscomputing.sequencer;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 
 public class ImmutableSequencerTest extends AbstractSequencerTest<ImmutableSequencer<String>>
@@ -46,4 +52,45 @@ public class ImmutableSequencerTest extends AbstractSequencerTest<ImmutableSeque
     {
         extend(createEmpty(), "aaa", "bbb").sequenceOrAdd("xxx");
     }
+
+    @Test
+    public void testParallelSequenceExisting()
+    {
+        HashSequencer<String> all = HashSequencer.create();
+        for (int i = 0; i < 150000; i++) {
+            all.sequenceOrAdd("key" + i);
+        }
+
+        String[] keys = new String[300000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + (keys.length - i);
+        }
+        int[] expected = new int[keys.length];
+        all.sequenceExisting(keys, expected);
+
+        ImmutableShadowingSequencerBuilder<String> builder = ImmutableSequencer.copyOf(all.subSequence(100000)).extendImmutableSequence();
+        for (int i = 100000; i < 150000; i++) {
+            builder.sequenceOrAdd(all.unsequence(i));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (ImmutableSequencer<String> seq : Arrays.asList(ImmutableSequencer.copyOf(all), all.subSequence(150000), builder.build())) {
+                int[] result = new int[keys.length];
+                seq.parallelSequenceExisting(keys, result, pool);
+                assertArrayEquals(expected, result);
+
+                result = new int[keys.length];
+                seq.parallelSequenceExisting(Arrays.asList(keys), result, pool);
+                assertArrayEquals(expected, result);
+            }
+
+            int[] small = new int[2];
+            all.subSequence(10).parallelSequenceExisting(new String[] { "key5", "key50" }, small, pool);
+            assertEquals(5, small[0]);
+            assertEquals(-1, small[1]);
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
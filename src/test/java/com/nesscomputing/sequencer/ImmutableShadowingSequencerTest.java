@@ -21,14 +21,18 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.List;
 import java.util.Random;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.Before;
 import org.junit.Test;
 
 import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 public class ImmutableShadowingSequencerTest
 {
@@ -204,4 +208,214 @@ public class ImmutableShadowingSequencerTest
         }
         assertEquals(2, result.depth());
     }
+
+    @Test
+    public void testTieredCompaction()
+    {
+        ShadowingCompactionPolicy policy = ShadowingCompactionPolicy.tiered(4, 100);
+        ImmutableSequencer<String> seq = Sequencers.emptySequencer();
+
+        int i = 0;
+        for (int count = 0; count < 1000; count++) {
+            ImmutableShadowingSequencerBuilder<String> builder = seq.extendImmutableSequence(policy);
+            for (int innerCount = 0; innerCount < 10; innerCount++) {
+                builder.sequenceOrAdd(Integer.toString(i++));
+            }
+            seq = builder.build();
+
+            // Layer sizes grow geometrically, so the depth stays logarithmic.
+            assertTrue("depth " + seq.depth(), seq.depth() <= 8);
+        }
+
+        assertEquals(i, seq.size());
+        for (int j = 0; j < i; j++) {
+            assertEquals(j, seq.sequenceIfExists(Integer.toString(j)));
+            assertEquals(Integer.toString(j), seq.unsequence(j));
+        }
+    }
+
+    @Test
+    public void testCompactionMaxDepth()
+    {
+        ShadowingCompactionPolicy unbounded = ShadowingCompactionPolicy.tiered(4, 100);
+        ShadowingCompactionPolicy bounded = ShadowingCompactionPolicy.tiered(4, 3);
+
+        // Every layer is ten times smaller than the one below, so only the depth bound merges them.
+        ImmutableSequencer<String> seq = Sequencers.emptySequencer();
+        ImmutableSequencer<String> boundedSeq = seq;
+        int i = 0;
+        for (int size = 1000; size >= 1; size /= 10) {
+            ImmutableShadowingSequencerBuilder<String> builder = seq.extendImmutableSequence(unbounded);
+            ImmutableShadowingSequencerBuilder<String> boundedBuilder = boundedSeq.extendImmutableSequence(bounded);
+            for (int j = 0; j < size; j++) {
+                builder.sequenceOrAdd(Integer.toString(i));
+                boundedBuilder.sequenceOrAdd(Integer.toString(i));
+                i++;
+            }
+            seq = builder.build();
+            boundedSeq = boundedBuilder.build();
+        }
+
+        assertEquals(4, seq.depth());
+        assertEquals(3, boundedSeq.depth());
+        assertEquals(seq, boundedSeq);
+    }
+
+    @Test
+    public void testCompactionKeepsLargeBase()
+    {
+        HashSequencer<String> big = HashSequencer.create();
+        for (int i = 0; i < 1000; i++) {
+            big.sequenceOrAdd("big" + i);
+        }
+        ImmutableSequencer<String> base = ImmutableSequencer.copyOf(big);
+
+        ImmutableShadowingSequencerBuilder<String> builder = base.extendImmutableSequence(ShadowingCompactionPolicy.tiered());
+        builder.sequenceOrAdd("small");
+        ImmutableSequencer<String> seq = builder.build();
+
+        assertEquals(2, seq.depth());
+        assertSame(base, ((ImmutableShadowingSequencer<String>) seq).getFirst());
+    }
+
+    @Test
+    public void testCompactionSharesUntouchedLayers()
+    {
+        ShadowingCompactionPolicy policy = ShadowingCompactionPolicy.tiered(4, 100);
+        ImmutableSequencer<String> seq = ImmutableSequencer.of(keys("a", 1000));
+        seq = extend(seq, policy, keys("b", 100));
+        seq = extend(seq, policy, keys("c", 10));
+        assertEquals(3, seq.depth());
+        ImmutableSequencer<String> bottom = ((ImmutableShadowingSequencer<String>) seq).getFirst();
+
+        // Merges the top two layers; the bottom two stay the very same node.
+        ImmutableSequencer<String> merged = extend(seq, policy, keys("d", 5));
+        assertEquals(3, merged.depth());
+        assertSame(bottom, ((ImmutableShadowingSequencer<String>) merged).getFirst());
+        assertTrue(Sequencers.isPrefixOf(bottom, merged));
+        assertTrue(Sequencers.isPrefixOf(seq, merged));
+    }
+
+    @Test
+    public void testCompactionKeepsPerfectHashIndex()
+    {
+        ShadowingCompactionPolicy policy = ShadowingCompactionPolicy.tiered(4, 100);
+        ImmutableSequencer<String> base = ImmutableSequencer.of(ImmutableSequencer.IndexType.PERFECT_HASH, keys("a", 10));
+        ImmutableSequencer<String> top = ImmutableSequencer.of(ImmutableSequencer.IndexType.PERFECT_HASH, keys("b", 10));
+        ImmutableSequencer<String> merged = policy.apply(base, top);
+        assertTrue(merged instanceof PerfectHashImmutableSequencer);
+        assertEquals(20, merged.size());
+        assertEquals(15, merged.sequenceIfExists("b5"));
+
+        ImmutableSequencer<String> mixed = policy.apply(base, ImmutableSequencer.of(keys("b", 10)));
+        assertTrue(mixed instanceof ImmutableSequencerImpl);
+        assertEquals(merged, mixed);
+    }
+
+    private static List<String> keys(String prefix, int count)
+    {
+        List<String> result = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            result.add(prefix + i);
+        }
+        return result;
+    }
+
+    private static ImmutableSequencer<String> extend(ImmutableSequencer<String> seq, ShadowingCompactionPolicy policy, List<String> keys)
+    {
+        ImmutableShadowingSequencerBuilder<String> builder = seq.extendImmutableSequence(policy);
+        for (String key : keys) {
+            builder.sequenceOrAdd(key);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testMembershipFilter() throws Exception
+    {
+        ImmutableSequencer<String> filtered = baseSeq.withMembershipFilter();
+        assertTrue(filtered.hasMembershipFilter());
+        assertSame(filtered, filtered.withMembershipFilter());
+        assertEquals(baseSeq, filtered);
+
+        ImmutableShadowingSequencerBuilder<String> builder = filtered.extendImmutableSequence();
+        builder.sequenceOrAdd("f");
+        builder.sequenceOrAdd("g");
+        ImmutableSequencer<String> seq = builder.build();
+        assertTrue(seq.hasMembershipFilter());
+
+        assertEquals(2, seq.sequence("c"));
+        assertEquals(6, seq.sequence("g"));
+        assertTrue(seq.containsKey("f"));
+        assertFalse(seq.containsKey("z"));
+        assertEquals(-1, seq.sequenceIfExists("z"));
+
+        TObjectIntMap<String> result = new TObjectIntHashMap<>();
+        seq.sequenceExisting(ImmutableSet.of("a", "g", "z"), result);
+        assertEquals(2, result.size());
+        assertEquals(0, result.get("a"));
+        assertEquals(6, result.get("g"));
+
+        ImmutableSequencer<String> copy = SerializationUtils.clone(filtered);
+        assertTrue(copy.hasMembershipFilter());
+        assertEquals(filtered, copy);
+    }
+
+    @Test
+    public void testMembershipFilterFalsePositives()
+    {
+        HashSequencer<String> seq = HashSequencer.create();
+        for (int i = 0; i < 10000; i++) {
+            seq.sequenceOrAdd("present" + i);
+        }
+        ImmutableSequencer<String> filtered = ImmutableSequencer.copyOf(seq).withMembershipFilter();
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filtered.mightContain("present" + i));
+            if (filtered.mightContain("absent" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 500);
+    }
+
+    @Test
+    public void testBulkSequenceOrAdd()
+    {
+        ImmutableShadowingSequencerBuilder<String> builder = baseSeq.extendImmutableSequence();
+        int[] result = new int[4];
+        builder.sequenceOrAdd(new String[] { "f", "b", "g", "f" }, result);
+        assertArrayEquals(new int[] { 5, 1, 6, 5 }, result);
+        assertEquals(7, builder.size());
+
+        String[] keys = new String[7];
+        builder.build().unsequence(0, 7, keys, 0);
+        assertArrayEquals(new String[] { "a", "b", "c", "d", "e", "f", "g" }, keys);
+    }
+
+    @Test
+    public void testFingerprintsAcrossLayers()
+    {
+        ImmutableSequencer<String> seq = baseSeq;
+        for (int layer = 0; layer < 3; layer++) {
+            final ImmutableShadowingSequencerBuilder<String> builder = seq.extendImmutableSequence(ShadowingCompactionPolicy.tiered(2, 8));
+            for (int i = 0; i < 100; i++) {
+                builder.sequenceOrAdd("layer" + layer + "-" + i);
+            }
+            assertEquals(Sequencers.fingerprint(HashSequencer.copyOf(builder)), Sequencers.fingerprint(builder));
+            assertTrue(Sequencers.isPrefixOf(seq, builder));
+
+            final ImmutableSequencer<String> next = builder.build();
+            assertTrue(Sequencers.isPrefixOf(seq, next));
+            assertFalse(Sequencers.isPrefixOf(next, seq));
+            assertEquals(HashSequencer.copyOf(next).hashCode(), next.hashCode());
+            for (int length = 0; length <= next.size(); length += 37) {
+                assertEquals(Sequencers.fingerprint(next.subSequence(length)), Sequencers.prefixFingerprint(next, length));
+            }
+            seq = next;
+        }
+        assertEquals(HashSequencer.copyOf(seq), seq);
+        assertEquals(ImmutableSequencer.copyOf(HashSequencer.copyOf(seq)), seq);
+    }
 }
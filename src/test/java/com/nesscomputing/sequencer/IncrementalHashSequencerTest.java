@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+public class IncrementalHashSequencerTest extends AbstractSequencerTest<IncrementalHashSequencer<String>>
+{
+    @Override
+    protected IncrementalHashSequencer<String> createEmpty()
+    {
+        return IncrementalHashSequencer.create();
+    }
+
+    @Override
+    protected IncrementalHashSequencer<String> extend(IncrementalHashSequencer<String> from, String... newKeys)
+    {
+        for (String newKey : newKeys) {
+            from.sequenceOrAdd(newKey);
+        }
+        return from;
+    }
+
+    @Test
+    public void testLookupsDuringMigration()
+    {
+        IncrementalHashSequencer<String> seq = IncrementalHashSequencer.create();
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(i, seq.sequenceOrAdd(Integer.toString(i)));
+            assertEquals(i, seq.sequenceOrAdd(Integer.toString(i)));
+
+            // Check the newest keys, which live only in the new table, and the oldest, which move first.
+            for (int j = Math.max(0, i - 8); j <= i; j++) {
+                assertEquals(j, seq.sequenceIfExists(Integer.toString(j)));
+            }
+            for (int j = 0; j < Math.min(i, 8); j++) {
+                assertTrue(seq.containsKey(Integer.toString(j)));
+            }
+            assertFalse(seq.containsKey(Integer.toString(i + 1)));
+        }
+
+        assertEquals(20000, seq.size());
+        for (int i = 0; i < seq.size(); i++) {
+            assertEquals(i, seq.sequenceIfExists(seq.unsequence(i)));
+        }
+        assertEquals(HashSequencer.copyOf(seq), seq);
+        assertEquals(seq, SerializationUtils.clone(seq));
+        assertFalse(new String(SerializationUtils.serialize(seq), Charsets.ISO_8859_1).contains(PagedList.class.getName()));
+    }
+
+    @Test
+    public void testClampsInitialCapacity()
+    {
+        IncrementalHashSequencer<String> seq = IncrementalHashSequencer.createWithInitialCapacity(Integer.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, seq.sequenceOrAdd(Integer.toString(i)));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, seq.sequenceIfExists(Integer.toString(i)));
+        }
+        assertEquals(0, seq.unmigrated());
+    }
+
+    @Test
+    public void testUnmigratedIdsDuringResize()
+    {
+        IncrementalHashSequencer<String> seq = IncrementalHashSequencer.create();
+        int i = 0;
+        while (i < 5000 || seq.unmigrated() == 0) {
+            seq.sequenceOrAdd(Integer.toString(i++));
+        }
+        seq.sequenceOrAdd(Integer.toString(i++));
+        final int unmigrated = seq.unmigrated();
+        assertTrue(unmigrated > 100);
+
+        // The highest ids of the old table are the last to move.
+        final int oldSize = i - 1;
+        for (int id = oldSize - unmigrated; id < oldSize; id++) {
+            final String key = Integer.toString(id);
+            assertEquals(id, seq.sequenceIfExists(key));
+            assertTrue(seq.containsKey(key));
+        }
+        assertEquals(unmigrated, seq.unmigrated());
+
+        // Adding existing keys must neither duplicate them nor advance the migration.
+        assertEquals(oldSize - 1, seq.sequenceOrAdd(Integer.toString(oldSize - 1)));
+        assertEquals(i, seq.size());
+        assertEquals(unmigrated, seq.unmigrated());
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.ImmutableList;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import com.nesscomputing.sequencer.SequencerMetrics.Operation;
+import com.nesscomputing.sequencer.SequencerMetrics.OperationSnapshot;
+
+public class InstrumentedSequencerTest extends AbstractSequencerTest<InstrumentedSequencer<String>>
+{
+    @Override
+    protected InstrumentedSequencer<String> createEmpty()
+    {
+        return InstrumentedSequencer.of(HashSequencer.<String>create(), SequencerMetrics.create());
+    }
+
+    @Override
+    protected InstrumentedSequencer<String> extend(InstrumentedSequencer<String> from, String... newKeys)
+    {
+        for (String newKey : newKeys) {
+            from.sequenceOrAdd(newKey);
+        }
+        return from;
+    }
+
+    @Test
+    public void testCounters() throws Exception
+    {
+        final InstrumentedSequencer<String> seq = InstrumentedSequencer.of(HashSequencer.<String>create(), SequencerMetrics.create(1));
+        seq.sequenceOrAdd("a");
+        seq.sequenceOrAdd("b");
+        seq.sequenceOrAdd("a");
+        seq.sequenceOrAdd(new String[] {"b", "c", "d"}, new int[3]);
+        assertEquals(0, seq.sequence("a"));
+        assertEquals(-1, seq.sequenceIfExists("x"));
+        assertFalse(seq.containsKey("y"));
+        seq.sequenceExisting(new String[] {"a", "x", "c"}, new int[3]);
+        seq.sequenceExisting(ImmutableList.of("d", "z"));
+        seq.unsequence(0, 3, new String[3], 0);
+
+        final SequencerMetrics.Snapshot snapshot = seq.getMetrics().snapshot();
+        final OperationSnapshot adds = snapshot.get(Operation.SEQUENCE_OR_ADD);
+        assertEquals(4, adds.getCalls());
+        assertEquals(6, adds.getKeys());
+        assertEquals(2, adds.getHits());
+        assertEquals(4, adds.getAdded());
+
+        final OperationSnapshot lookups = snapshot.get(Operation.SEQUENCE_IF_EXISTS);
+        assertEquals(3, lookups.getCalls());
+        assertEquals(1, lookups.getHits());
+        assertEquals(2, lookups.getMisses());
+
+        final OperationSnapshot batches = snapshot.get(Operation.SEQUENCE_EXISTING);
+        assertEquals(2, batches.getCalls());
+        assertEquals(5, batches.getKeys());
+        assertEquals(3, batches.getHits());
+        assertEquals(2, batches.getMisses());
+        assertEquals(0.6, batches.getHitRatio(), 1e-9);
+
+        final OperationSnapshot unsequences = snapshot.get(Operation.UNSEQUENCE);
+        assertEquals(1, unsequences.getCalls());
+        assertEquals(3, unsequences.getKeys());
+    }
+
+    @Test
+    public void testSequenceMissCounted()
+    {
+        final InstrumentedSequencer<String> seq = createEmpty();
+        try {
+            seq.sequence("a");
+            fail();
+        } catch (SequencerKeyException e) {
+            // expected
+        }
+        assertEquals(1, seq.getMetrics().snapshot().get(Operation.SEQUENCE_IF_EXISTS).getMisses());
+    }
+
+    @Test
+    public void testSampling()
+    {
+        final InstrumentedSequencer<String> seq = InstrumentedSequencer.of(HashSequencer.<String>create(), SequencerMetrics.create(4));
+        for (int i = 0; i < 100; i++) {
+            seq.sequenceIfExists("a");
+        }
+
+        final OperationSnapshot lookups = seq.getMetrics().snapshot().get(Operation.SEQUENCE_IF_EXISTS);
+        assertEquals(100, lookups.getCalls());
+        assertEquals(25, sum(lookups.getLatencyHistogram()));
+        assertEquals(25, lookups.getBatchSizeHistogram()[0]);
+        assertTrue(lookups.getLatencyQuantile(0.99) > 0);
+        assertEquals(0, seq.getMetrics().snapshot().get(Operation.UNSEQUENCE).getLatencyQuantile(0.5));
+    }
+
+    @Test
+    public void testBuckets()
+    {
+        assertEquals(0, SequencerMetrics.bucket(0, 32));
+        assertEquals(0, SequencerMetrics.bucket(1, 32));
+        assertEquals(1, SequencerMetrics.bucket(3, 32));
+        assertEquals(6, SequencerMetrics.bucket(64, 32));
+        assertEquals(31, SequencerMetrics.bucket(Long.MAX_VALUE, 32));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadSampleInterval()
+    {
+        SequencerMetrics.create(3);
+    }
+
+    @Test
+    public void testComposition()
+    {
+        final SequencerMetrics metrics = SequencerMetrics.create(1);
+        final InstrumentedSequencer<String> seq = InstrumentedSequencer.of(HashSequencer.copyOf("a", "b"), metrics);
+
+        final Sequencer<String> unmodifiable = Sequencers.unmodifiableSequencer(seq);
+        assertEquals(1, unmodifiable.sequenceIfExists("b"));
+        try {
+            unmodifiable.sequenceOrAdd("c");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        final InstrumentedSequencer<String> snapshot = InstrumentedSequencer.of(seq.subSequence(2), metrics);
+        assertEquals(-1, snapshot.sequenceIfExists("c"));
+        assertEquals(seq, snapshot);
+
+        final OperationSnapshot lookups = metrics.snapshot().get(Operation.SEQUENCE_IF_EXISTS);
+        assertEquals(2, lookups.getCalls());
+        assertEquals(1, lookups.getHits());
+        assertEquals(1, lookups.getMisses());
+        assertEquals(0, metrics.snapshot().get(Operation.SEQUENCE_OR_ADD).getCalls());
+    }
+
+    @Test
+    public void testReporter()
+    {
+        final InstrumentedSequencer<String> seq = extend(createEmpty(), "a", "b");
+        final AtomicReference<SequencerMetrics.Snapshot> reported = new AtomicReference<>();
+        seq.getMetrics().report(new SequencerMetrics.Reporter() {
+            @Override
+            public void report(SequencerMetrics.Snapshot snapshot)
+            {
+                reported.set(snapshot);
+            }
+        });
+        assertEquals(2, reported.get().get(Operation.SEQUENCE_OR_ADD).getAdded());
+        assertEquals(SequencerMetrics.DEFAULT_SAMPLE_INTERVAL, reported.get().getSampleInterval());
+    }
+
+    @Test
+    public void testSerializationDropsMetrics()
+    {
+        final InstrumentedSequencer<String> seq = extend(createEmpty(), "a", "b");
+        final Object copy = SerializationUtils.deserialize(SerializationUtils.serialize(seq));
+        assertSame(HashSequencer.class, copy.getClass());
+        assertArrayEquals(new Object[] {"a", "b"}, ((Sequencer<?>) copy).getKeys().toArray());
+    }
+
+    private static long sum(long[] values)
+    {
+        long result = 0;
+        for (long value : values) {
+            result += value;
+        }
+        return result;
+    }
+}
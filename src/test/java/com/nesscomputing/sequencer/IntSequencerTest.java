@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+public class IntSequencerTest
+{
+    @Test
+    public void testSequenceOrAdd()
+    {
+        IntHashSequencer seq = IntHashSequencer.create();
+        assertEquals(0, seq.sequenceOrAdd(100));
+        assertEquals(1, seq.sequenceOrAdd(-5));
+        assertEquals(0, seq.sequenceOrAdd(100));
+        assertEquals(2, seq.sequenceOrAdd(Integer.MAX_VALUE));
+
+        assertEquals(3, seq.size());
+        assertEquals(1, seq.sequenceIfExists(-5));
+        assertEquals(-1, seq.sequenceIfExists(7));
+        assertEquals(Integer.MAX_VALUE, seq.unsequenceInt(2));
+        assertTrue(seq.containsKey(-5));
+        assertTrue(seq.containsKey(Integer.valueOf(-5)));
+        assertFalse(seq.containsKey(Long.valueOf(-5L)));
+        assertEquals(ImmutableList.of(100, -5, Integer.MAX_VALUE), seq.getKeys());
+    }
+
+    @Test
+    public void testBatch()
+    {
+        IntHashSequencer seq = IntHashSequencer.copyOf(10, 20, 30);
+        assertArrayEquals(new int[] {2, 3, 0, 3}, seq.sequenceOrAdd(new int[] {30, 40, 10, 40}));
+        assertArrayEquals(new int[] {1, -1, 3}, seq.sequenceExisting(new int[] {20, 50, 40}));
+        assertArrayEquals(new int[] {40, 10}, seq.unsequence(new int[] {3, 0}));
+    }
+
+    @Test
+    public void testBoxedEquality()
+    {
+        IntHashSequencer seq = IntHashSequencer.copyOf(3, 1, 2);
+        assertEquals(HashSequencer.copyOf(3, 1, 2), seq);
+        assertEquals(seq, ImmutableIntSequencer.copyOf(seq));
+        assertEquals(seq, ImmutableSequencer.copyOf(seq));
+    }
+
+    @Test(expected=SequencerKeyException.class)
+    public void testSequenceMissing() throws SequencerKeyException
+    {
+        ImmutableIntSequencer.copyOf(1, 2).sequence(3);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testImmutableAddFails()
+    {
+        ImmutableIntSequencer.copyOf(1, 2).sequenceOrAdd(3);
+    }
+
+    @Test
+    public void testShadowing()
+    {
+        ImmutableIntSequencer base = ImmutableIntSequencer.copyOf(1, 2, 3);
+        ImmutableIntShadowingSequencerBuilder builder = base.extendImmutableIntSequence();
+        assertEquals(1, builder.sequenceOrAdd(2));
+        assertEquals(3, builder.sequenceOrAdd(4));
+        assertArrayEquals(new int[] {4, 0}, builder.sequenceOrAdd(new int[] {5, 1}));
+
+        ImmutableIntSequencer seq = builder.build();
+        assertTrue(seq instanceof ImmutableIntShadowingSequencer);
+        assertEquals(5, seq.size());
+        assertArrayEquals(new int[] {0, 4, -1, 2}, seq.sequenceExisting(new int[] {1, 5, 6, 3}));
+        assertEquals(4, seq.unsequenceInt(3));
+
+        ImmutableIntSequencer extended = seq.extendImmutableIntSequence().build();
+        assertEquals(seq, extended);
+        assertEquals(seq, builder.buildAndCompact());
+        assertEquals(2, seq.extendImmutableIntSequence().build().depth());
+    }
+
+    @Test
+    public void testSerialization()
+    {
+        IntHashSequencer seq = IntHashSequencer.copyOf(5, 6, 7);
+        assertEquals(seq, SerializationUtils.deserialize(SerializationUtils.serialize(seq)));
+
+        ImmutableIntShadowingSequencerBuilder builder = ImmutableIntSequencer.copyOf(seq).extendImmutableIntSequence();
+        builder.sequenceOrAdd(8);
+        ImmutableIntSequencer shadowed = builder.build();
+        Object copy = SerializationUtils.deserialize(SerializationUtils.serialize(shadowed));
+        assertTrue(copy instanceof ImmutableIntSequencerImpl);
+        assertEquals(shadowed, copy);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+public class LongSequencerTest
+{
+    @Test
+    public void testSequenceOrAdd()
+    {
+        LongHashSequencer seq = LongHashSequencer.create();
+        assertEquals(0, seq.sequenceOrAdd(100L));
+        assertEquals(1, seq.sequenceOrAdd(-5L));
+        assertEquals(0, seq.sequenceOrAdd(100L));
+        assertEquals(2, seq.sequenceOrAdd(Long.MAX_VALUE));
+
+        assertEquals(3, seq.size());
+        assertEquals(1, seq.sequenceIfExists(-5L));
+        assertEquals(-1, seq.sequenceIfExists(7L));
+        assertEquals(Long.MAX_VALUE, seq.unsequenceLong(2));
+        assertTrue(seq.containsKey(-5L));
+        assertTrue(seq.containsKey(Long.valueOf(-5L)));
+        assertFalse(seq.containsKey(Integer.valueOf(-5)));
+        assertEquals(ImmutableList.of(100L, -5L, Long.MAX_VALUE), seq.getKeys());
+    }
+
+    @Test
+    public void testBatch()
+    {
+        LongHashSequencer seq = LongHashSequencer.copyOf(10L, 20L, 30L);
+        assertArrayEquals(new int[] {2, 3, 0, 3}, seq.sequenceOrAdd(new long[] {30L, 40L, 10L, 40L}));
+        assertArrayEquals(new int[] {1, -1, 3}, seq.sequenceExisting(new long[] {20L, 50L, 40L}));
+        assertArrayEquals(new long[] {40L, 10L}, seq.unsequence(new int[] {3, 0}));
+    }
+
+    @Test
+    public void testBoxedEquality()
+    {
+        LongHashSequencer seq = LongHashSequencer.copyOf(3L, 1L, 2L);
+        assertEquals(HashSequencer.copyOf(3L, 1L, 2L), seq);
+        assertEquals(seq, ImmutableLongSequencer.copyOf(seq));
+        assertEquals(seq, ImmutableSequencer.copyOf(seq));
+    }
+
+    @Test(expected=SequencerKeyException.class)
+    public void testSequenceMissing() throws SequencerKeyException
+    {
+        ImmutableLongSequencer.copyOf(1L, 2L).sequence(3L);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testImmutableAddFails()
+    {
+        ImmutableLongSequencer.copyOf(1L, 2L).sequenceOrAdd(3L);
+    }
+
+    @Test
+    public void testShadowing()
+    {
+        ImmutableLongSequencer base = ImmutableLongSequencer.copyOf(1L, 2L, 3L);
+        ImmutableLongShadowingSequencerBuilder builder = base.extendImmutableLongSequence();
+        assertEquals(1, builder.sequenceOrAdd(2L));
+        assertEquals(3, builder.sequenceOrAdd(4L));
+        assertArrayEquals(new int[] {4, 0}, builder.sequenceOrAdd(new long[] {5L, 1L}));
+
+        ImmutableLongSequencer seq = builder.build();
+        assertTrue(seq instanceof ImmutableLongShadowingSequencer);
+        assertEquals(5, seq.size());
+        assertArrayEquals(new int[] {0, 4, -1, 2}, seq.sequenceExisting(new long[] {1L, 5L, 6L, 3L}));
+        assertEquals(4L, seq.unsequenceLong(3));
+
+        ImmutableLongSequencer extended = seq.extendImmutableLongSequence().build();
+        assertEquals(seq, extended);
+        assertEquals(seq, builder.buildAndCompact());
+        assertEquals(2, seq.extendImmutableLongSequence().build().depth());
+    }
+
+    @Test
+    public void testSerialization()
+    {
+        LongHashSequencer seq = LongHashSequencer.copyOf(5L, 6L, 7L);
+        assertEquals(seq, SerializationUtils.deserialize(SerializationUtils.serialize(seq)));
+
+        ImmutableLongShadowingSequencerBuilder builder = ImmutableLongSequencer.copyOf(seq).extendImmutableLongSequence();
+        builder.sequenceOrAdd(8L);
+        ImmutableLongSequencer shadowed = builder.build();
+        Object copy = SerializationUtils.deserialize(SerializationUtils.serialize(shadowed));
+        assertTrue(copy instanceof ImmutableLongSequencerImpl);
+        assertEquals(shadowed, copy);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+public class MappedImmutableSequencerTest extends AbstractSequencerTest<ImmutableSequencer<String>>
+{
+    @Override
+    protected ImmutableSequencer<String> createEmpty()
+    {
+        return map(HashSequencer.<String>create(), SequencerKeyCodecs.strings());
+    }
+
+    @Override
+    protected ImmutableSequencer<String> extend(ImmutableSequencer<String> from, String... newKeys)
+    {
+        HashSequencer<String> seq = HashSequencer.copyOf(from);
+        for (String newKey : newKeys) {
+            seq.sequenceOrAdd(newKey);
+        }
+        return map(seq, SequencerKeyCodecs.strings());
+    }
+
+    /**
+     * Use tiny segments, so that keys and the index straddle segment boundaries.
+     */
+    private static <K> ImmutableSequencer<K> map(Sequencer<K> seq, SequencerKeyCodec<K> codec)
+    {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MappedImmutableSequencer.write(seq, codec, out);
+            return MappedImmutableSequencer.wrap(ByteBuffer.wrap(out.toByteArray()), codec, 4);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Test
+    public void testLargeSequencer()
+    {
+        HashSequencer<String> seq = HashSequencer.create();
+        for (int i = 0; i < 10000; i++) {
+            seq.sequenceOrAdd("key-" + i * 7);
+        }
+        ImmutableSequencer<String> mapped = map(seq, SequencerKeyCodecs.strings());
+        assertEquals(seq, mapped);
+        assertEquals(7000, mapped.sequenceIfExists("key-49000"));
+        assertFalse(mapped.containsKey("key-1"));
+    }
+
+    @Test
+    public void testLongKeys()
+    {
+        ImmutableSequencer<Long> mapped = map(HashSequencer.copyOf(Long.MIN_VALUE, -1L, 0L, 300L, Long.MAX_VALUE), SequencerKeyCodecs.longs());
+        assertEquals(Lists.newArrayList(Long.MIN_VALUE, -1L, 0L, 300L, Long.MAX_VALUE), mapped.getKeys());
+        assertEquals(3, mapped.sequenceIfExists(300L));
+        assertEquals(-1, mapped.sequenceIfExists(301L));
+    }
+
+    @Test
+    public void testIntKeys()
+    {
+        ImmutableSequencer<Integer> mapped = map(HashSequencer.copyOf(Integer.MIN_VALUE, 5, -64, Integer.MAX_VALUE), SequencerKeyCodecs.ints());
+        assertEquals(Lists.newArrayList(Integer.MIN_VALUE, 5, -64, Integer.MAX_VALUE), mapped.getKeys());
+        assertTrue(mapped.containsKey(-64));
+    }
+
+    @Test
+    public void testContainsKeyOfOtherType()
+    {
+        ImmutableSequencer<Long> mapped = map(HashSequencer.copyOf(1L, 2L), SequencerKeyCodecs.longs());
+        assertFalse(mapped.containsKey("1"));
+        assertFalse(mapped.containsKey(1));
+        assertTrue(mapped.containsKey(1L));
+    }
+
+    @Test(expected=IOException.class)
+    public void testBadMagic() throws IOException
+    {
+        MappedImmutableSequencer.wrap(ByteBuffer.allocate(64), SequencerKeyCodecs.strings());
+    }
+
+    @Test(expected=IOException.class)
+    public void testTruncated() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MappedImmutableSequencer.write(HashSequencer.copyOf("a", "b", "c"), SequencerKeyCodecs.strings(), out);
+        MappedImmutableSequencer.wrap(ByteBuffer.wrap(out.toByteArray(), 0, out.size() - 1), SequencerKeyCodecs.strings());
+    }
+
+    @Test
+    public void testCorruptHeader() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MappedImmutableSequencer.write(HashSequencer.copyOf("a", "b", "c"), SequencerKeyCodecs.strings(), out);
+        final int tableSize = ByteBuffer.wrap(out.toByteArray()).getInt(12);
+
+        assertCorrupt(out.toByteArray(), 8, -1);
+        assertCorrupt(out.toByteArray(), 8, tableSize);
+        assertCorrupt(out.toByteArray(), 12, tableSize - 1);
+        assertCorrupt(out.toByteArray(), 12, 0);
+    }
+
+    private static void assertCorrupt(byte[] file, int headerOffset, int value)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        buffer.putInt(headerOffset, value);
+        try {
+            MappedImmutableSequencer.wrap(buffer, SequencerKeyCodecs.strings());
+            fail();
+        } catch (IOException expected) {
+            // ignored
+        }
+    }
+}
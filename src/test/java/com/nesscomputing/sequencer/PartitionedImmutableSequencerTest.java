@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class PartitionedImmutableSequencerTest extends AbstractSequencerTest<ImmutableSequencer<String>>
+{
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Override
+    protected ImmutableSequencer<String> createEmpty()
+    {
+        return ImmutableSequencer.parallelOf(Arrays.<String>asList(), pool);
+    }
+
+    @Override
+    protected ImmutableSequencer<String> extend(ImmutableSequencer<String> from, String... newKeys)
+    {
+        List<String> keys = Lists.newArrayList(from.getKeys());
+        keys.addAll(Arrays.asList(newKeys));
+        return ImmutableSequencer.parallelOf(keys, pool);
+    }
+
+    @Test
+    public void testLarge()
+    {
+        List<String> keys = Lists.newArrayList();
+        for (int i = 0; i < 200000; i++) {
+            keys.add("key" + i);
+        }
+        ImmutableSequencer<String> seq = ImmutableSequencer.parallelOf(keys, pool);
+        assertTrue(seq instanceof PartitionedImmutableSequencer);
+        assertEquals(HashSequencer.copyOf(keys), seq);
+    }
+
+    @Test
+    public void testDuplicatesKeepFirstOccurrence()
+    {
+        Random r = new Random(1234);
+        List<String> keys = Lists.newArrayList();
+        HashSequencer<String> expected = HashSequencer.create();
+        for (int i = 0; i < 200000; i++) {
+            String key = "key" + r.nextInt(50000);
+            keys.add(key);
+            expected.sequenceOrAdd(key);
+        }
+
+        ImmutableSequencer<String> seq = ImmutableSequencer.parallelOf(keys, pool);
+        assertEquals(expected.size(), seq.size());
+        assertEquals(expected, seq);
+        for (String key : expected.getKeys()) {
+            assertEquals(expected.sequenceIfExists(key), seq.sequenceIfExists(key));
+        }
+        assertEquals(-1, seq.sequenceIfExists("key50000"));
+    }
+
+    @Test
+    public void testSingleThreaded()
+    {
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            assertEquals(HashSequencer.copyOf("a", "b", "c"), ImmutableSequencer.parallelOf(Arrays.asList("a", "b", "a", "c", "b"), single));
+        } finally {
+            single.shutdown();
+        }
+    }
+}
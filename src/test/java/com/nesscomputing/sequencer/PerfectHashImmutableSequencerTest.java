@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.nesscomputing.sequencer.ImmutableSequencer.IndexType;
+
+public class PerfectHashImmutableSequencerTest extends AbstractSequencerTest<ImmutableSequencer<String>>
+{
+    @Override
+    protected ImmutableSequencer<String> createEmpty()
+    {
+        return ImmutableSequencer.of(IndexType.PERFECT_HASH, Arrays.<String>asList());
+    }
+
+    @Override
+    protected ImmutableSequencer<String> extend(ImmutableSequencer<String> from, String... newKeys)
+    {
+        List<String> keys = Lists.newArrayList(from.getKeys());
+        keys.addAll(Arrays.asList(newKeys));
+        return ImmutableSequencer.of(IndexType.PERFECT_HASH, keys);
+    }
+
+    @Test
+    public void testLarge() throws Exception
+    {
+        HashSequencer<String> seq = HashSequencer.create();
+        for (int i = 0; i < 100000; i++) {
+            seq.sequenceOrAdd("key-" + i);
+        }
+        ImmutableSequencer<String> phf = ImmutableSequencer.copyOf(IndexType.PERFECT_HASH, seq);
+        assertTrue(phf instanceof PerfectHashImmutableSequencer);
+        assertEquals(seq, phf);
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i, phf.sequence("key-" + i));
+            assertEquals(-1, phf.sequenceIfExists("missing-" + i));
+        }
+    }
+
+    @Test
+    public void testIdenticalHashCodes() throws Exception
+    {
+        // "Aa" and "BB" share a hash code, and so do all their concatenations.
+        List<String> keys = Lists.newArrayList("Aa", "BB", "x", "AaAa", "AaBB", "BBAa", "BBBB", "y");
+        ImmutableSequencer<String> seq = ImmutableSequencer.of(IndexType.PERFECT_HASH, keys);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, seq.sequence(keys.get(i)));
+        }
+        assertFalse(seq.containsKey("AaAaAa"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDuplicates()
+    {
+        ImmutableSequencer.of(IndexType.PERFECT_HASH, Arrays.asList("a", "b", "a"));
+    }
+
+    @Test
+    public void testCopyOf()
+    {
+        ImmutableSequencer<String> seq = ImmutableSequencer.of(IndexType.PERFECT_HASH, Arrays.asList("a", "b"));
+        assertSame(seq, ImmutableSequencer.copyOf(IndexType.PERFECT_HASH, seq));
+
+        ImmutableSequencer<String> hashed = ImmutableSequencer.copyOf(IndexType.HASH_TABLE, seq);
+        assertTrue(hashed instanceof ImmutableSequencerImpl);
+        assertEquals(seq, hashed);
+    }
+
+    @Test
+    public void testSerialization()
+    {
+        ImmutableSequencer<String> seq = ImmutableSequencer.of(IndexType.PERFECT_HASH, Arrays.asList("a", "b", "c"));
+        ImmutableSequencer<String> copy = SerializationUtils.clone(seq);
+        assertTrue(copy instanceof PerfectHashImmutableSequencer);
+        assertEquals(seq, copy);
+    }
+}
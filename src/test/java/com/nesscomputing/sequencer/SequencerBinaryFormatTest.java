@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+public class SequencerBinaryFormatTest
+{
+    private static <K> ImmutableSequencer<K> roundTrip(Sequencer<K> seq, SequencerKeyCodec<K> codec) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SequencerBinaryWriter<>(out, codec).write(seq).finish();
+        try (SequencerBinaryReader<K> reader = new SequencerBinaryReader<>(new ByteArrayInputStream(out.toByteArray()), codec)) {
+            return reader.read();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        ImmutableSequencer<String> result = roundTrip(HashSequencer.<String>create(), SequencerKeyCodecs.strings());
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testHashSequencer() throws IOException
+    {
+        HashSequencer<String> seq = HashSequencer.copyOf("a", "bb", "ccc", "ü");
+        assertEquals(seq, roundTrip(seq, SequencerKeyCodecs.strings()));
+    }
+
+    @Test
+    public void testLongSequencer() throws IOException
+    {
+        LongHashSequencer seq = LongHashSequencer.copyOf(Long.MIN_VALUE, 0L, 1L, -1L, Long.MAX_VALUE);
+        assertEquals(seq, roundTrip(seq, SequencerKeyCodecs.longs()));
+    }
+
+    @Test
+    public void testLayersArePreserved() throws IOException
+    {
+        ImmutableShadowingSequencerBuilder<String> builder = ImmutableSequencer.of("a", "b", "c").extendImmutableSequence();
+        builder.sequenceOrAdd("d");
+        builder.sequenceOrAdd("e");
+        ImmutableSequencer<String> seq = builder.build();
+        assertEquals(2, seq.depth());
+
+        ImmutableSequencer<String> result = roundTrip(seq, SequencerKeyCodecs.strings());
+        assertEquals(seq, result);
+        assertEquals(2, result.depth());
+
+        builder = seq.extendImmutableSequence();
+        builder.sequenceOrAdd("f");
+        result = roundTrip(builder, SequencerKeyCodecs.strings());
+        assertEquals(builder, result);
+        assertEquals(2, result.depth());
+    }
+
+    @Test
+    public void testStreamingAndChannels() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SequencerBinaryWriter<Integer> writer = new SequencerBinaryWriter<>(Channels.newChannel(out), SequencerKeyCodecs.ints());
+        writer.beginLayer(2);
+        writer.writeKey(10);
+        writer.writeKey(-10);
+        writer.beginLayer(1);
+        writer.writeKey(1000000);
+        writer.finish();
+
+        SequencerBinaryReader<Integer> reader = new SequencerBinaryReader<>(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), SequencerKeyCodecs.ints());
+        assertEquals(2, reader.nextLayer());
+        assertEquals(Integer.valueOf(10), reader.readKey());
+        assertEquals(1, reader.nextLayer());
+        assertEquals(Integer.valueOf(1000000), reader.readKey());
+        assertEquals(-1, reader.nextLayer());
+    }
+
+    @Test(expected=IOException.class)
+    public void testDuplicateKeys() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SequencerBinaryWriter<String> writer = new SequencerBinaryWriter<>(out, SequencerKeyCodecs.strings());
+        writer.beginLayer(2);
+        writer.writeKey("a");
+        writer.writeKey("a");
+        writer.finish();
+
+        new SequencerBinaryReader<>(new ByteArrayInputStream(out.toByteArray()), SequencerKeyCodecs.strings()).read();
+    }
+
+    @Test(expected=IOException.class)
+    public void testBadMagic() throws IOException
+    {
+        new SequencerBinaryReader<>(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}), SequencerKeyCodecs.strings());
+    }
+
+    @Test(expected=IOException.class)
+    public void testNegativeLayerSize() throws IOException
+    {
+        readCorrupt(0xff, 0xff, 0xff, 0xff, 0x0f);
+    }
+
+    @Test(expected=IOException.class)
+    public void testOversizedVarint() throws IOException
+    {
+        readCorrupt(0xff, 0xff, 0xff, 0xff, 0x7f);
+    }
+
+    @Test(expected=IOException.class)
+    public void testOversizedKeyLength() throws IOException
+    {
+        // One key claiming Integer.MAX_VALUE bytes.
+        readCorrupt(0x01, 0xff, 0xff, 0xff, 0xff, 0x07);
+    }
+
+    private static void readCorrupt(int... layers) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(SequencerBinaryWriter.MAGIC);
+        data.writeByte(SequencerBinaryWriter.VERSION);
+        for (int b : layers) {
+            data.writeByte(b);
+        }
+        new SequencerBinaryReader<>(new ByteArrayInputStream(out.toByteArray()), SequencerKeyCodecs.strings()).read();
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testShortLayer() throws IOException
+    {
+        SequencerBinaryWriter<String> writer = new SequencerBinaryWriter<>(new ByteArrayOutputStream(), SequencerKeyCodecs.strings());
+        writer.beginLayer(2);
+        writer.writeKey("a");
+        writer.finish();
+    }
+}
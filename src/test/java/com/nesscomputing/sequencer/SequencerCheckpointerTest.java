@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SequencerCheckpointerTest
+{
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("checkpoints").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        assertTrue(SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings()).isEmpty());
+
+        SequencerCheckpointer.create(directory, HashSequencer.<String>create(), SequencerKeyCodecs.strings()).close();
+        assertTrue(SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings()).isEmpty());
+    }
+
+    @Test
+    public void testSnapshotAndDeltas() throws IOException
+    {
+        final HashSequencer<String> seq = HashSequencer.copyOf("a", "b");
+        final SequencerCheckpointer<String> checkpointer = SequencerCheckpointer.create(directory, seq, seq, SequencerKeyCodecs.strings(), 2);
+
+        assertEquals(2, checkpointer.checkpoint());
+        seq.sequenceOrAdd("c");
+        assertEquals(3, checkpointer.checkpoint());
+        seq.sequenceOrAdd("d");
+        assertEquals(4, checkpointer.checkpoint());
+        assertEquals(4, checkpointer.checkpoint());
+        assertEquals(Arrays.asList("delta-0000000002-0000000003.seq", "delta-0000000003-0000000004.seq", "snapshot-0000000002.seq"), list());
+        assertEquals(seq, SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings()));
+
+        // The third checkpoint merges everything into a new snapshot.
+        seq.sequenceOrAdd("e");
+        checkpointer.close();
+        assertEquals(Arrays.asList("snapshot-0000000005.seq"), list());
+        assertEquals(seq, SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings()));
+    }
+
+    @Test
+    public void testIgnoresDeltasAfterGap() throws IOException
+    {
+        final HashSequencer<String> seq = HashSequencer.copyOf("a");
+        final SequencerCheckpointer<String> checkpointer = SequencerCheckpointer.create(directory, seq, seq, SequencerKeyCodecs.strings(), 8);
+        checkpointer.checkpoint();
+        seq.sequenceOrAdd("b");
+        checkpointer.checkpoint();
+        seq.sequenceOrAdd("c");
+        checkpointer.checkpoint();
+
+        assertTrue(new File(directory, "delta-0000000001-0000000002.seq").delete());
+        assertEquals(HashSequencer.copyOf("a"), SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings()));
+    }
+
+    @Test
+    public void testRejectsDuplicateKeyInSnapshot() throws IOException
+    {
+        try (SequencerBinaryWriter<String> writer = new SequencerBinaryWriter<>(new FileOutputStream(new File(directory, "snapshot-0000000003.seq")), SequencerKeyCodecs.strings())) {
+            writer.beginLayer(3);
+            writer.writeKey("a");
+            writer.writeKey("b");
+            writer.writeKey("a");
+            writer.finish();
+        }
+        try {
+            SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings());
+            fail();
+        } catch (IOException expected) {
+            // ignored
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception
+    {
+        final HashSequencer<String> seq = HashSequencer.create();
+        final SequencerCheckpointer<String> checkpointer = SequencerCheckpointer.create(directory, seq, seq, SequencerKeyCodecs.strings(), 3);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        final Thread writer = new Thread() {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < 20000; i++) {
+                    synchronized (seq) {
+                        seq.sequenceOrAdd("key" + i);
+                    }
+                }
+                done.set(true);
+            }
+        };
+        writer.start();
+
+        int checkpoints = 0;
+        while (!done.get()) {
+            final int size = checkpointer.checkpoint();
+            final HashSequencer<String> loaded = SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings());
+            assertEquals(size, loaded.size());
+            for (int i = 0; i < size; i += 97) {
+                assertEquals("key" + i, loaded.unsequence(i));
+            }
+            checkpoints++;
+        }
+        writer.join();
+        checkpointer.close();
+
+        assertTrue(checkpoints > 0);
+        assertEquals(seq, SequencerCheckpointer.load(directory, SequencerKeyCodecs.strings()));
+        for (String name : list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+
+    private List<String> list()
+    {
+        final String[] names = directory.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
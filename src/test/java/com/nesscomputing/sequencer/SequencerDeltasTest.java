@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SequencerDeltasTest
+{
+    private static byte[] export(Sequencer<String> seq, int fromSize) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(seq.size(), SequencerDeltas.export(seq, fromSize, out, SequencerKeyCodecs.strings()));
+        return out.toByteArray();
+    }
+
+    private static int apply(byte[] delta, Sequencer<String> target) throws IOException
+    {
+        return SequencerDeltas.apply(new ByteArrayInputStream(delta), target, SequencerKeyCodecs.strings());
+    }
+
+    @Test
+    public void testReplicate() throws IOException
+    {
+        final HashSequencer<String> primary = HashSequencer.copyOf("a", "b", "c");
+        final HashSequencer<String> replica = HashSequencer.copyOf(primary);
+
+        primary.sequenceOrAdd("d");
+        primary.sequenceOrAdd("e");
+        final byte[] delta = export(primary, replica.size());
+        assertEquals(2, apply(delta, replica));
+        assertEquals(primary, replica);
+
+        // Applying again is harmless.
+        assertEquals(0, apply(delta, replica));
+        assertEquals(primary, replica);
+    }
+
+    @Test
+    public void testEmptyDelta() throws IOException
+    {
+        final HashSequencer<String> seq = HashSequencer.copyOf("a", "b");
+        assertEquals(0, apply(export(seq, 2), HashSequencer.copyOf("a", "b")));
+        assertEquals(2, apply(export(seq, 0), HashSequencer.<String>create()));
+    }
+
+    @Test
+    public void testBackToBackOnOneStream() throws IOException
+    {
+        final HashSequencer<String> primary = HashSequencer.copyOf("a");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int synced = SequencerDeltas.export(primary, 0, out, SequencerKeyCodecs.strings());
+        primary.sequenceOrAdd("b");
+        primary.sequenceOrAdd("c");
+        synced = SequencerDeltas.export(primary, synced, out, SequencerKeyCodecs.strings());
+        primary.sequenceOrAdd("d");
+        SequencerDeltas.export(primary, synced, out, SequencerKeyCodecs.strings());
+
+        final InputStream in = new ByteArrayInputStream(out.toByteArray());
+        final HashSequencer<String> replica = HashSequencer.create();
+        assertEquals(1, SequencerDeltas.apply(in, replica, SequencerKeyCodecs.strings()));
+        assertEquals(2, SequencerDeltas.apply(in, replica, SequencerKeyCodecs.strings()));
+        assertEquals(1, SequencerDeltas.apply(in, replica, SequencerKeyCodecs.strings()));
+        assertEquals(-1, in.read());
+        assertEquals(primary, replica);
+    }
+
+    @Test
+    public void testBuilderAndImmutableTargets() throws IOException
+    {
+        final ImmutableSequencer<String> base = ImmutableSequencer.of("a", "b");
+        final ImmutableShadowingSequencerBuilder<String> primary = base.extendImmutableSequence();
+        primary.sequenceOrAdd("c");
+        primary.sequenceOrAdd("d");
+        final byte[] delta = export(primary, 2);
+
+        final ImmutableShadowingSequencerBuilder<String> replica = ImmutableSequencer.of("a", "b").extendImmutableSequence();
+        assertEquals(2, apply(delta, replica));
+        assertEquals(primary, replica);
+
+        final ImmutableSequencer<String> extended = SequencerDeltas.extend(new ByteArrayInputStream(delta), ImmutableSequencer.of("a", "b"), SequencerKeyCodecs.strings());
+        assertEquals(primary, extended);
+
+        final ImmutableSequencer<String> full = primary.build();
+        assertSame(full, SequencerDeltas.extend(new ByteArrayInputStream(delta), full, SequencerKeyCodecs.strings()));
+    }
+
+    @Test
+    public void testDivergedPrefixLeavesReplicaUnchanged() throws IOException
+    {
+        final byte[] delta = export(HashSequencer.copyOf("a", "b", "c"), 2);
+        final HashSequencer<String> replica = HashSequencer.copyOf("b", "a");
+        try {
+            apply(delta, replica);
+            fail();
+        } catch (SequencerDeltaException e) {
+            // expected
+        }
+        assertEquals(HashSequencer.copyOf("b", "a"), replica);
+    }
+
+    @Test(expected=SequencerDeltaException.class)
+    public void testReplicaBehind() throws IOException
+    {
+        apply(export(HashSequencer.copyOf("a", "b", "c"), 2), HashSequencer.copyOf("a"));
+    }
+
+    @Test(expected=SequencerDeltaException.class)
+    public void testReplicaAheadAndDiverged() throws IOException
+    {
+        apply(export(HashSequencer.copyOf("a", "b", "c"), 1), HashSequencer.copyOf("a", "c", "b"));
+    }
+
+    @Test(expected=IOException.class)
+    public void testBadMagic() throws IOException
+    {
+        apply(new byte[] {1, 2, 3, 4, 5}, HashSequencer.<String>create());
+    }
+
+    @Test(expected=IOException.class)
+    public void testOversizedKeyLength() throws IOException
+    {
+        // Header, fromSize, fingerprint and count take 15 bytes; then one key claiming Integer.MAX_VALUE bytes.
+        byte[] delta = Arrays.copyOf(export(HashSequencer.copyOf("a"), 0), 20);
+        System.arraycopy(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}, 0, delta, 15, 5);
+        apply(delta, HashSequencer.<String>create());
+    }
+
+    @Test(expected=IOException.class)
+    public void testOverflowingCount() throws IOException
+    {
+        byte[] delta = Arrays.copyOf(export(HashSequencer.copyOf("a", "b"), 1), 19);
+        System.arraycopy(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}, 0, delta, 14, 5);
+        apply(delta, HashSequencer.copyOf("a"));
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testExportBeyondSize() throws IOException
+    {
+        export(HashSequencer.copyOf("a"), 2);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+public class SequencerModuleTest
+{
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new SequencerModule());
+    private final ObjectMapper hintMapper = new ObjectMapper().registerModule(new SequencerModule(true));
+
+    @Test
+    public void testArrayFormat() throws Exception
+    {
+        HashSequencer<String> seq = HashSequencer.copyOf("a", "b", "c");
+        String json = mapper.writeValueAsString(seq);
+        assertEquals("[\"a\",\"b\",\"c\"]", json);
+
+        Sequencer<String> result = mapper.readValue(json, new TypeReference<Sequencer<String>>() {});
+        assertTrue(result instanceof ImmutableSequencerImpl);
+        assertEquals(seq, result);
+    }
+
+    @Test
+    public void testSizeHintFormat() throws Exception
+    {
+        HashSequencer<String> seq = HashSequencer.copyOf("a", "b", "c");
+        String json = hintMapper.writeValueAsString(seq);
+        assertEquals("{\"size\":3,\"keys\":[\"a\",\"b\",\"c\"]}", json);
+
+        assertEquals(seq, mapper.readValue(json, new TypeReference<Sequencer<String>>() {}));
+        assertEquals(seq, hintMapper.readValue("[\"a\",\"b\",\"c\"]", new TypeReference<ImmutableSequencer<String>>() {}));
+    }
+
+    @Test
+    public void testWrongSizeHint() throws Exception
+    {
+        Sequencer<String> seq = mapper.readValue("{\"size\":1,\"keys\":[\"a\",\"b\",\"c\"]}", new TypeReference<Sequencer<String>>() {});
+        assertEquals(HashSequencer.copyOf("a", "b", "c"), seq);
+        assertEquals(3, seq.size());
+    }
+
+    @Test
+    public void testHugeSizeHint() throws Exception
+    {
+        Sequencer<String> seq = mapper.readValue("{\"size\":2147483647,\"keys\":[\"a\",\"b\"]}", new TypeReference<Sequencer<String>>() {});
+        assertEquals(HashSequencer.copyOf("a", "b"), seq);
+
+        HashSequencer<String> mutable = mapper.readValue("{\"size\":2147483647,\"keys\":[\"a\",\"b\"]}", new TypeReference<HashSequencer<String>>() {});
+        assertEquals(HashSequencer.copyOf("a", "b"), mutable);
+    }
+
+    @Test
+    public void testEmpty() throws Exception
+    {
+        Sequencer<String> seq = mapper.readValue(hintMapper.writeValueAsString(Sequencers.emptySequencer()), new TypeReference<Sequencer<String>>() {});
+        assertTrue(seq.isEmpty());
+    }
+
+    @Test
+    public void testHashSequencerTarget() throws Exception
+    {
+        HashSequencer<Long> seq = mapper.readValue("[3, 1, 2]", new TypeReference<HashSequencer<Long>>() {});
+        assertEquals(HashSequencer.copyOf(3L, 1L, 2L), seq);
+        seq.sequenceOrAdd(4L);
+        assertEquals(4, seq.size());
+    }
+
+    @Test
+    public void testLayeredSequencer() throws Exception
+    {
+        ImmutableShadowingSequencerBuilder<String> builder = ImmutableSequencer.of("a", "b").extendImmutableSequence();
+        builder.sequenceOrAdd("c");
+        ImmutableSequencer<String> seq = builder.build();
+        assertEquals(seq, mapper.readValue(mapper.writeValueAsBytes(seq), new TypeReference<Sequencer<String>>() {}));
+    }
+
+    @Test(expected=JsonMappingException.class)
+    public void testDuplicateKey() throws Exception
+    {
+        mapper.readValue("[\"a\",\"b\",\"a\"]", new TypeReference<Sequencer<String>>() {});
+    }
+
+    @Test(expected=JsonMappingException.class)
+    public void testDuplicateKeyMutable() throws Exception
+    {
+        mapper.readValue("[\"a\",\"b\",\"a\"]", new TypeReference<HashSequencer<String>>() {});
+    }
+
+    @Test(expected=JsonMappingException.class)
+    public void testNullKey() throws Exception
+    {
+        mapper.readValue("[\"a\",null]", new TypeReference<Sequencer<String>>() {});
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+public class ShardedSequencerTest
+{
+    @Test
+    public void testSequence()
+    {
+        final ShardedSequencer<String> seq = ShardedSequencer.create(4);
+        final int a = seq.sequenceOrAdd("a");
+        final int b = seq.sequenceOrAdd("b");
+        assertEquals(a, seq.sequenceOrAdd("a"));
+        assertEquals(b, seq.sequenceIfExists("b"));
+        assertEquals(-1, seq.sequenceIfExists("c"));
+        assertTrue(seq.containsKey("a"));
+        assertFalse(seq.containsKey("c"));
+        assertEquals("a", seq.unsequence(a));
+        assertEquals("b", seq.unsequence(b));
+        assertEquals(2, seq.size());
+    }
+
+    @Test
+    public void testSingleShardIsDense()
+    {
+        final ShardedSequencer<String> seq = ShardedSequencer.create(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, seq.sequenceOrAdd("key" + i));
+        }
+        final ShardedSequencer.Compaction<String> compaction = seq.compact();
+        assertEquals(100, compaction.getSequencer().size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, compaction.remap(i));
+        }
+    }
+
+    @Test
+    public void testFullShard()
+    {
+        final ShardedSequencer<String> seq = new ShardedSequencer<>(1, 2);
+        assertEquals(0, seq.sequenceOrAdd("a"));
+        assertEquals(1, seq.sequenceOrAdd("b"));
+        assertEquals(2, seq.sequenceOrAdd("c"));
+        try {
+            seq.sequenceOrAdd("d");
+            fail();
+        } catch (IllegalStateException expected) {
+            // ignored
+        }
+        assertEquals(-1, seq.sequenceIfExists("d"));
+        assertEquals(3, seq.size());
+        assertEquals(2, seq.sequenceOrAdd("c"));
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testUnsequenceHole()
+    {
+        final ShardedSequencer<String> seq = ShardedSequencer.create(4);
+        seq.sequenceOrAdd("a");
+        seq.unsequence(1000);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadShardCount()
+    {
+        ShardedSequencer.create(3);
+    }
+
+    @Test
+    public void testConcurrentAddsAndCompaction() throws Exception
+    {
+        final int threads = 8;
+        final int keysPerThread = 20000;
+        final ShardedSequencer<String> seq = ShardedSequencer.create(16);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<int[]>> futures = Lists.newArrayList();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() throws Exception
+                    {
+                        start.await();
+                        // Every thread adds the same keys, so they race on each one.
+                        final int[] ids = new int[keysPerThread];
+                        for (int i = 0; i < keysPerThread; i++) {
+                            ids[i] = seq.sequenceOrAdd("key" + i);
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            start.countDown();
+
+            final int[] expected = futures.get(0).get();
+            for (Future<int[]> future : futures) {
+                final int[] ids = future.get();
+                for (int i = 0; i < keysPerThread; i++) {
+                    assertEquals(expected[i], ids[i]);
+                }
+            }
+            assertEquals(keysPerThread, seq.size());
+
+            final ShardedSequencer.Compaction<String> compaction = seq.compact();
+            final ImmutableSequencer<String> compacted = compaction.getSequencer();
+            assertEquals(keysPerThread, compacted.size());
+            int previous = -1;
+            for (int id = 0; id < compaction.getRemapTable().length; id++) {
+                final int remapped = compaction.remap(id);
+                if (remapped != -1) {
+                    assertEquals(previous + 1, remapped);
+                    assertEquals(seq.unsequence(id), compacted.unsequence(remapped));
+                    previous = remapped;
+                }
+            }
+            for (int i = 0; i < keysPerThread; i++) {
+                assertEquals(i, Integer.parseInt(compacted.unsequence(compaction.remap(expected[i])).substring(3)));
+            }
+            assertEquals(-1, compaction.remap(-1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+public class SingleWriterSequencerTest extends AbstractSequencerTest<SingleWriterSequencer<String>>
+{
+    @Override
+    protected SingleWriterSequencer<String> createEmpty()
+    {
+        return SingleWriterSequencer.create();
+    }
+
+    @Override
+    protected SingleWriterSequencer<String> extend(SingleWriterSequencer<String> from, String... newKeys)
+    {
+        for (String newKey : newKeys) {
+            from.sequenceOrAdd(newKey);
+        }
+        return from;
+    }
+
+    @Test
+    public void testSnapshot()
+    {
+        final SingleWriterSequencer<String> seq = SingleWriterSequencer.copyOf("a", "b");
+        final ImmutableSequencer<String> snapshot = seq.snapshot();
+        for (int i = 0; i < 10000; i++) {
+            seq.sequenceOrAdd(Integer.toString(i));
+        }
+
+        assertEquals(2, snapshot.size());
+        assertEquals(ImmutableSequencer.of("a", "b"), snapshot);
+        assertEquals(-1, snapshot.sequenceIfExists("0"));
+        assertFalse(snapshot.containsKey("9999"));
+        assertEquals(1, snapshot.sequenceIfExists("b"));
+    }
+
+    @Test
+    public void testReadersDuringWrites() throws Exception
+    {
+        final int keyCount = 200000;
+        final int readers = 4;
+        final SingleWriterSequencer<String> seq = createEmpty();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<Integer>> futures = Lists.newArrayList();
+            for (int t = 0; t < readers; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        int checked = 0;
+                        while (!done.get()) {
+                            // Every key below the size is visible, with the id it was added with.
+                            final int size = seq.size();
+                            for (int id = Math.max(0, size - 64); id < size; id++) {
+                                final String key = Integer.toString(id);
+                                assertEquals(id, seq.sequenceIfExists(key));
+                                assertEquals(key, seq.unsequence(id));
+                                checked++;
+                            }
+                            final ImmutableSequencer<String> snapshot = seq.snapshot();
+                            assertEquals(-1, snapshot.sequenceIfExists(Integer.toString(snapshot.size())));
+                        }
+                        return checked;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < keyCount; i++) {
+                assertEquals(i, seq.sequenceOrAdd(Integer.toString(i)));
+            }
+            done.set(true);
+            for (Future<Integer> future : futures) {
+                assertTrue(future.get() >= 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(keyCount, seq.size());
+        assertEquals(seq, ImmutableSequencer.copyOf(seq));
+    }
+}
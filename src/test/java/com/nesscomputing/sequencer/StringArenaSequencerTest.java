@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.sequencer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+import org.junit.Test;
+
+public class StringArenaSequencerTest extends AbstractSequencerTest<StringArenaSequencer>
+{
+    @Override
+    protected StringArenaSequencer createEmpty()
+    {
+        return StringArenaSequencer.create();
+    }
+
+    @Override
+    protected StringArenaSequencer extend(StringArenaSequencer from, String... newKeys)
+    {
+        for (String newKey : newKeys) {
+            from.sequenceOrAdd(newKey);
+        }
+        return from;
+    }
+
+    @Test
+    public void testManyKeysAcrossChunks()
+    {
+        StringArenaSequencer seq = StringArenaSequencer.create(1, 64, false);
+        HashSequencer<String> reference = HashSequencer.create();
+        for (int i = 0; i < 5000; i++) {
+            String key = "key-" + (i * 31 % 2000);
+            assertEquals(reference.sequenceOrAdd(key), seq.sequenceOrAdd(key));
+        }
+        assertEquals(reference, seq);
+        assertEquals(-1, seq.sequenceIfExists("key-2000"));
+    }
+
+    @Test
+    public void testOffHeapAndOversizedKeys()
+    {
+        StringArenaSequencer seq = StringArenaSequencer.create(1, 16, true);
+        String big = Strings.repeat("é中", 200);
+        assertEquals(0, seq.sequenceOrAdd("a"));
+        assertEquals(1, seq.sequenceOrAdd(big));
+        assertEquals(2, seq.sequenceOrAdd("b"));
+        assertEquals(1, seq.sequenceOrAdd(big));
+
+        assertEquals(big, seq.unsequence(1));
+        assertEquals("b", seq.unsequence(2));
+        assertTrue(seq.containsKey(big));
+        assertFalse(seq.containsKey(big + "x"));
+    }
+
+    @Test
+    public void testKeyBytes()
+    {
+        StringArenaSequencer seq = StringArenaSequencer.create();
+        seq.sequenceOrAdd("hello");
+        seq.sequenceOrAdd("wörld");
+
+        ByteBuffer bytes = seq.keyBytes(1);
+        assertTrue(bytes.isReadOnly());
+        assertEquals("wörld", Charsets.UTF_8.decode(bytes).toString());
+        assertEquals("hello", Charsets.UTF_8.decode(seq.keyBytes(0)).toString());
+    }
+
+    @Test
+    public void testMultiByteKeys()
+    {
+        StringArenaSequencer seq = StringArenaSequencer.create();
+        String[] keys = {"a", "é", "中", "\ud83d\ude00", "a\ud83d\ude00é中z", "\u007f\u0080\u07ff\u0800\uffff"};
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, seq.sequenceOrAdd(keys[i]));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, seq.sequenceIfExists(keys[i]));
+            assertEquals(keys[i], seq.unsequence(i));
+            assertEquals(keys[i], Charsets.UTF_8.decode(seq.keyBytes(i)).toString());
+        }
+        assertEquals(-1, seq.sequenceIfExists("\ud83d\ude01"));
+        assertEquals(-1, seq.sequenceIfExists("中z"));
+    }
+
+    @Test
+    public void testLoneSurrogates()
+    {
+        StringArenaSequencer seq = StringArenaSequencer.create();
+        seq.sequenceOrAdd("?");
+        assertEquals(-1, seq.sequenceIfExists("\ud800"));
+        assertFalse(seq.containsKey("\udc00"));
+        try {
+            seq.sequenceOrAdd("\ud800");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ignored
+        }
+        try {
+            seq.sequenceOrAdd("a\ude00b");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ignored
+        }
+        assertEquals(1, seq.size());
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testUnsequenceOutOfRange()
+    {
+        StringArenaSequencer.copyOf(ImmutableSequencer.of("a").getKeys()).unsequence(1);
+    }
+}